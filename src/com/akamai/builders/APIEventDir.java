@@ -1,7 +1,41 @@
 package com.akamai.builders;
 
+import com.akamai.netstorage.parameter.Parameter;
+
 public class APIEventDir extends APIEventWithFormat {
+    @Parameter(name = "max_entries")
+    private Integer maxEntries;
+    private String start;
+    private String end;
+
     public APIEventDir() {
         super("dir");
     }
+
+    public APIEventDir withMaxEntries(Integer maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    public Integer getMaxEntries() {
+        return maxEntries;
+    }
+
+    public APIEventDir startingAt(String start) {
+        this.start = start;
+        return this;
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public APIEventDir endingAt(String end) {
+        this.end = end;
+        return this;
+    }
+
+    public String getEnd() {
+        return end;
+    }
 }
@@ -0,0 +1,31 @@
+package com.akamai.builders;
+
+import com.akamai.netstorage.parameter.Parameter;
+
+public class APIEventList extends APIEventWithFormat {
+    @Parameter(name = "max_entries")
+    private Integer maxEntries;
+    private String end;
+
+    public APIEventList() {
+        super("list");
+    }
+
+    public APIEventList withMaxEntries(Integer maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    public Integer getMaxEntries() {
+        return maxEntries;
+    }
+
+    public APIEventList endingAt(String end) {
+        this.end = end;
+        return this;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+}
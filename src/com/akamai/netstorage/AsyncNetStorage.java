@@ -0,0 +1,279 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.NetStorageCMSv35Signer.NetStorageType;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous companion to {@link NetStorage}. Every operation is submitted to an {@link Executor} and returns a
+ * {@link CompletableFuture} that completes with the same result as the blocking call, or exceptionally with the
+ * {@link NetStorageException} or {@link java.io.IOException} it would have thrown.
+ * <p>
+ * The operations run through the wrapped NetStorage instance, so its transport and timeouts apply unchanged. The
+ * executor decides how many operations are in flight at once. By default a {@link VirtualThreadExecutor} runs at most
+ * {@value #DEFAULT_MAX_CONCURRENCY} of them, each on a virtual thread where the JVM supports them (Java 21+), and
+ * queues the rest without a thread of their own.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class AsyncNetStorage implements AutoCloseable {
+
+    /**
+     * The number of operations in flight at once with the default executor
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = 32;
+
+    private final NetStorage netStorage;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * Create an async client with its own {@link VirtualThreadExecutor} of {@value #DEFAULT_MAX_CONCURRENCY}
+     * concurrent operations. The executor is shut down by {@link #close()}.
+     *
+     * @param netStorage the client used to run each operation
+     */
+    public AsyncNetStorage(NetStorage netStorage) {
+        this(netStorage, new VirtualThreadExecutor(DEFAULT_MAX_CONCURRENCY));
+    }
+
+    /**
+     * @param netStorage the client used to run each operation
+     * @param executor   the executor that runs the operations. It is not shut down by {@link #close()}
+     */
+    public AsyncNetStorage(NetStorage netStorage, Executor executor) {
+        this.netStorage = netStorage;
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+    private AsyncNetStorage(NetStorage netStorage, ExecutorService ownedExecutor) {
+        this.netStorage = netStorage;
+        this.ownedExecutor = ownedExecutor;
+        this.executor = ownedExecutor;
+    }
+
+    /**
+     * Create an async client that runs every operation on its own virtual thread (Java 21+) with at most
+     * maxConcurrency operations in flight. Further operations wait without holding a platform thread. The executor is
+     * shut down by {@link #close()}.
+     *
+     * @param netStorage     the client used to run each operation
+     * @param maxConcurrency the maximum number of concurrent operations
+     * @return the async client
+     * @see VirtualThreadExecutor
+     */
+    public static AsyncNetStorage withVirtualThreads(NetStorage netStorage, int maxConcurrency) {
+        return new AsyncNetStorage(netStorage, new VirtualThreadExecutor(maxConcurrency));
+    }
+
+    public NetStorage getNetStorage() {
+        return netStorage;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    protected <T> CompletableFuture<T> submit(Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(operation.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<NetStorageType> getNetStorageType() {
+        return submit(() -> netStorage.getNetStorageType());
+    }
+
+    public CompletableFuture<Boolean> delete(String path) {
+        return submit(() -> netStorage.delete(path));
+    }
+
+    public CompletableFuture<InputStream> dir(String path) {
+        return submit(() -> netStorage.dir(path));
+    }
+
+    public CompletableFuture<InputStream> dir(String path, String format) {
+        return submit(() -> netStorage.dir(path, format));
+    }
+
+    public CompletableFuture<InputStream> dir(String path, String format, Map<String, String> additionalParams) {
+        return submit(() -> netStorage.dir(path, format, additionalParams));
+    }
+
+    public CompletableFuture<InputStream> download(String path) {
+        return submit(() -> netStorage.download(path));
+    }
+
+    public CompletableFuture<InputStream> download(String path, long start, long end) {
+        return submit(() -> netStorage.download(path, start, end));
+    }
+
+    public CompletableFuture<Boolean> download(String path, File target) {
+        return submit(() -> netStorage.download(path, target));
+    }
+
+    public CompletableFuture<Boolean> download(String path, Path target) {
+        return submit(() -> netStorage.download(path, target));
+    }
+
+    /**
+     * Stream a download as {@link ByteBuffer} chunks. The download is started when the publisher is subscribed to and
+     * content is only read from the connection as the subscriber requests it.
+     *
+     * @param path the file to download
+     * @return a single subscriber publisher of the file content
+     */
+    public Flow.Publisher<ByteBuffer> downloadPublisher(String path) {
+        return downloadPublisher(path, 64 * 1024);
+    }
+
+    /**
+     * @param path      the file to download
+     * @param chunkSize the maximum size of each emitted buffer
+     * @return a single subscriber publisher of the file content
+     * @see #downloadPublisher(String)
+     */
+    public Flow.Publisher<ByteBuffer> downloadPublisher(String path, int chunkSize) {
+        return new InputStreamPublisher(() -> netStorage.download(path), executor, chunkSize);
+    }
+
+    public CompletableFuture<InputStream> du(String path) {
+        return submit(() -> netStorage.du(path));
+    }
+
+    public CompletableFuture<InputStream> du(String path, String format) {
+        return submit(() -> netStorage.du(path, format));
+    }
+
+    public CompletableFuture<Boolean> mkdir(String path) {
+        return submit(() -> netStorage.mkdir(path));
+    }
+
+    public CompletableFuture<Boolean> mtime(String path) {
+        return submit(() -> netStorage.mtime(path));
+    }
+
+    public CompletableFuture<Boolean> mtime(String path, Date mtime) {
+        return submit(() -> netStorage.mtime(path, mtime));
+    }
+
+    public CompletableFuture<Boolean> rename(String originalPath, String newPath) {
+        return submit(() -> netStorage.rename(originalPath, newPath));
+    }
+
+    public CompletableFuture<Boolean> rmdir(String path) {
+        return submit(() -> netStorage.rmdir(path));
+    }
+
+    public CompletableFuture<InputStream> stat(String path) {
+        return submit(() -> netStorage.stat(path));
+    }
+
+    public CompletableFuture<InputStream> stat(String path, String format) {
+        return submit(() -> netStorage.stat(path, format));
+    }
+
+    public CompletableFuture<Boolean> symlink(String path, String target) {
+        return submit(() -> netStorage.symlink(path, target));
+    }
+
+    public CompletableFuture<Boolean> quickDelete(String path) {
+        return submit(() -> netStorage.quickDelete(path));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, InputStream uploadFileStream) {
+        return submit(() -> netStorage.upload(path, uploadFileStream));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, InputStream uploadFileStream, Date mtime, Long size,
+                                             byte[] md5Checksum, byte[] sha1Checksum, byte[] sha256Checksum, boolean indexZip) {
+        return submit(() -> netStorage.upload(path, uploadFileStream, mtime, size, md5Checksum, sha1Checksum, sha256Checksum, indexZip));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, InputStream uploadFileStream, Map<String, String> additionalParams,
+                                             Date mtime, Long size, byte[] md5Checksum, byte[] sha1Checksum,
+                                             byte[] sha256Checksum, boolean indexZip) {
+        return submit(() -> netStorage.upload(path, uploadFileStream, additionalParams, mtime, size, md5Checksum, sha1Checksum, sha256Checksum, indexZip));
+    }
+
+    /**
+     * Upload the content emitted by a publisher. Buffers are requested from the publisher as they are sent, so the
+     * content is never held in memory as a whole.
+     *
+     * @param path    the destination path
+     * @param content the upload content
+     * @param size    the content length if known, otherwise null
+     * @return true once the upload has completed
+     * @see PublisherInputStream
+     */
+    public CompletableFuture<Boolean> upload(String path, Flow.Publisher<? extends ByteBuffer> content, Long size) {
+        return submit(() -> netStorage.upload(path, new PublisherInputStream(content), null, new Date(), size, null, null, null, false));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, File srcFile) {
+        return submit(() -> netStorage.upload(path, srcFile));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, File srcFile, Map<String, String> additionalParams) {
+        return submit(() -> netStorage.upload(path, srcFile, additionalParams));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, File srcFile, boolean indexZip) {
+        return submit(() -> netStorage.upload(path, srcFile, indexZip));
+    }
+
+    public CompletableFuture<Boolean> upload(String path, File srcFile, Map<String, String> additionalParams, boolean indexZip) {
+        return submit(() -> netStorage.upload(path, srcFile, additionalParams, indexZip));
+    }
+
+    public CompletableFuture<Boolean> setmd(String path, Map<String, String> additionalParams) {
+        return submit(() -> netStorage.setmd(path, additionalParams));
+    }
+
+    /**
+     * Shut down the executor if it was created by this instance. Operations already submitted are allowed to finish.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A persistent index of the checksums of local files, so that unchanged files are not hashed again by every run of a
+ * job. Entries are keyed by the canonical path of the file and are only used while the size and last modified time of
+ * the file still match the ones recorded when it was hashed.
+ * <p>
+ * The index is an append-only text file with one record per line ({@code path, size, mtime, algorithm:hex...}); a
+ * later record for the same path replaces an earlier one and a truncated last line (eg: after a crash) is ignored.
+ * Once the file holds {@code compactionRatio} times more records than live entries (and at least
+ * {@code compactionThreshold} records) it is rewritten with only the live entries of files that are unchanged.
+ * <p>
+ * Lookups are served from memory and are safe from any number of threads. Only one process should write to an index
+ * at a time; other processes may read it.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ChecksumCache implements Closeable {
+
+    private static final Logger log = Logger.getLogger(ChecksumCache.class.getName());
+
+    // defaults
+    private double compactionRatio = 2.0;
+    private int compactionThreshold = 1024;
+
+    private final Path index;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private int records;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        private final long size;
+        private final long mtime;
+        private final Map<HashAlgorithm, byte[]> hashes;
+
+        Entry(long size, long mtime, Map<HashAlgorithm, byte[]> hashes) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hashes = hashes;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && mtime == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * @param index the index file; it is created on the first write if it does not exist
+     * @throws IOException if the index exists but cannot be read
+     */
+    public ChecksumCache(File index) throws IOException {
+        this.index = index.toPath();
+        load();
+    }
+
+    /**
+     * @param file       a local file
+     * @param algorithms the checksums wanted
+     * @return the cached checksums of the file, or null if the file has changed or is not (fully) cached
+     * @throws IOException if the file cannot be accessed
+     */
+    public Map<HashAlgorithm, byte[]> lookup(Path file, HashAlgorithm... algorithms) throws IOException {
+        Path canonical = file.toRealPath();
+        Entry entry = entries.get(canonical.toString());
+        if (entry != null && entry.matches(Files.readAttributes(canonical, BasicFileAttributes.class))
+                && entry.hashes.keySet().containsAll(Arrays.asList(algorithms))) {
+            hits.incrementAndGet();
+            return select(entry.hashes, algorithms);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Return the cached checksums of the file, hashing (and caching) it only if it is not cached or has changed.
+     *
+     * @param file       a local file
+     * @param algorithms the checksums wanted
+     * @return the checksum of the file for each algorithm
+     * @throws IOException if the file cannot be read or the index cannot be written
+     */
+    public Map<HashAlgorithm, byte[]> getHashes(Path file, HashAlgorithm... algorithms) throws IOException {
+        Map<HashAlgorithm, byte[]> hashes = lookup(file, algorithms);
+        if (hashes != null)
+            return hashes;
+
+        Path canonical = file.toRealPath();
+        BasicFileAttributes before = Files.readAttributes(canonical, BasicFileAttributes.class);
+        hashes = new FileHasher(algorithms).hash(canonical);
+        BasicFileAttributes after = Files.readAttributes(canonical, BasicFileAttributes.class);
+        if (before.size() == after.size() && before.lastModifiedTime().equals(after.lastModifiedTime()))
+            put(canonical, after.size(), after.lastModifiedTime().toMillis(), hashes);
+        else
+            log.fine(String.format("%s changed while it was hashed, not caching its checksums", file));
+        return hashes;
+    }
+
+    /**
+     * Record checksums of a file, eg: the ones computed while it was uploaded. Checksums already cached for the same
+     * size and mtime are kept.
+     *
+     * @param file   a local file
+     * @param size   the size of the file when it was hashed
+     * @param mtime  the last modified time (in milliseconds) of the file when it was hashed
+     * @param hashes the checksums
+     * @throws IOException if the index cannot be written
+     */
+    public void put(Path file, long size, long mtime, Map<HashAlgorithm, byte[]> hashes) throws IOException {
+        String key = file.toRealPath().toString();
+        lock.lock();
+        try {
+            Map<HashAlgorithm, byte[]> merged = new EnumMap<>(HashAlgorithm.class);
+            Entry previous = entries.get(key);
+            if (previous != null && previous.size == size && previous.mtime == mtime)
+                merged.putAll(previous.hashes);
+            merged.putAll(hashes);
+            Entry entry = new Entry(size, mtime, Collections.unmodifiableMap(merged));
+
+            append(format(key, entry));
+            entries.put(key, entry);
+            if (records >= this.getCompactionThreshold() && records >= this.getCompactionRatio() * entries.size())
+                compact();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrite the index with the latest record of every file that still exists unchanged.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    public void compact() throws IOException {
+        lock.lock();
+        try {
+            closeChannel();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                try {
+                    if (!entry.getValue().matches(Files.readAttributes(new File(entry.getKey()).toPath(), BasicFileAttributes.class)))
+                        entries.remove(entry.getKey());
+                } catch (NoSuchFileException e) {
+                    entries.remove(entry.getKey());
+                }
+            }
+
+            // write and rename so that a crash never leaves a truncated index behind
+            Path tmp = index.resolveSibling(index.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Entry> entry : entries.entrySet())
+                    writer.write(format(entry.getKey(), entry.getValue()));
+            }
+            Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = entries.size();
+            log.fine(String.format("Compacted %s to %d entries", index, records));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(index))
+            return;
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                records++;
+                String[] fields = line.split("\t");
+                if (fields.length < 4)
+                    continue;
+                try {
+                    Map<HashAlgorithm, byte[]> hashes = new EnumMap<>(HashAlgorithm.class);
+                    for (int i = 3; i < fields.length; i++) {
+                        int separator = fields[i].indexOf(':');
+                        HashAlgorithm algorithm = HashAlgorithm.valueOf(fields[i].substring(0, separator));
+                        byte[] hash = decodeHex(fields[i].substring(separator + 1));
+                        // a truncated last line may still hold an even number of hex digits
+                        if (hash.length != getDigestLength(algorithm))
+                            throw new IllegalArgumentException("Truncated " + algorithm + " checksum");
+                        hashes.put(algorithm, hash);
+                    }
+                    entries.put(unescape(fields[0]), new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Collections.unmodifiableMap(hashes)));
+                } catch (RuntimeException e) {
+                    log.fine(String.format("Ignoring unreadable record in %s: %s", index, e));
+                }
+            }
+        }
+    }
+
+    private void append(String record) throws IOException {
+        if (channel == null)
+            channel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // a single write per record so that a concurrent reader sees either the whole line or none of it
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        records++;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private static String format(String path, Entry entry) {
+        StringBuilder record = new StringBuilder(escape(path)).append('\t').append(entry.size).append('\t').append(entry.mtime);
+        for (Map.Entry<HashAlgorithm, byte[]> hash : entry.hashes.entrySet())
+            record.append('\t').append(hash.getKey().name()).append(':').append(Utils.encodeHex(hash.getValue()));
+        return record.append('\n').toString();
+    }
+
+    private static Map<HashAlgorithm, byte[]> select(Map<HashAlgorithm, byte[]> hashes, HashAlgorithm... algorithms) {
+        Map<HashAlgorithm, byte[]> selected = new EnumMap<>(HashAlgorithm.class);
+        for (HashAlgorithm algorithm : algorithms)
+            selected.put(algorithm, hashes.get(algorithm).clone());
+        return selected;
+    }
+
+    private static String escape(String path) {
+        return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String path) {
+        StringBuilder unescaped = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\' && i + 1 < path.length()) {
+                c = path.charAt(++i);
+                c = c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c;
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    private static int getDigestLength(HashAlgorithm algorithm) {
+        switch (algorithm) {
+            case MD5:
+                return 16;
+            case SHA1:
+                return 20;
+            default:
+                return 32;
+        }
+    }
+
+    private static byte[] decodeHex(String hex) {
+        if (hex.length() % 2 != 0)
+            throw new IllegalArgumentException("Odd length hex string");
+        byte[] value = new byte[hex.length() / 2];
+        for (int i = 0; i < value.length; i++)
+            value[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        return value;
+    }
+
+    /**
+     * @return the number of files in the index
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the index
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups of files that were not cached or had changed
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+    /**
+     * @param compactionRatio the number of records per live entry at which the index is compacted
+     */
+    public void setCompactionRatio(double compactionRatio) {
+        this.compactionRatio = compactionRatio;
+    }
+
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold the minimum number of records in the index before it is compacted
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+}
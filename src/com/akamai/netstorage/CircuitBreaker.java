@@ -0,0 +1,372 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Fails requests fast while a Netstorage host is degraded instead of letting every caller wait for its timeouts.
+ * <p>
+ * The breaker keeps the outcome of the last {@code windowSize} requests of each hostname. Once at least
+ * {@code minimumRequests} have completed and the share of failures (connection errors, timeouts and 5xx responses)
+ * reaches {@code failureRateThreshold}, the circuit opens and requests fail immediately with a
+ * {@link CircuitOpenException}. After {@code openTimeout} the circuit is half-open: up to {@code probes} requests are
+ * let through; the circuit closes when all of them succeed and opens again on the first failure.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Notified whenever the circuit of a host changes state, eg: to take the host out of a load balancer.
+     */
+    public interface Listener {
+        void onStateChange(String hostname, State from, State to);
+    }
+
+    // defaults
+    private double failureRateThreshold = 0.5;
+    private int minimumRequests = 10;
+    private int windowSize = 20;
+    private long openTimeout = 30000;
+    private int probes = 3;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public CircuitBreaker() {
+    }
+
+    public CircuitBreaker(double failureRateThreshold, long openTimeout) {
+        if (failureRateThreshold > 0) this.setFailureRateThreshold(failureRateThreshold);
+        if (openTimeout > 0) this.setOpenTimeout(openTimeout);
+    }
+
+    /**
+     * The right to send one request through the circuit. Exactly one of {@link #onSuccess()}, {@link #onFailure()}
+     * or {@link #onIgnore()} must be called when the request completes; further calls are ignored.
+     */
+    public class Permit {
+        private final Circuit circuit;
+        private final boolean probe;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Circuit circuit, boolean probe) {
+            this.circuit = circuit;
+            this.probe = probe;
+        }
+
+        /**
+         * The host answered (including client errors such as 404).
+         */
+        public void onSuccess() {
+            if (released.compareAndSet(false, true))
+                circuit.record(this, true);
+        }
+
+        /**
+         * The host failed to answer or answered with a server error.
+         */
+        public void onFailure() {
+            if (released.compareAndSet(false, true))
+                circuit.record(this, false);
+        }
+
+        /**
+         * The request did not reach the host (eg: it was interrupted); the outcome is not recorded.
+         */
+        public void onIgnore() {
+            if (released.compareAndSet(false, true))
+                circuit.release(this);
+        }
+    }
+
+    private class Circuit {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final String hostname;
+        private final boolean[] outcomes = new boolean[getWindowSize()];
+        private int position;
+        private int count;
+        private int failures;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int probesInFlight;
+        private int probeSuccesses;
+
+        Circuit(String hostname) {
+            this.hostname = hostname;
+        }
+
+        Permit acquire() throws CircuitOpenException {
+            State from;
+            lock.lock();
+            try {
+                from = state;
+                if (state == State.CLOSED)
+                    return new Permit(this, false);
+
+                long remaining = openedAt + getOpenTimeout() - System.currentTimeMillis();
+                if (state == State.OPEN) {
+                    if (remaining > 0)
+                        throw new CircuitOpenException(hostname, remaining);
+                    state = State.HALF_OPEN;
+                    probesInFlight = 0;
+                    probeSuccesses = 0;
+                }
+                if (probesInFlight + probeSuccesses >= getProbes())
+                    throw new CircuitOpenException(hostname, 0);
+                probesInFlight++;
+            } finally {
+                lock.unlock();
+            }
+            if (from != State.HALF_OPEN)
+                fireStateChange(hostname, from, State.HALF_OPEN);
+            return new Permit(this, true);
+        }
+
+        void record(Permit permit, boolean success) {
+            State from, to;
+            lock.lock();
+            try {
+                from = state;
+                if (permit.probe && state == State.HALF_OPEN) {
+                    probesInFlight--;
+                    if (!success) {
+                        open();
+                    } else if (++probeSuccesses >= getProbes()) {
+                        state = State.CLOSED;
+                        reset();
+                    }
+                } else if (state == State.CLOSED) {
+                    if (count == outcomes.length) {
+                        if (!outcomes[position])
+                            failures--;
+                    } else {
+                        count++;
+                    }
+                    outcomes[position] = success;
+                    position = (position + 1) % outcomes.length;
+                    if (!success)
+                        failures++;
+                    if (count >= getMinimumRequests() && failures >= getFailureRateThreshold() * count)
+                        open();
+                }
+                to = state;
+            } finally {
+                lock.unlock();
+            }
+            if (from != to)
+                fireStateChange(hostname, from, to);
+        }
+
+        void release(Permit permit) {
+            if (!permit.probe)
+                return;
+            lock.lock();
+            try {
+                if (state == State.HALF_OPEN)
+                    probesInFlight--;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            reset();
+        }
+
+        private void reset() {
+            position = 0;
+            count = 0;
+            failures = 0;
+        }
+    }
+
+    /**
+     * @param hostname the Netstorage hostname
+     * @return the permit to report the outcome of the request to
+     * @throws CircuitOpenException if the circuit of the host is open
+     */
+    public Permit acquire(String hostname) throws CircuitOpenException {
+        return getCircuit(hostname).acquire();
+    }
+
+    /**
+     * @param exception the failure of a request
+     * @return true if the failure is a sign of a degraded host: a connection error, a timeout or a 5xx response
+     */
+    protected boolean isFailure(NetStorageException exception) {
+        if (exception.getResponseCode() >= 500)
+            return true;
+        if (exception.getResponseCode() > 0)
+            return false;
+        for (Throwable cause = exception; cause != null; cause = cause.getCause())
+            if (cause instanceof IOException)
+                return true;
+        return false;
+    }
+
+    /**
+     * @param hostname the Netstorage hostname
+     * @return the state of the circuit of the host. An open circuit whose timeout has expired is reported as
+     * half-open.
+     */
+    public State getState(String hostname) {
+        Circuit circuit = circuits.get(hostname);
+        if (circuit == null)
+            return State.CLOSED;
+        circuit.lock.lock();
+        try {
+            if (circuit.state == State.OPEN && System.currentTimeMillis() - circuit.openedAt >= getOpenTimeout())
+                return State.HALF_OPEN;
+            return circuit.state;
+        } finally {
+            circuit.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the state of every host that has been called
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new HashMap<>();
+        for (String hostname : circuits.keySet())
+            states.put(hostname, getState(hostname));
+        return states;
+    }
+
+    /**
+     * Close the circuit of the host, eg: after an operator has verified that it recovered.
+     *
+     * @param hostname the Netstorage hostname
+     */
+    public void reset(String hostname) {
+        Circuit circuit = circuits.get(hostname);
+        if (circuit == null)
+            return;
+        State from;
+        circuit.lock.lock();
+        try {
+            from = circuit.state;
+            circuit.state = State.CLOSED;
+            circuit.reset();
+        } finally {
+            circuit.lock.unlock();
+        }
+        if (from != State.CLOSED)
+            fireStateChange(hostname, from, State.CLOSED);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private Circuit getCircuit(String hostname) {
+        Circuit circuit = circuits.get(hostname);
+        if (circuit == null) {
+            Circuit created = new Circuit(hostname);
+            circuit = circuits.putIfAbsent(hostname, created);
+            if (circuit == null)
+                circuit = created;
+        }
+        return circuit;
+    }
+
+    private void fireStateChange(String hostname, State from, State to) {
+        log.info(String.format("Circuit for %s changed from %s to %s", hostname, from, to));
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(hostname, from, to);
+            } catch (RuntimeException e) {
+                log.warning(String.format("Circuit listener failed: %s", e));
+            }
+        }
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold the share of failed requests (between 0 and 1) that opens the circuit
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    public void setMinimumRequests(int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize the number of recent requests of each host that the failure rate is computed from. Only
+     *                   applies to hosts that have not been called yet.
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public long getOpenTimeout() {
+        return openTimeout;
+    }
+
+    /**
+     * @param openTimeout the time (in milliseconds) an open circuit fails requests before letting probes through
+     */
+    public void setOpenTimeout(long openTimeout) {
+        this.openTimeout = openTimeout;
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
+    /**
+     * @param probes the number of successful half-open requests needed to close the circuit
+     */
+    public void setProbes(int probes) {
+        this.probes = probes;
+    }
+}
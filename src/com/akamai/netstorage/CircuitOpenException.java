@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+/**
+ * Thrown without sending the request when the {@link CircuitBreaker} of the Netstorage host is open.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class CircuitOpenException extends NetStorageException {
+
+    private static final long serialVersionUID = -3021478394826155117L;
+    private final String hostname;
+    private final long retryAfter;
+
+    public CircuitOpenException(String hostname, long retryAfter) {
+        super(String.format("Circuit open for %s, retry in %dms", hostname, retryAfter));
+        this.hostname = hostname;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    /**
+     * @return the time (in milliseconds) until the circuit lets a probe request through
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
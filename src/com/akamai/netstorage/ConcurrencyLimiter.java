@@ -0,0 +1,306 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adapts the number of requests in flight to each Netstorage host to the latency and errors that the host returns.
+ * <p>
+ * The limit follows an AIMD (additive increase, multiplicative decrease) scheme: every successful request that was
+ * sent while the host was busy (at least half of the limit in use) raises the limit by 1/limit, ie: roughly one extra
+ * request per round trip. A throttled request (429 or 503), a connection failure or a latency above
+ * {@code latencyTolerance} times the baseline latency lowers the limit by the backoff ratio. The baseline is the
+ * lowest latency seen and is re-measured every {@code baselineWindow} samples so that the limiter follows a host
+ * that has become permanently slower (or faster). The latency of a request with a body is measured from the end of
+ * the upload, see {@link Permit#onSuccess(long)}, so that a large upload is compared with the same baseline as the
+ * small stat and dir requests rather than being taken for a sign of overload.
+ * <p>
+ * Callers over the limit wait (up to the acquire timeout) for a request to the same host to complete. A request is in
+ * flight until its response stream is closed, so a download holds its slot while the body is read.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ConcurrencyLimiter {
+
+    // defaults
+    private int initialLimit = 8;
+    private int minLimit = 1;
+    private int maxLimit = 128;
+    private double backoffRatio = 0.9;
+    private double latencyTolerance = 2.0;
+    private int baselineWindow = 250;
+    private long acquireTimeout = 60000;
+
+    private final ConcurrentMap<String, HostLimit> hosts = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimiter() {
+    }
+
+    public ConcurrencyLimiter(int initialLimit, int maxLimit) {
+        if (initialLimit > 0) this.setInitialLimit(initialLimit);
+        if (maxLimit > 0) this.setMaxLimit(maxLimit);
+    }
+
+    /**
+     * The right to send one request. Exactly one of {@link #onSuccess()}, {@link #onDropped()} or {@link #onIgnore()}
+     * must be called when the request completes; further calls are ignored. A request whose response body is still to
+     * be read records its latency with {@link #onResponse(long)} when the headers arrive and calls
+     * {@link #onSuccess()} once the body has been read, so that it counts as in flight until then.
+     */
+    public class Permit {
+        private final HostLimit host;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile long latency = -1;
+
+        private Permit(HostLimit host) {
+            this.host = host;
+        }
+
+        /**
+         * The response headers arrived; the time from the end of the upload is used to adjust the limit once the
+         * request completes.
+         *
+         * @param uploaded the {@link System#nanoTime()} at which the request body had been sent, or 0 if the request
+         *                 had no body
+         */
+        public void onResponse(long uploaded) {
+            long from = uploaded != 0 && uploaded - start > 0 ? uploaded : start;
+            latency = System.nanoTime() - from;
+        }
+
+        /**
+         * The request completed; its latency (up to the response headers if {@link #onResponse(long)} was called) is
+         * used to adjust the limit.
+         */
+        public void onSuccess() {
+            long latency = this.latency;
+            if (released.compareAndSet(false, true))
+                host.release(latency >= 0 ? latency : System.nanoTime() - start, false);
+        }
+
+        /**
+         * The request completed; the time from the end of its upload to the response is used to adjust the limit.
+         *
+         * @param uploaded the {@link System#nanoTime()} at which the request body had been sent, or 0 if the request
+         *                 had no body
+         */
+        public void onSuccess(long uploaded) {
+            onResponse(uploaded);
+            onSuccess();
+        }
+
+        /**
+         * The request was throttled or failed to connect; the limit is reduced.
+         */
+        public void onDropped() {
+            if (released.compareAndSet(false, true))
+                host.release(0, true);
+        }
+
+        /**
+         * The request failed for a reason unrelated to load (eg: 404); the limit is left unchanged.
+         */
+        public void onIgnore() {
+            if (released.compareAndSet(false, true))
+                host.release(-1, false);
+        }
+    }
+
+    private class HostLimit {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final String hostname;
+        private double limit = getInitialLimit();
+        private int inFlight;
+        private long baseline = Long.MAX_VALUE;
+        private long windowMin = Long.MAX_VALUE;
+        private int windowCount;
+
+        HostLimit(String hostname) {
+            this.hostname = hostname;
+        }
+
+        Permit acquire() throws NetStorageException {
+            long deadline = System.currentTimeMillis() + getAcquireTimeout();
+            lock.lock();
+            try {
+                while (inFlight >= (int) limit) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0)
+                        throw new NetStorageException(String.format("Concurrency limit reached for %s (%d in flight)", hostname, inFlight));
+                    try {
+                        available.await(wait, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new NetStorageException("Interrupted while waiting for a request slot", e);
+                    }
+                }
+                inFlight++;
+                return new Permit(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long latency, boolean dropped) {
+            lock.lock();
+            try {
+                boolean busy = inFlight * 2 >= limit;
+                inFlight--;
+
+                if (latency >= 0 && !dropped) {
+                    windowMin = Math.min(windowMin, latency);
+                    baseline = Math.min(baseline, latency);
+                    if (++windowCount >= getBaselineWindow()) {
+                        baseline = windowMin;
+                        windowMin = Long.MAX_VALUE;
+                        windowCount = 0;
+                    }
+                    dropped = latency > baseline * getLatencyTolerance();
+                }
+
+                if (dropped)
+                    limit = Math.max(getMinLimit(), limit * getBackoffRatio());
+                else if (latency >= 0 && busy)
+                    limit = Math.min(getMaxLimit(), limit + 1.0 / limit);
+
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait for a request slot to the host.
+     *
+     * @param hostname the Netstorage hostname
+     * @return the permit to release when the request completes
+     * @throws NetStorageException if no slot became available within the acquire timeout
+     */
+    public Permit acquire(String hostname) throws NetStorageException {
+        HostLimit host = hosts.get(hostname);
+        if (host == null) {
+            HostLimit created = new HostLimit(hostname);
+            host = hosts.putIfAbsent(hostname, created);
+            if (host == null)
+                host = created;
+        }
+        return host.acquire();
+    }
+
+    /**
+     * @param hostname the Netstorage hostname
+     * @return the current number of requests allowed in flight to the host
+     */
+    public int getLimit(String hostname) {
+        HostLimit host = hosts.get(hostname);
+        if (host == null)
+            return getInitialLimit();
+        host.lock.lock();
+        try {
+            return (int) host.limit;
+        } finally {
+            host.lock.unlock();
+        }
+    }
+
+    /**
+     * @param hostname the Netstorage hostname
+     * @return the number of requests currently in flight to the host
+     */
+    public int getInFlight(String hostname) {
+        HostLimit host = hosts.get(hostname);
+        if (host == null)
+            return 0;
+        host.lock.lock();
+        try {
+            return host.inFlight;
+        } finally {
+            host.lock.unlock();
+        }
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * @param backoffRatio the factor (between 0 and 1) applied to the limit when a request is dropped
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * @param latencyTolerance how many times slower than the baseline a request may be before it counts as a sign of
+     *                         overload
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public int getBaselineWindow() {
+        return baselineWindow;
+    }
+
+    public void setBaselineWindow(int baselineWindow) {
+        this.baselineWindow = baselineWindow;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+}
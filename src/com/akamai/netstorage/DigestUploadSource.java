@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A repeatable local file source that checksums the file while it is being uploaded, so the file is read once rather
+ * than once for the checksum and again for the upload. Every attempt opens the file again with fresh digests, mapped
+ * for the transports that send the mapped regions (see {@link UploadSource#open(boolean)}); after the upload
+ * {@link #getDigest(HashAlgorithm)} returns the checksum of the content sent by the last attempt.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DigestUploadSource implements UploadSource {
+
+    private final Path path;
+    private final HashAlgorithm[] algorithms;
+    private final Map<HashAlgorithm, MessageDigest> digests = new EnumMap<>(HashAlgorithm.class);
+    private final Map<HashAlgorithm, byte[]> results = new EnumMap<>(HashAlgorithm.class);
+
+    /**
+     * @param path       the local file
+     * @param algorithms the checksums to compute
+     */
+    public DigestUploadSource(Path path, HashAlgorithm... algorithms) {
+        this.path = path;
+        this.algorithms = algorithms;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return open(false);
+    }
+
+    @Override
+    public synchronized InputStream open(boolean mapped) throws IOException {
+        digests.clear();
+        results.clear();
+        MessageDigest[] attempt = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            try {
+                attempt[i] = MessageDigest.getInstance(algorithms[i].getAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("This should never happen! We are using an enum!", e);
+            }
+            digests.put(algorithms[i], attempt[i]);
+        }
+
+        if (mapped) {
+            MappedFileInputStream stream = new MappedFileInputStream(path);
+            stream.setDigests(attempt);
+            return stream;
+        }
+        InputStream stream = new FileInputStream(path.toFile());
+        for (MessageDigest digest : attempt)
+            stream = new DigestInputStream(stream, digest);
+        return stream;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * @param algorithm one of the algorithms this source was created with
+     * @return the checksum of the content sent by the last attempt, or null if the algorithm was not computed or the
+     * file has not been opened
+     */
+    public synchronized byte[] getDigest(HashAlgorithm algorithm) {
+        byte[] result = results.get(algorithm);
+        if (result == null && digests.containsKey(algorithm)) {
+            result = digests.get(algorithm).digest();
+            results.put(algorithm, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+/**
+ * One {@code file} element of a stat or dir response: a file, a directory or a symlink. The attribute values are kept as
+ * they were read and only parsed when asked for.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DirEntry {
+
+    public enum Type {
+        FILE, DIR, SYMLINK, UNKNOWN;
+
+        static Type of(String type) {
+            if ("file".equals(type)) return FILE;
+            if ("dir".equals(type)) return DIR;
+            if ("symlink".equals(type)) return SYMLINK;
+            return UNKNOWN;
+        }
+    }
+
+    private final String directory;
+    private final String name;
+    private final String type;
+    private final String size;
+    private final String mtime;
+    private final String md5;
+    private final String sha256;
+    private final String target;
+    private final String implicit;
+
+    DirEntry(String directory, String name, String type, String size, String mtime, String md5, String sha256,
+             String target, String implicit) {
+        this.directory = directory;
+        this.name = name;
+        this.type = type;
+        this.size = size;
+        this.mtime = mtime;
+        this.md5 = md5;
+        this.sha256 = sha256;
+        this.target = target;
+        this.implicit = implicit;
+    }
+
+    /**
+     * @return the directory of the entry, eg: /1234/site
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the name of the entry within its directory
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the full path of the entry, eg: /1234/site/index.html
+     */
+    public String getPath() {
+        return directory.endsWith("/") ? directory + name : directory + "/" + name;
+    }
+
+    public Type getType() {
+        return Type.of(type);
+    }
+
+    public boolean isFile() {
+        return "file".equals(type);
+    }
+
+    public boolean isDirectory() {
+        return "dir".equals(type);
+    }
+
+    public boolean isSymlink() {
+        return "symlink".equals(type);
+    }
+
+    /**
+     * @return the size of a file in bytes, or -1 if the response did not have one
+     */
+    public long getSize() {
+        return parseLong(size, -1);
+    }
+
+    /**
+     * @return the modification time in seconds since the epoch, or 0 if the response did not have one
+     */
+    public long getMtime() {
+        return parseLong(mtime, 0);
+    }
+
+    /**
+     * @return the hex md5 checksum of a file, or null
+     */
+    public String getMd5() {
+        return md5;
+    }
+
+    /**
+     * @return the hex sha256 checksum of a file, or null
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * @return the target of a symlink, or null
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return true for a directory that only exists because it has content (it was never created with mkdir)
+     */
+    public boolean isImplicit() {
+        return "true".equals(implicit);
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", type, getPath());
+    }
+}
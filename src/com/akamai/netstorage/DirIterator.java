@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over the entries of a remote directory of any size in constant memory.
+ * <p>
+ * The directory is requested in pages of {@code pageSize} entries ({@code max_entries}); every page is parsed
+ * incrementally with StAX while the entries are consumed, so only the current entry is ever held. The next page is
+ * requested with {@code start} set to the path of the last entry (or to the {@code resume} element of the response
+ * when there is one) as soon as the current page runs out.
+ * <p>
+ * {@link #getCursor()} is the path of the last entry returned; an iterator created with that cursor continues right
+ * after it, eg: in another process after a crash.
+ * <p>
+ * Request and parse failures are thrown as {@link UncheckedIOException} from {@link #hasNext()} and {@link #next()};
+ * a failed request is the {@link NetStorageException} cause of its {@link IOException}. Close the iterator when it is
+ * not consumed to the end.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DirIterator implements Iterator<DirEntry>, Closeable {
+
+    private final NetStorage netStorage;
+    private final String path;
+    private final int pageSize;
+    private final String end;
+
+    private String cursor;
+    private String start;
+    private String directory;
+    private InputStream stream;
+    private XMLStreamReader reader;
+    private int pageEntries;
+    private int pageNewEntries;
+    private String resume;
+    private DirEntry next;
+    private boolean finished;
+
+    /**
+     * @param netStorage the client
+     * @param path       the remote directory, eg: /1234/site
+     * @param pageSize   the number of entries requested at a time
+     * @param cursor     the path of the entry to continue after, as returned by {@link #getCursor()}; null to start
+     *                   at the beginning
+     * @param end        the path of the last entry to list; null to list to the end
+     */
+    public DirIterator(NetStorage netStorage, String path, int pageSize, String cursor, String end) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("The page size must be positive");
+        this.netStorage = netStorage;
+        this.path = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        this.directory = this.path;
+        this.pageSize = pageSize;
+        this.cursor = cursor;
+        this.start = cursor;
+        this.end = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !finished) {
+                if (reader == null)
+                    openPage();
+                next = readEntry();
+                if (next == null && !nextPage())
+                    finished = true;
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        } catch (NetStorageException e) {
+            close();
+            throw new UncheckedIOException(new IOException(String.format("Unable to list %s", path), e));
+        }
+        return next != null;
+    }
+
+    @Override
+    public DirEntry next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        DirEntry entry = next;
+        next = null;
+        cursor = entry.getPath();
+        return entry;
+    }
+
+    /**
+     * @return the path of the last entry returned by {@link #next()}, or the cursor the iterator was created with
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the remaining entries as a sequential stream that closes this iterator when it is closed
+     */
+    public Stream<DirEntry> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        next = null;
+        closePage();
+    }
+
+    private void openPage() throws NetStorageException, IOException {
+        stream = netStorage.dir(path, pageSize, start, end);
+        try {
+            reader = ResponseParser.createReader(stream);
+        } catch (XMLStreamException e) {
+            closePage();
+            throw new IOException(String.format("Unable to parse the dir response of %s", path), e);
+        }
+        pageEntries = 0;
+        pageNewEntries = 0;
+        resume = null;
+    }
+
+    /**
+     * @return the next entry of the current page, or null at the end of the page
+     */
+    private DirEntry readEntry() throws IOException {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+                String element = reader.getLocalName();
+                if ("stat".equals(element)) {
+                    directory = ResponseParser.readDirectory(reader, directory);
+                } else if ("resume".equals(element)) {
+                    resume = reader.getAttributeValue(null, "start");
+                } else if ("file".equals(element)) {
+                    pageEntries++;
+                    DirEntry entry = ResponseParser.readEntry(reader, directory);
+                    // start may be inclusive: never return the cursor twice
+                    if (entry.getPath().equals(cursor))
+                        continue;
+                    pageNewEntries++;
+                    return entry;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(String.format("Unable to parse the dir response of %s", path), e);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if another page was opened, false if the listing is complete
+     */
+    private boolean nextPage() throws NetStorageException, IOException {
+        closePage();
+        // a short page is the last one; a page without anything new would repeat forever
+        if ((resume == null && pageEntries < pageSize) || pageNewEntries == 0)
+            return false;
+        start = resume != null ? resume : cursor;
+        openPage();
+        return true;
+    }
+
+    private void closePage() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // the stream is closed below
+            }
+            reader = null;
+        }
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+            stream = null;
+        }
+    }
+}
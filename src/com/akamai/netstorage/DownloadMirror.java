@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Copies a Netstorage directory tree to a local directory.
+ * <p>
+ * The remote tree is listed recursively with dir and every file is downloaded as soon as one of the {@code parallelism}
+ * threads is free for it; the listing only proceeds as fast as the downloads complete. A local file whose size and
+ * mtime (in seconds) already match the remote file is skipped, so running the mirror again after an interruption only
+ * fetches what is missing; a file that was cut off midway is resumed from its checkpoint by {@link ResumableDownload}.
+ * Downloaded files are given the remote mtime. Symlinks are not followed.
+ * <p>
+ * A failed file does not stop the mirror; it is reported in the {@link Summary}. A {@link Listener} is told about
+ * every file as it completes.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DownloadMirror {
+
+    private static final Logger log = Logger.getLogger(DownloadMirror.class.getName());
+
+    /**
+     * Notified from the download threads whenever a file has been downloaded, skipped or has failed.
+     */
+    public interface Listener {
+        void onProgress(String path, Summary summary);
+    }
+
+    // defaults
+    private int parallelism = 4;
+    private Listener listener;
+
+    private final NetStorage netStorage;
+
+    public DownloadMirror(NetStorage netStorage) {
+        this.netStorage = netStorage;
+    }
+
+    public DownloadMirror(NetStorage netStorage, int parallelism) {
+        this.netStorage = netStorage;
+        if (parallelism > 0) this.setParallelism(parallelism);
+    }
+
+    /**
+     * The progress and outcome of a mirror. The totals grow while the remote tree is being listed.
+     */
+    public static class Summary {
+        private final AtomicLong totalFiles = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicLong downloadedBytes = new AtomicLong();
+        private final AtomicLong completedBytes = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong skippedBytes = new AtomicLong();
+        private final SortedMap<String, Exception> failures = new ConcurrentSkipListMap<>();
+
+        /**
+         * @return the number of remote files listed so far
+         */
+        public long getTotalFiles() {
+            return totalFiles.get();
+        }
+
+        /**
+         * @return the size of the remote files listed so far
+         */
+        public long getTotalBytes() {
+            return totalBytes.get();
+        }
+
+        /**
+         * @return the number of files downloaded
+         */
+        public long getDownloaded() {
+            return downloaded.get();
+        }
+
+        /**
+         * @return the number of bytes transferred; a resumed file only counts the bytes fetched by this mirror
+         */
+        public long getDownloadedBytes() {
+            return downloadedBytes.get();
+        }
+
+        /**
+         * @return the number of files that were already up to date
+         */
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * @return the number of files downloaded, skipped or failed
+         */
+        public long getCompleted() {
+            return getDownloaded() + getSkipped() + failures.size();
+        }
+
+        /**
+         * @return the size of the files downloaded or skipped
+         */
+        public long getCompletedBytes() {
+            return completedBytes.get() + skippedBytes.get();
+        }
+
+        /**
+         * @return the remote path and error of every file or directory that failed, in path order
+         */
+        public SortedMap<String, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("downloaded: %d (%d bytes), skipped: %d, failed: %d, of %d files",
+                    getDownloaded(), getDownloadedBytes(), getSkipped(), failures.size(), getTotalFiles());
+        }
+    }
+
+    /**
+     * @param source the remote directory, eg: /1234/site
+     * @param target the local directory; it is created if needed
+     * @return the summary of the mirror; check {@link Summary#getFailures()}
+     * @throws NetStorageException if the remote directory could not be listed
+     * @throws IOException         if the local directory could not be created or a listing could not be parsed
+     */
+    public Summary mirror(String source, File target) throws NetStorageException, IOException {
+        Summary summary = new Summary();
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(this.getParallelism());
+        try {
+            String root = source.endsWith("/") ? source.substring(0, source.length() - 1) : source;
+            mirrorDirectory(root, target, summary, executor, true);
+            // the tasks record their own failures
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetStorageException("Interrupted while mirroring", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(String.format("Mirrored %s to %s: %s", source, target, summary));
+        return summary;
+    }
+
+    private void mirrorDirectory(String remoteDirectory, File directory, Summary summary, VirtualThreadExecutor executor,
+                                 boolean root) throws NetStorageException, IOException, InterruptedException {
+        List<DirEntry> entries;
+        try {
+            entries = netStorage.dirEntries(remoteDirectory);
+        } catch (NetStorageException | IOException e) {
+            if (root)
+                throw e;
+            summary.failures.put(remoteDirectory, e);
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException(String.format("Unable to create %s", directory));
+
+        for (DirEntry entry : entries) {
+            String name = entry.getName();
+            String remotePath = remoteDirectory + "/" + name;
+            if (name == null || name.isEmpty() || name.equals(".") || name.equals("..") || name.contains("/") || name.contains("\\")) {
+                summary.failures.put(remotePath, new IOException(String.format("Refusing to mirror the entry %s", name)));
+                continue;
+            }
+
+            File local = new File(directory, name);
+            if (entry.isDirectory()) {
+                mirrorDirectory(remotePath, local, summary, executor, false);
+            } else if (entry.isFile()) {
+                long size = entry.getSize();
+                long mtime = entry.getMtime();
+                summary.totalFiles.incrementAndGet();
+                summary.totalBytes.addAndGet(Math.max(size, 0));
+                // download the file once a thread is free for it, so that a large tree is not queued up front
+                executor.awaitCapacity();
+                executor.execute(() -> mirrorFile(remotePath, local, size, mtime, summary));
+            }
+        }
+    }
+
+    private void mirrorFile(String remotePath, File local, long size, long mtime, Summary summary) {
+        try {
+            if (size >= 0 && local.isFile() && local.length() == size && mtime > 0 && local.lastModified() / 1000 == mtime) {
+                summary.skipped.incrementAndGet();
+                summary.skippedBytes.addAndGet(size);
+            } else {
+                ResumableDownload download = new ResumableDownload(netStorage);
+                long transferred = size >= 0 ? download.download(remotePath, local, size, mtime) : download.download(remotePath, local);
+                summary.downloaded.incrementAndGet();
+                summary.downloadedBytes.addAndGet(transferred);
+                summary.completedBytes.addAndGet(local.length());
+            }
+        } catch (NetStorageException | IOException | RuntimeException e) {
+            log.fine(String.format("Failed to mirror %s to %s: %s", remotePath, local, e));
+            summary.failures.put(remotePath, e);
+        }
+
+        Listener listener = this.getListener();
+        if (listener != null) {
+            try {
+                listener.onProgress(remotePath, summary);
+            } catch (RuntimeException e) {
+                log.warning(String.format("Mirror listener failed: %s", e));
+            }
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the maximum number of files downloaded at the same time
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener notified of every completed file; defaults to null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+/**
+ * The totals of a du response: the number of files and bytes under a directory.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DuInfo {
+
+    private final String directory;
+    private final String files;
+    private final String bytes;
+
+    DuInfo(String directory, String files, String bytes) {
+        this.directory = directory;
+        this.files = files;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the directory the totals are for, eg: /1234/site
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of files under the directory, or -1 if the response did not have it
+     */
+    public long getFiles() {
+        return parseLong(files);
+    }
+
+    /**
+     * @return the number of bytes under the directory, or -1 if the response did not have it
+     */
+    public long getBytes() {
+        return parseLong(bytes);
+    }
+
+    private static long parseLong(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s files, %s bytes", directory, files, bytes);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes any combination of the MD5, SHA-1 and SHA-256 checksums of a file in a single read, eg: to fill all three
+ * checksums of an upload. Large files are read through memory-mapped regions and small files through a reused direct
+ * buffer, so the content is never copied into a heap buffer of our own; the digests read it where it lies. A mapped
+ * file that is truncated while it is hashed fails with an IOException, as a {@link MappedFileInputStream} does.
+ * <p>
+ * The buffers are kept in a small pool shared by every instance rather than in thread locals, so that they are reused
+ * by the short-lived virtual threads of {@link VirtualThreadExecutor} as well.
+ * <p>
+ * {@link #hashAll(Collection)} hashes many files at once on a fork/join pool. Instances are thread safe.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class FileHasher {
+
+    // idle buffers kept for the next hash
+    private static final int MAX_IDLE = 16;
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(MAX_IDLE);
+    private static final BlockingQueue<byte[]> STREAM_BUFFERS = new ArrayBlockingQueue<>(MAX_IDLE);
+
+    // defaults
+    private long mapThreshold = 1024 * 1024;
+    private int bufferSize = 64 * 1024;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private final HashAlgorithm[] algorithms;
+
+    /**
+     * @param algorithms the checksums to compute
+     */
+    public FileHasher(HashAlgorithm... algorithms) {
+        if (algorithms.length == 0)
+            throw new IllegalArgumentException("At least one algorithm is required");
+        this.algorithms = algorithms.clone();
+    }
+
+    /**
+     * @param path a local file
+     * @return the checksum of the file for each algorithm
+     * @throws IOException if the file cannot be read
+     */
+    public Map<HashAlgorithm, byte[]> hash(Path path) throws IOException {
+        MessageDigest[] digests = createDigests();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= this.getMapThreshold()) {
+                try {
+                    for (long position = 0; position < size; position += MappedFileInputStream.REGION_SIZE) {
+                        ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MappedFileInputStream.REGION_SIZE, size - position));
+                        update(digests, region, channel, size);
+                    }
+                } catch (InternalError e) {
+                    // a page of the file was truncated after it was mapped
+                    throw MappedFileInputStream.truncated(e);
+                }
+            } else {
+                ByteBuffer buffer = borrowBuffer();
+                try {
+                    for (long position = 0; channel.read(buffer, position) > 0; buffer.clear()) {
+                        buffer.flip();
+                        position += buffer.remaining();
+                        update(digests, buffer, null, 0);
+                    }
+                } finally {
+                    BUFFERS.offer(buffer);
+                }
+            }
+        }
+        return toMap(digests);
+    }
+
+    /**
+     * @param stream the content to hash; it is read to the end but not closed
+     * @return the checksum of the content for each algorithm
+     * @throws IOException if the stream cannot be read
+     */
+    public Map<HashAlgorithm, byte[]> hash(InputStream stream) throws IOException {
+        MessageDigest[] digests = createDigests();
+        // an InputStream can only fill a heap array
+        byte[] bytes = STREAM_BUFFERS.poll();
+        if (bytes == null || bytes.length != this.getBufferSize())
+            bytes = new byte[this.getBufferSize()];
+        try {
+            for (int length; (length = stream.read(bytes)) != -1; )
+                for (MessageDigest digest : digests)
+                    digest.update(bytes, 0, length);
+        } finally {
+            STREAM_BUFFERS.offer(bytes);
+        }
+        return toMap(digests);
+    }
+
+    /**
+     * Hash the files in parallel on the fork/join pool.
+     *
+     * @param paths the local files
+     * @return the checksums of each file, in the iteration order of the paths
+     * @throws IOException if any file cannot be read
+     */
+    public Map<Path, Map<HashAlgorithm, byte[]>> hashAll(Collection<Path> paths) throws IOException {
+        List<Path> files = new ArrayList<>(paths);
+        // each task sets its own slots; the join publishes them
+        List<Map<HashAlgorithm, byte[]>> results = new ArrayList<>(Collections.nCopies(files.size(), null));
+        try {
+            this.getPool().invoke(new HashTask(files, results, 0, files.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Map<Path, Map<HashAlgorithm, byte[]>> hashes = new LinkedHashMap<>();
+        for (int i = 0; i < files.size(); i++)
+            hashes.put(files.get(i), results.get(i));
+        return hashes;
+    }
+
+    private class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = -2917459303740527811L;
+
+        private final List<Path> files;
+        private final List<Map<HashAlgorithm, byte[]>> results;
+        private final int from;
+        private final int to;
+
+        HashTask(List<Path> files, List<Map<HashAlgorithm, byte[]>> results, int from, int to) {
+            this.files = files;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new HashTask(files, results, from, middle), new HashTask(files, results, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    results.set(i, hash(files.get(i)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Feed the content to every digest one buffer sized chunk at a time, so that each chunk is still in the CPU cache
+     * when the next digest reads it.
+     *
+     * @param mapped the file the content is mapped from, whose size is checked before each chunk, or null
+     * @param size   the size of the mapped file when it was mapped
+     */
+    private void update(MessageDigest[] digests, ByteBuffer content, FileChannel mapped, long size) throws IOException {
+        int limit = content.limit();
+        while (content.hasRemaining()) {
+            if (mapped != null)
+                MappedFileInputStream.checkSize(mapped, size);
+            int position = content.position();
+            content.limit(Math.min(limit, position + this.getBufferSize()));
+            for (MessageDigest digest : digests) {
+                content.position(position);
+                digest.update(content);
+            }
+            content.limit(limit);
+        }
+    }
+
+    private MessageDigest[] createDigests() {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            try {
+                digests[i] = MessageDigest.getInstance(algorithms[i].getAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                //no-op. This will never happen since we are using an enum to limit the hash algorithms
+                throw new IllegalArgumentException("This should never happen! We are using an enum!", e);
+            }
+        }
+        return digests;
+    }
+
+    private Map<HashAlgorithm, byte[]> toMap(MessageDigest[] digests) {
+        Map<HashAlgorithm, byte[]> hashes = new EnumMap<>(HashAlgorithm.class);
+        for (int i = 0; i < algorithms.length; i++)
+            hashes.put(algorithms[i], digests[i].digest());
+        return hashes;
+    }
+
+    private ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = BUFFERS.poll();
+        if (buffer == null || buffer.capacity() != this.getBufferSize())
+            return ByteBuffer.allocateDirect(this.getBufferSize());
+        buffer.clear();
+        return buffer;
+    }
+
+    public long getMapThreshold() {
+        return mapThreshold;
+    }
+
+    /**
+     * @param mapThreshold the size (in bytes) from which files are memory-mapped rather than read into a buffer
+     */
+    public void setMapThreshold(long mapThreshold) {
+        this.mapThreshold = mapThreshold;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize the size of the pooled buffers used for streams and for files below the map threshold
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param pool the pool {@link #hashAll(Collection)} runs on; defaults to the common pool
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.auth.RequestSigningException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A transport backed by the JDK {@link HttpClient}. A single client is shared by every request sent through this
+ * transport, so concurrent stat, dir and upload calls are multiplexed over a small number of HTTP/2 connections
+ * instead of opening a socket per in-flight request. If the server does not negotiate HTTP/2 the client falls back
+ * to HTTP/1.1 and pools the connections itself.
+ * <p>
+ * The connect timeout belongs to the {@link HttpClient} and is fixed when the transport is created. The read timeout
+ * of each request bounds the wait for the response headers once the request body has been sent, however long the
+ * upload took, and then every read of the response body, as it does for an {@link java.net.HttpURLConnection}. It is
+ * not applied as the {@link HttpRequest.Builder#timeout(Duration) request timeout}, whose timer also runs while the
+ * body is being sent.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class HttpClientTransport implements NetStorageTransport {
+
+    // the size of the mapped slices handed to the client; one TLS record at a time
+    private static final int MAPPED_CHUNK_SIZE = 16 * 1024;
+
+    private final HttpClient client;
+
+    public HttpClientTransport() {
+        this(10000);
+    }
+
+    public HttpClientTransport(int connectTimeout) {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .build());
+    }
+
+    public HttpClientTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Assemble the signed {@link HttpRequest} for the API call. Upload content is streamed from the
+     * request's upload stream and sent with a fixed content length when the size is known.
+     *
+     * @param request    the request to send
+     * @param credential user credentials
+     * @return the signed request
+     * @throws RequestSigningException if the url cannot be converted into a URI
+     */
+    protected HttpRequest createHttpRequest(NetStorageCMSv35Signer request, ClientCredential credential) throws RequestSigningException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(request.getUrl().toURI());
+        } catch (URISyntaxException e) {
+            throw new RequestSigningException(e);
+        }
+
+        builder.method(request.getMethod(), createBodyPublisher(request));
+        for (Map.Entry<String, String> entry : request.computeHeaders(credential).entrySet())
+            builder.header(entry.getKey(), entry.getValue());
+
+        return builder.build();
+    }
+
+    /**
+     * @param request the request to send
+     * @return the request body; a {@link PublisherInputStream} is sent from its publisher without being read and a
+     * {@link MappedFileInputStream} is sent from the mapped regions of its file
+     */
+    protected HttpRequest.BodyPublisher createBodyPublisher(NetStorageCMSv35Signer request) {
+        final InputStream uploadStream = request.getUploadStream();
+        if (uploadStream == null) {
+            request.setUploaded();
+            return HttpRequest.BodyPublishers.noBody();
+        }
+
+        Flow.Publisher<? extends ByteBuffer> content;
+        if (uploadStream instanceof MappedFileInputStream) {
+            MappedFileInputStream file = (MappedFileInputStream) uploadStream;
+            if (file.getRemaining() == 0) {
+                request.setUploaded();
+                return HttpRequest.BodyPublishers.noBody();
+            }
+            MappedFilePublisher mapped = new MappedFilePublisher(file.getChannel(), file.getPosition(), file.getRemaining(), MAPPED_CHUNK_SIZE, file.getDigests());
+            return HttpRequest.BodyPublishers.fromPublisher(onUploaded(mapped, request), mapped.getCount());
+        } else if (uploadStream instanceof PublisherInputStream && !((PublisherInputStream) uploadStream).isSubscribed())
+            // let the client pull the content from the publisher directly rather than through the stream
+            content = ((PublisherInputStream) uploadStream).getPublisher();
+        else
+            content = HttpRequest.BodyPublishers.ofInputStream(() -> uploadStream);
+
+        content = onUploaded(content, request);
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.fromPublisher(content);
+        if (request.getUploadSize() > 0)
+            publisher = HttpRequest.BodyPublishers.fromPublisher(content, request.getUploadSize());
+        return publisher;
+    }
+
+    /**
+     * @return the content, telling the request when the client has taken all of it
+     */
+    private static Flow.Publisher<ByteBuffer> onUploaded(Flow.Publisher<? extends ByteBuffer> content, NetStorageCMSv35Signer request) {
+        return subscriber -> content.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                subscriber.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                request.setUploaded();
+                subscriber.onComplete();
+            }
+        });
+    }
+
+    @Override
+    public boolean isMappedUploadSupported() {
+        return true;
+    }
+
+    @Override
+    public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws RequestSigningException {
+        ResponseInputStream body = new ResponseInputStream(request.getReadTimeout());
+        try {
+            HttpResponse<InputStream> response = await(client.sendAsync(createHttpRequest(request, credential), info -> body), request);
+
+            request.validate(response.statusCode(), "", getDate(response), response.headers().map());
+
+            return new SignerInputStream(response.body(), response.headers().map());
+        } catch (NetStorageException | IOException e) {
+            body.close();
+            throw new NetStorageException("Communication Error", e);
+        } catch (InterruptedException e) {
+            body.close();
+            Thread.currentThread().interrupt();
+            throw new NetStorageException("Communication Error", e);
+        }
+    }
+
+    /**
+     * Wait for the response headers. The read timeout starts once the client has taken the whole request body, so an
+     * upload may take as long as it needs while a server that does not answer it is still detected.
+     *
+     * @param sent    the response of the request being sent
+     * @param request the request, which records when its body was sent
+     * @return the response
+     * @throws IOException          if the request failed or the server did not answer within the read timeout
+     * @throws InterruptedException if interrupted while waiting; the request is cancelled
+     */
+    private static HttpResponse<InputStream> await(CompletableFuture<HttpResponse<InputStream>> sent,
+                                                   NetStorageCMSv35Signer request) throws IOException, InterruptedException {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(request.getReadTimeout());
+        try {
+            while (true) {
+                if (timeout <= 0)
+                    return sent.get();
+
+                // still uploading: check again after another timeout
+                long uploaded = request.getUploadedTime();
+                long wait = uploaded == 0 ? timeout : timeout - (System.nanoTime() - uploaded);
+                if (wait <= 0) {
+                    sent.cancel(true);
+                    throw new HttpTimeoutException("request timed out");
+                }
+                try {
+                    return sent.get(wait, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // no response yet
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            sent.cancel(true);
+            throw e;
+        }
+    }
+
+    private static long getDate(HttpResponse<?> response) {
+        Optional<String> date = response.headers().firstValue("Date");
+        if (!date.isPresent())
+            return 0;
+        try {
+            return ZonedDateTime.parse(date.get(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+}
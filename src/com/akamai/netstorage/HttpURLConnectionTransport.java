@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.auth.RequestSigningException;
+
+import java.io.InputStream;
+
+/**
+ * The default transport. Each request opens a {@link java.net.HttpURLConnection} and relies on the JDK keep-alive
+ * cache for connection reuse. This is the behaviour of {@link NetStorageCMSv35Signer#execute(ClientCredential)}.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class HttpURLConnectionTransport implements NetStorageTransport {
+
+    @Override
+    public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws RequestSigningException {
+        return request.execute(credential);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.net.http.HttpClient;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the requests in flight to each Netstorage hostname over one shared {@link HttpClientTransport}.
+ * <p>
+ * This is not a connection pool. The {@link HttpClient} keeps its own pool of HTTP/1.1 keep-alive connections, or
+ * multiplexes the requests to a host over the streams of one HTTP/2 connection, and it does not expose that pool:
+ * the library cannot see when a connection is opened, reused, validated or closed, nor how many TLS handshakes were
+ * made. How long an idle connection is kept is set for the whole JVM with the
+ * {@code jdk.httpclient.keepalive.timeout} system property. What this class adds is a cap on the requests in flight
+ * per hostname (callers wait up to the acquire timeout for a lease to be released), the lifecycle of the shared client
+ * and counters of what it does see. The default cap of 100 matches the number of concurrent streams that HTTP/2
+ * servers commonly allow on one connection, so it does not get in the way of the multiplexing.
+ * <p>
+ * A client that has had no lease for longer than the idle timeout is retired, together with its connections, and the
+ * next lease creates a new one. {@link HttpClient} only became closeable in JDK 21; on earlier JDKs a retired client
+ * is retained until it is garbage collected, at which point its selector thread exits and its connections are closed.
+ * The idle client is retired whenever a lease is acquired or released; call {@link #retireIdle()} to retire it on a
+ * schedule when the limiter may sit unused for long periods.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ * @see LimitedHttpClientTransport
+ */
+public class InFlightLimiter {
+
+    // defaults
+    private int maxInFlightPerHost = 100;
+    private long idleTimeout = 60000;
+    private int connectTimeout = 10000;
+    private long acquireTimeout = 10000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Map<String, Integer> leased = new HashMap<>();
+    private HttpClientTransport transport;
+    private int leases;
+    private long lastUsed;
+
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong clientsCreated = new AtomicLong();
+    private final AtomicLong clientsRetired = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public InFlightLimiter() {
+    }
+
+    public InFlightLimiter(int maxInFlightPerHost, long idleTimeout) {
+        if (maxInFlightPerHost > 0) this.setMaxInFlightPerHost(maxInFlightPerHost);
+        if (idleTimeout > 0) this.setIdleTimeout(idleTimeout);
+    }
+
+    /**
+     * The right to send one request to a hostname over the shared client. The lease is only usable between
+     * {@link InFlightLimiter#acquire(String)} and {@link InFlightLimiter#release(Lease)} (or
+     * {@link InFlightLimiter#invalidate(Lease)}).
+     */
+    public static class Lease {
+        private final String hostname;
+        private final HttpClientTransport transport;
+        private final long created;
+
+        Lease(String hostname, HttpClientTransport transport) {
+            this.hostname = hostname;
+            this.transport = transport;
+            this.created = System.currentTimeMillis();
+        }
+
+        public String getHostname() {
+            return hostname;
+        }
+
+        public HttpClientTransport getTransport() {
+            return transport;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+    }
+
+    /**
+     * Lease the shared client for a request to the hostname. The client is created if there is none. When the
+     * hostname has reached its limit the caller waits up to the acquire timeout for a lease to be released.
+     *
+     * @param hostname the Netstorage hostname
+     * @return a lease of the shared client
+     * @throws NetStorageException if no lease became available within the acquire timeout
+     */
+    public Lease acquire(String hostname) throws NetStorageException {
+        long deadline = System.currentTimeMillis() + this.getAcquireTimeout();
+        boolean waited = false;
+        lock.lock();
+        try {
+            retireIdle();
+            while (true) {
+                int count = leased.getOrDefault(hostname, 0);
+                if (count < this.getMaxInFlightPerHost()) {
+                    leased.put(hostname, count + 1);
+                    leases++;
+                    if (transport == null) {
+                        transport = createTransport();
+                        clientsCreated.incrementAndGet();
+                    }
+                    granted.incrementAndGet();
+                    if (waited)
+                        waits.incrementAndGet();
+                    return new Lease(hostname, transport);
+                }
+
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    throw new NetStorageException(String.format("Too many requests in flight to %s (%d leased)", hostname, count));
+                waited = true;
+                try {
+                    released.await(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NetStorageException("Interrupted while waiting for a request slot", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the lease of a request that completed.
+     *
+     * @param lease the lease
+     */
+    public void release(Lease lease) {
+        lock.lock();
+        try {
+            Integer count = leased.get(lease.getHostname());
+            if (count == null)
+                return;
+            if (count > 1)
+                leased.put(lease.getHostname(), count - 1);
+            else
+                leased.remove(lease.getHostname());
+            leases--;
+            lastUsed = System.currentTimeMillis();
+            retireIdle();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the lease of a request that failed without an HTTP response (eg: connection reset). The client drops
+     * the broken connection itself, so the failure is only counted.
+     *
+     * @param lease the lease
+     */
+    public void invalidate(Lease lease) {
+        failures.incrementAndGet();
+        release(lease);
+    }
+
+    /**
+     * Retire the shared client if it has had no lease for longer than the idle timeout.
+     *
+     * @return the number of clients retired
+     */
+    public int retireIdle() {
+        lock.lock();
+        try {
+            if (transport == null || leases > 0 || System.currentTimeMillis() - lastUsed < this.getIdleTimeout())
+                return 0;
+            HttpClient client = transport.getClient();
+            transport = null;
+            clientsRetired.incrementAndGet();
+            // closeable from JDK 21; otherwise the client and its connections are released once it is collected
+            if (client instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) client).close();
+                } catch (Exception e) {
+                    // no-op. The client is being discarded
+                }
+            }
+            return 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Create the shared transport. The client negotiates HTTP/2 so that concurrent requests to a host share a
+     * connection.
+     *
+     * @return a new transport
+     */
+    protected HttpClientTransport createTransport() {
+        return new HttpClientTransport(this.getConnectTimeout());
+    }
+
+    /**
+     * @param hostname the Netstorage hostname
+     * @return the number of requests currently in flight to the host
+     */
+    public int getLeasedCount(String hostname) {
+        lock.lock();
+        try {
+            return leased.getOrDefault(hostname, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of leases granted
+     */
+    public long getLeases() {
+        return granted.get();
+    }
+
+    /**
+     * @return the number of leases that had to wait for a request to the same host to complete
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * @return the number of clients created; one, unless idle clients were retired
+     */
+    public long getClientsCreated() {
+        return clientsCreated.get();
+    }
+
+    /**
+     * @return the number of clients retired because they had no lease for longer than the idle timeout
+     */
+    public long getClientsRetired() {
+        return clientsRetired.get();
+    }
+
+    /**
+     * @return the number of leases returned by requests that failed without an HTTP response
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public int getMaxInFlightPerHost() {
+        return maxInFlightPerHost;
+    }
+
+    public void setMaxInFlightPerHost(int maxInFlightPerHost) {
+        this.maxInFlightPerHost = maxInFlightPerHost;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+}
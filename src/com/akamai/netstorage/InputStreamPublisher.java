@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the content of an InputStream as {@link ByteBuffer} chunks. The stream is opened when the (single)
+ * subscriber subscribes and a chunk is only read from it when the subscriber has signalled demand, so a slow subscriber
+ * stops the reads - and with them the transfer from Netstorage - instead of having the content buffered for it.
+ * <p>
+ * Reads run on the supplied executor. Each emitted buffer is newly allocated and owned by the subscriber.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class InputStreamPublisher implements Flow.Publisher<ByteBuffer> {
+
+    private final Callable<? extends InputStream> streamSupplier;
+    private final Executor executor;
+    private final int chunkSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param streamSupplier opens the stream to publish, eg: () -&gt; netStorage.download(path)
+     * @param executor       runs the blocking reads
+     * @param chunkSize      the maximum size of each emitted buffer
+     */
+    public InputStreamPublisher(Callable<? extends InputStream> streamSupplier, Executor executor, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        this.streamSupplier = streamSupplier;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException();
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("InputStreamPublisher only supports a single subscriber"));
+            return;
+        }
+        new StreamSubscription(subscriber).start();
+    }
+
+    private class StreamSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private InputStream stream;
+        private boolean done;
+
+        StreamSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("non-positive subscription request: " + n);
+            } else {
+                long current, next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    wip.set(0);
+                    fail(e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done)
+                return;
+            if (cancelled) {
+                done = true;
+                closeStream();
+                return;
+            }
+            if (invalidRequest != null) {
+                fail(invalidRequest);
+                return;
+            }
+            try {
+                if (stream == null && demand.get() > 0)
+                    stream = streamSupplier.call();
+
+                while (demand.get() > 0 && !cancelled) {
+                    byte[] chunk = new byte[chunkSize];
+                    int length = stream.read(chunk);
+                    if (length < 0) {
+                        done = true;
+                        closeStream();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (length == 0)
+                        continue;
+                    demand.decrementAndGet();
+                    subscriber.onNext(ByteBuffer.wrap(chunk, 0, length));
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (done)
+                return;
+            done = true;
+            closeStream();
+            subscriber.onError(e);
+        }
+
+        private void closeStream() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // no-op. The subscription is finished
+                }
+            }
+        }
+    }
+}
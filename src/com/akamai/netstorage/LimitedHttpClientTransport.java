@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.auth.RequestSigningException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A transport that sends every request through the shared client of an {@link InFlightLimiter}, within its limit of
+ * requests in flight per host. The lease is returned when the response stream is closed, so callers must close (or
+ * fully consume and close) the streams returned by {@link NetStorage}. Requests that fail without an HTTP response
+ * are counted as failures.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class LimitedHttpClientTransport implements NetStorageTransport {
+
+    private final InFlightLimiter limiter;
+
+    public LimitedHttpClientTransport() {
+        this(new InFlightLimiter());
+    }
+
+    public LimitedHttpClientTransport(InFlightLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public InFlightLimiter getInFlightLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public boolean isMappedUploadSupported() {
+        return true;
+    }
+
+    @Override
+    public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws RequestSigningException {
+        InFlightLimiter.Lease lease = limiter.acquire(request.getUrl().getHost());
+        SignerInputStream response;
+        try {
+            response = (SignerInputStream) lease.getTransport().execute(request, credential);
+        } catch (NetStorageException e) {
+            // an HTTP error response is a completed request; anything else is counted as a failure
+            if (e.getResponseCode() > 0)
+                limiter.release(lease);
+            else
+                limiter.invalidate(lease);
+            throw e;
+        } catch (RequestSigningException | RuntimeException e) {
+            limiter.invalidate(lease);
+            throw e;
+        }
+        return new LeasedInputStream(response, limiter, lease);
+    }
+}
+
+/**
+ * Returns the lease once the response has been closed.
+ */
+class LeasedInputStream extends SignerInputStream {
+    private final InFlightLimiter limiter;
+    private final AtomicReference<InFlightLimiter.Lease> lease;
+
+    LeasedInputStream(SignerInputStream response, InFlightLimiter limiter, InFlightLimiter.Lease lease) {
+        super(response, response.headers);
+        this.limiter = limiter;
+        this.lease = new AtomicReference<>(lease);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            InFlightLimiter.Lease leased = lease.getAndSet(null);
+            if (leased != null)
+                limiter.release(leased);
+        }
+    }
+}
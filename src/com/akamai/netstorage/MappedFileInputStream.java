@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Reads a local file through memory-mapped regions of its {@link FileChannel} instead of read() system calls. Each
+ * read copies straight from the page cache, whereas a FileInputStream copies into a native buffer first.
+ * <p>
+ * Transports that can send ByteBuffers (eg: {@link HttpClientTransport}) recognise this stream and send the mapped
+ * regions of its channel directly with a {@link MappedFilePublisher}, so the upload never passes through a heap
+ * byte[] at all.
+ * <p>
+ * Digests set with {@link #setDigests(MessageDigest...)} are fed every byte as it is read or published, so the file
+ * can be checksummed in the same pass that uploads it.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class MappedFileInputStream extends InputStream {
+
+    // defaults
+    static final long REGION_SIZE = 64 * 1024 * 1024;
+    private static final int TRANSFER_SIZE = 256 * 1024;
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private MappedByteBuffer region;
+    private MessageDigest[] digests = new MessageDigest[0];
+
+    /**
+     * @param path the file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileInputStream(Path path) throws IOException {
+        this(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    private MappedFileInputStream(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    /**
+     * @param channel  the open file; it is closed with this stream
+     * @param position the offset of the first byte to read
+     * @param count    the number of bytes to read
+     */
+    public MappedFileInputStream(FileChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the offset of the next byte to read
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of bytes left to read
+     */
+    public long getRemaining() {
+        return end - position;
+    }
+
+    public MessageDigest[] getDigests() {
+        return digests;
+    }
+
+    /**
+     * @param digests the digests to update with the content; a transport that publishes the file directly resets and
+     *                updates them itself
+     */
+    public void setDigests(MessageDigest... digests) {
+        this.digests = digests;
+    }
+
+    private boolean map() throws IOException {
+        if (region != null && region.hasRemaining())
+            return true;
+        if (position >= end)
+            return false;
+        region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, end - position));
+        return region.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!map())
+            return -1;
+        byte b;
+        try {
+            b = region.get();
+        } catch (InternalError e) {
+            throw truncated(e);
+        }
+        position++;
+        for (MessageDigest digest : digests)
+            digest.update(b);
+        return b & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!map())
+            return -1;
+        int length = Math.min(len, region.remaining());
+        checkSize(channel, end);
+        try {
+            region.get(b, off, length);
+        } catch (InternalError e) {
+            throw truncated(e);
+        }
+        for (MessageDigest digest : digests)
+            digest.update(b, off, length);
+        position += length;
+        return length;
+    }
+
+    /**
+     * Reading a mapped page that is no longer backed by the file (it was truncated after it was mapped) raises an
+     * InternalError from the page fault. In compiled code the error may only be raised after the read has returned,
+     * so the size of the file is checked before every bulk read as well.
+     *
+     * @param channel the mapped file
+     * @param end     the offset after the last byte to read
+     * @throws IOException if the file is now shorter than that
+     */
+    static void checkSize(FileChannel channel, long end) throws IOException {
+        if (channel.size() < end)
+            throw truncated(null);
+    }
+
+    static IOException truncated(InternalError e) {
+        return new IOException("The file was truncated while it was being read", e);
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        region = null;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    /**
+     * Copy the rest of the file into the stream through a single reused buffer.
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(TRANSFER_SIZE, Math.max(1, end - position))];
+        long transferred = 0;
+        for (int length; (length = read(buffer, 0, buffer.length)) > 0; ) {
+            out.write(buffer, 0, length);
+            transferred += length;
+        }
+        return transferred;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+}
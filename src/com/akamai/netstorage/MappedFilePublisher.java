@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a region of a file as read-only slices of memory-mapped regions of its channel. No bytes are copied by
+ * the publisher: the subscriber (eg: the SSL engine of the HttpClient) reads the page cache directly.
+ * <p>
+ * Slices are emitted on the thread that signals demand, which for an upload is a thread of the HttpClient. Mapping
+ * itself does not read the file, but the first access to each page faults it in, both in the digest updates and in
+ * the subscriber: for a file that is not in the page cache that disk IO runs on the client's threads. Reading a page
+ * of a file that was truncated after it was mapped raises an InternalError. The size of the file is checked before
+ * every slice, and a digest update that still hits such a page fails the subscription with an IOException instead.
+ * <p>
+ * Every subscriber gets its own independent pass over the region, which lets the HttpClient resend the body if it has
+ * to. Optional digests are reset when a subscriber subscribes and updated with every slice before it is emitted, so
+ * they checksum exactly what the last subscriber was sent.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class MappedFilePublisher implements Flow.Publisher<ByteBuffer> {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+    private final int chunkSize;
+    private final MessageDigest[] digests;
+
+    /**
+     * @param channel   the open file; it must stay open until the subscribers have completed
+     * @param position  the offset of the first byte to publish
+     * @param count     the number of bytes to publish
+     * @param chunkSize the maximum size of each emitted buffer
+     * @param digests   the digests to update with the published content
+     */
+    public MappedFilePublisher(FileChannel channel, long position, long count, int chunkSize, MessageDigest... digests) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+        this.chunkSize = chunkSize;
+        this.digests = digests;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException();
+        for (MessageDigest digest : digests)
+            digest.reset();
+        subscriber.onSubscribe(new MappedSubscription(subscriber));
+    }
+
+    private class MappedSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private MappedByteBuffer region;
+        private long next = position;
+        private boolean done;
+
+        MappedSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("non-positive subscription request: " + n);
+            } else {
+                long current, updated;
+                do {
+                    current = demand.get();
+                    updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, updated));
+            }
+            drainLoop();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drainLoop();
+        }
+
+        // a subscriber that requests more from onNext re-enters here; the outer call picks that demand up instead
+        private void drainLoop() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done)
+                return;
+            if (cancelled) {
+                done = true;
+                region = null;
+                return;
+            }
+            if (invalidRequest != null) {
+                fail(invalidRequest);
+                return;
+            }
+            try {
+                long end = position + count;
+                while (demand.get() > 0 && !cancelled) {
+                    if (region == null || !region.hasRemaining()) {
+                        if (next >= end) {
+                            done = true;
+                            region = null;
+                            subscriber.onComplete();
+                            return;
+                        }
+                        long size = Math.min(MappedFileInputStream.REGION_SIZE, end - next);
+                        region = channel.map(FileChannel.MapMode.READ_ONLY, next, size);
+                        next += size;
+                    }
+                    MappedFileInputStream.checkSize(channel, end);
+                    int length = Math.min(chunkSize, region.remaining());
+                    ByteBuffer chunk = region.slice().limit(length).asReadOnlyBuffer();
+                    region.position(region.position() + length);
+                    for (MessageDigest digest : digests)
+                        digest.update(chunk.duplicate());
+                    demand.decrementAndGet();
+                    subscriber.onNext(chunk);
+                }
+            } catch (Exception e) {
+                fail(e);
+            } catch (InternalError e) {
+                fail(MappedFileInputStream.truncated(e));
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (done)
+                return;
+            done = true;
+            region = null;
+            subscriber.onError(e);
+        }
+    }
+}
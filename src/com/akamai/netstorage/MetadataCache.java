@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-memory cache of the parsed stat and dir responses of a client, see
+ * {@link NetStorage#setMetadataCache(MetadataCache)}.
+ * <p>
+ * At most {@code maxEntries} responses are kept; the least recently used one is evicted to make room for a new one.
+ * A response is served for {@code ttl} milliseconds, and a 404 is remembered (and thrown again) for the shorter
+ * {@code negativeTtl} so that a file that appears shortly after is seen soon.
+ * <p>
+ * Every upload, delete, rename, symlink, mtime, setmd, mkdir and rmdir sent by the client invalidates the responses of
+ * the path and of its directory, whose listing and mtime change with it, and any 404 remembered for an ancestor. A
+ * rename or quick-delete also invalidates everything under the path. Changes made by other clients are only seen once
+ * the responses expire.
+ * <p>
+ * The cache is safe to use from any number of threads and can be shared by the clients of the same storage group.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class MetadataCache {
+
+    /**
+     * Reads a response on a cache miss.
+     */
+    interface Loader<T> {
+        T load(String path) throws NetStorageException, IOException;
+    }
+
+    // defaults
+    private int maxEntries = 10000;
+    private long ttl = 30000;
+    private long negativeTtl = 5000;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    // bumped by every invalidation so that a response read before it is not cached after it
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry {
+        private final String path;
+        private final Object value;
+        private final NetStorageException notFound;
+        private final long expires;
+
+        Entry(String path, Object value, NetStorageException notFound, long expires) {
+            this.path = path;
+            this.value = value;
+            this.notFound = notFound;
+            this.expires = expires;
+        }
+    }
+
+    public MetadataCache() {
+    }
+
+    public MetadataCache(int maxEntries, long ttl) {
+        if (maxEntries > 0) this.setMaxEntries(maxEntries);
+        if (ttl >= 0) this.setTtl(ttl);
+    }
+
+    /**
+     * @param action the action of the response, eg: stat
+     * @param path   the remote path
+     * @param loader reads the response on a miss
+     * @return the cached response, or the response read by the loader
+     * @throws NetStorageException the 404 remembered for the path, or the failure of the loader
+     * @throws IOException         if the loader could not parse the response
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String action, String path, Loader<T> loader) throws NetStorageException, IOException {
+        String key = action + " " + path;
+        long start;
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expires - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                if (entry.notFound != null)
+                    throw new NetStorageException(entry.notFound.getMessage(), 404, entry.notFound.getResponseHeaders());
+                return (T) entry.value;
+            }
+            if (entry != null)
+                entries.remove(key);
+            start = generation;
+        } finally {
+            lock.unlock();
+        }
+
+        misses.incrementAndGet();
+        try {
+            T value = loader.load(path);
+            put(key, new Entry(path, value, null, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.getTtl())), start);
+            return value;
+        } catch (NetStorageException e) {
+            if (e.getResponseCode() == 404)
+                put(key, new Entry(path, null, e, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.getNegativeTtl())), start);
+            throw e;
+        }
+    }
+
+    private void put(String key, Entry entry, long start) {
+        lock.lock();
+        try {
+            // the path may have changed while the response was read
+            if (start != generation)
+                return;
+            entries.put(key, entry);
+            for (Iterator<Entry> eldest = entries.values().iterator(); entries.size() > this.getMaxEntries(); ) {
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget the responses of a path that was changed, of its directory, and the 404s of its ancestors.
+     *
+     * @param path the remote path
+     */
+    public void invalidate(String path) {
+        invalidate(path, false);
+    }
+
+    /**
+     * Forget the responses of a path that was changed and of everything under it, eg: after renaming a directory.
+     *
+     * @param path the remote path
+     */
+    public void invalidateTree(String path) {
+        invalidate(path, true);
+    }
+
+    private void invalidate(String path, boolean tree) {
+        String normalized = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        lock.lock();
+        try {
+            generation++;
+            remove(normalized, false);
+            for (int i = normalized.lastIndexOf('/'), level = 0; i > 0; i = normalized.lastIndexOf('/', i - 1), level++)
+                remove(normalized.substring(0, i), level > 0);
+            if (tree)
+                entries.values().removeIf(entry -> entry.path.startsWith(normalized + "/"));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String path, boolean onlyNotFound) {
+        for (String action : new String[]{"stat ", "dir "}) {
+            Entry entry = entries.get(action + path);
+            if (entry != null && (!onlyNotFound || entry.notFound != null))
+                entries.remove(action + path);
+        }
+    }
+
+    /**
+     * Forget every response.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            generation++;
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of responses in the cache, including expired ones not evicted yet
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of lookups served from the cache, including remembered 404s
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that sent a request
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of responses dropped to stay within {@code maxEntries}
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries the maximum number of responses kept; defaults to 10000
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl the time (in milliseconds) a response is served from the cache; defaults to 30 seconds
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * @param negativeTtl the time (in milliseconds) a 404 is remembered; defaults to 5 seconds
+     */
+    public void setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+}
@@ -15,17 +15,24 @@
  */
 package com.akamai.netstorage;
 
-import com.akamai.auth.RequestSigner;
 import com.akamai.auth.RequestSigningException;
 import com.akamai.builders.*;
 import com.akamai.netstorage.NetStorageCMSv35Signer.NetStorageType;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 import static com.akamai.netstorage.Utils.readToEnd;
 
@@ -33,20 +40,28 @@ import static com.akamai.netstorage.Utils.readToEnd;
  * The Netstorage class is the preferred interface for calling libraries indending to leverage the Netstorage API.
  * All of the available actions are innumerated in this library and are responsible for the correct business
  * logic to assemble the request to the API. Some early safetys are added in this library to limit errors.
- * <p>
- * TODO: Add "LIST" support for ObjectStore
- * TODO: Detect FileStore v. ObjectStore
- * TODO: Extract xml response from various requests into standard object representation
  *
  * @author colinb@akamai.com (Colin Bendell)
  */
 public class NetStorage {
 
+    private static final Logger log = Logger.getLogger(NetStorage.class.getName());
+
+    private static final Map<String, NetStorageType> STORAGE_TYPES = new ConcurrentHashMap<>();
+
     private DefaultCredential credential;
 
     // defaults
     private int connectTimeout = 10000;
     private int readTimeout = 10000;
+    private NetStorageTransport transport = new HttpURLConnectionTransport();
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private ConcurrencyLimiter concurrencyLimiter;
+    private RateLimiter rateLimiter;
+    private CircuitBreaker circuitBreaker;
+    private boolean singlePassUpload = false;
+    private ChecksumCache checksumCache;
+    private MetadataCache metadataCache;
 
     public NetStorage(DefaultCredential credential) {
         this.credential = credential;
@@ -69,28 +84,122 @@ public class NetStorage {
     }
 
     protected InputStream execute(String method, String path, APIEventBean acsParams, InputStream uploadStream, Long size) throws NetStorageException {
-        try {
-            return new NetStorageCMSv35Signer(
-                    method,
-                    this.getNetstorageUri(path),
-                    acsParams,
-                    uploadStream,
-                    size != null && size > 0 ? size : -1,
-                    this.getConnectTimeout(),
-                    this.getReadTimeout()
-            ).execute(this.credential);
-        }
-        catch (RequestSigningException ex) {
+        return execute(method, path, acsParams, uploadStream != null ? UploadSource.of(uploadStream) : null, size);
+    }
+
+    /**
+     * Send the request, retrying transient failures as decided by the {@link RetryPolicy}. Every attempt is signed
+     * again (new timestamp and nonce) and counts against the {@link RateLimiter}. Requests with a body are only
+     * retried when the source can be re-opened.
+     */
+    protected InputStream execute(String method, String path, APIEventBean acsParams, UploadSource uploadSource, Long size) throws NetStorageException {
+        return execute(method, path, acsParams, uploadSource, size, null);
+    }
+
+    protected InputStream execute(String method, String path, APIEventBean acsParams, UploadSource uploadSource, Long size,
+                                  Map<String, String> requestHeaders) throws NetStorageException {
+        RetryPolicy retryPolicy = this.getRetryPolicy();
+        boolean repeatable = uploadSource == null || uploadSource.isRepeatable();
+
+        for (int attempt = 1; ; attempt++) {
+            NetStorageException failure;
+            InputStream uploadStream = null;
             try {
-                return createRequestSigner(method, path, acsParams, uploadStream, size).execute(this.credential);
+                if (uploadSource != null)
+                    uploadStream = uploadSource.open(this.getTransport().isMappedUploadSupported());
+                NetStorageCMSv35Signer request = createRequestSigner(method, path, acsParams, uploadStream, size);
+                if (requestHeaders != null)
+                    request.setRequestHeaders(requestHeaders);
+                InputStream response = send(path, acsParams, request);
+                retryPolicy.recordSuccess();
+                return response;
+            } catch (NetStorageException e) {
+                failure = e;
             } catch (RequestSigningException e) {
-                throw new NetStorageException(ex);
+                failure = new NetStorageException(e);
+            } catch (IOException e) {
+                throw new NetStorageException("Unable to open upload content", e);
+            } finally {
+                // streams of a repeatable source are opened here, so they are closed here; a caller's stream is not
+                if (uploadStream != null && uploadSource.isRepeatable()) {
+                    try {
+                        uploadStream.close();
+                    } catch (IOException e) {
+                        // no-op. The content has been sent
+                    }
+                }
             }
+
+            long delay = retryPolicy.getRetryDelay(failure, attempt, repeatable);
+            if (delay < 0)
+                throw failure;
+            log.fine(String.format("Retrying %s %s in %dms (attempt %d): %s", method, path, delay, attempt, failure.getMessage()));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NetStorageException("Interrupted while waiting to retry", failure);
+            }
+        }
+    }
+
+    /**
+     * Send a single attempt through the transport. The attempt fails fast if the {@link CircuitBreaker} of the host is
+     * open, then waits for the {@link RateLimiter} and holds a slot of the {@link ConcurrencyLimiter} until the
+     * response stream is closed.
+     */
+    private InputStream send(String path, APIEventBean acsParams, NetStorageCMSv35Signer request) throws RequestSigningException {
+        CircuitBreaker circuitBreaker = this.getCircuitBreaker();
+        if (circuitBreaker == null)
+            return sendLimited(path, acsParams, request);
+
+        CircuitBreaker.Permit permit = circuitBreaker.acquire(this.credential.getHostname());
+        try {
+            InputStream response = sendLimited(path, acsParams, request);
+            permit.onSuccess();
+            return response;
+        } catch (NetStorageException e) {
+            if (circuitBreaker.isFailure(e))
+                permit.onFailure();
+            else if (e.getResponseCode() > 0)
+                permit.onSuccess();
+            throw e;
+        } finally {
+            // no-op unless the request did not reach the host
+            permit.onIgnore();
+        }
+    }
+
+    private InputStream sendLimited(String path, APIEventBean acsParams, NetStorageCMSv35Signer request) throws RequestSigningException {
+        if (this.getRateLimiter() != null)
+            this.getRateLimiter().acquire(RateLimiter.getCpCode(path), acsParams.getAction());
+
+        ConcurrencyLimiter limiter = this.getConcurrencyLimiter();
+        if (limiter == null)
+            return this.getTransport().execute(request, this.credential);
+
+        ConcurrencyLimiter.Permit permit = limiter.acquire(this.credential.getHostname());
+        InputStream response = null;
+        try {
+            response = this.getTransport().execute(request, this.credential);
+            // the time spent sending the body says nothing about the load of the host
+            permit.onResponse(request.getUploadedTime());
+            // the request stays in flight while the caller reads the body
+            return new PermitInputStream(response, permit);
+        } catch (NetStorageException e) {
+            int responseCode = e.getResponseCode();
+            if (responseCode == 429 || responseCode == 503 || responseCode == -1)
+                permit.onDropped();
+            throw e;
+        } finally {
+            // no-op unless the request failed for a reason unrelated to load
+            if (response == null)
+                permit.onIgnore();
         }
     }
 
-    protected RequestSigner createRequestSigner(String method, String path, APIEventBean acsParams,
-                                                InputStream uploadStream, Long size) {
+    protected NetStorageCMSv35Signer createRequestSigner(String method, String path, APIEventBean acsParams,
+                                                         InputStream uploadStream, Long size) {
         return new NetStorageCMSv35Signer(
                 method,
                 this.getNetstorageUri(path),
@@ -102,33 +211,73 @@ public class NetStorage {
         );
     }
 
+    /**
+     * Detect whether the host is a FileStore or an ObjectStore from the Server header of a stat of the root. The
+     * answer is remembered for the hostname, by every client, so only the first call sends a request; Unknown is not
+     * remembered.
+     *
+     * @return the storage type of the host
+     * @throws NetStorageException if the stat request failed
+     */
     public NetStorageType getNetStorageType() throws NetStorageException {
+        NetStorageType cached = STORAGE_TYPES.get(this.credential.getHostname());
+        if (cached != null)
+            return cached;
 
+        NetStorageType type = NetStorageType.Unknown;
         try {
             try (InputStream stream = stat("/")) {
                 if (stream instanceof SignerInputStream) {
-                    HttpURLConnection request = ((SignerInputStream) stream).getHttpRequest();
-                    switch (request.getHeaderField("Server")) {
-                        case "AkamaiNetStorage":
-                            return NetStorageType.ObjectStore;
-                        case "Apache":
-                            return NetStorageType.FileStore;
-                    }
+                    String server = ((SignerInputStream) stream).getHeaderField("Server");
+                    if ("AkamaiNetStorage".equals(server))
+                        type = NetStorageType.ObjectStore;
+                    if ("Apache".equals(server))
+                        type = NetStorageType.FileStore;
                 }
             }
         } catch (IOException ex) {
             throw new NetStorageException(ex);
         }
-        return NetStorageType.Unknown;
+        if (type != NetStorageType.Unknown)
+            STORAGE_TYPES.put(this.credential.getHostname(), type);
+        return type;
+    }
+
+    /**
+     * Record the storage type of the host instead of detecting it, eg: from configuration.
+     *
+     * @param type the storage type of the host, or null to detect it again on the next call
+     */
+    public void setNetStorageType(NetStorageType type) {
+        if (type == null || type == NetStorageType.Unknown)
+            STORAGE_TYPES.remove(this.credential.getHostname());
+        else
+            STORAGE_TYPES.put(this.credential.getHostname(), type);
     }
 
     protected InputStream execute(String method, String path, APIEventBean acsParams) throws NetStorageException {
-        return execute(method, path, acsParams, null, null);
+        return execute(method, path, acsParams, (UploadSource) null, null);
+    }
+
+    /**
+     * Forget the cached metadata of a path that this client changed. It runs whether or not the change succeeded, as a
+     * failed request may still have been applied.
+     */
+    private void invalidate(String path, boolean tree) {
+        MetadataCache cache = this.getMetadataCache();
+        if (cache == null)
+            return;
+        if (tree)
+            cache.invalidateTree(path);
+        else
+            cache.invalidate(path);
     }
 
     public boolean delete(String path) throws NetStorageException, IOException {
         try (InputStream inputStream = execute("POST", path, new APIEventDelete())) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -145,10 +294,150 @@ public class NetStorage {
         return execute("GET", path, new APIEventDir().withFormat(format).withAdditionalParams(additionalParams));
     }
 
+    /**
+     * List a whole directory in one request; use {@link #dirIterator(String)} for directories that may be large. The
+     * response is served from the {@link MetadataCache} when one is set.
+     *
+     * @param path the remote directory
+     * @return the parsed dir response of the directory
+     * @throws NetStorageException if the request failed
+     * @throws IOException         if the response could not be parsed
+     */
+    public List<DirEntry> dirEntries(String path) throws NetStorageException, IOException {
+        MetadataCache cache = this.getMetadataCache();
+        return cache != null ? cache.get("dir", path, p -> Collections.unmodifiableList(readDirEntries(p))) : readDirEntries(path);
+    }
+
+    private List<DirEntry> readDirEntries(String path) throws NetStorageException, IOException {
+        try (InputStream stream = dir(path)) {
+            return ResponseParser.parseEntries(stream, path, "dir");
+        }
+    }
+
+    /**
+     * List one page of a directory.
+     *
+     * @param path       the remote directory
+     * @param maxEntries the maximum number of entries in the response, or null for all of them
+     * @param start      the path of the entry to start the listing at, or null
+     * @param end        the path of the entry to end the listing at, or null
+     * @return the xml dir response
+     * @throws NetStorageException if the request failed
+     */
+    public InputStream dir(String path, Integer maxEntries, String start, String end) throws NetStorageException {
+        return execute("GET", path, new APIEventDir().withMaxEntries(maxEntries).startingAt(start).endingAt(end).withFormat("xml"));
+    }
+
+    /**
+     * @param path the remote directory
+     * @return the entries of the directory, requested 1000 at a time
+     */
+    public DirIterator dirIterator(String path) {
+        return new DirIterator(this, path, 1000, null, null);
+    }
+
+    /**
+     * @param path     the remote directory
+     * @param pageSize the number of entries requested at a time
+     * @param cursor   the {@link DirIterator#getCursor()} of an earlier listing to continue after, or null
+     * @return the entries of the directory
+     */
+    public DirIterator dirIterator(String path, int pageSize, String cursor) {
+        return new DirIterator(this, path, pageSize, cursor, null);
+    }
+
+    /**
+     * List one page of the objects under a path of an ObjectStore, in path order at any depth.
+     *
+     * @param path       the path to start the listing at; the start marker of the resume element to continue
+     * @param maxEntries the maximum number of objects in the response, or null for the default
+     * @param end        the path to end the listing at, or null
+     * @return the xml list response
+     * @throws NetStorageException if the request failed
+     */
+    public InputStream list(String path, Integer maxEntries, String end) throws NetStorageException {
+        return execute("GET", path, new APIEventList().withMaxEntries(maxEntries).endingAt(end).withFormat("xml"));
+    }
+
+    /**
+     * @param path the remote directory
+     * @return every file and symlink under the directory; read with the list action on an ObjectStore and with dir
+     * otherwise
+     * @throws NetStorageException if the storage type could not be detected
+     */
+    public TreeIterator list(String path) throws NetStorageException {
+        return list(path, null);
+    }
+
+    /**
+     * @param path   the remote directory
+     * @param cursor the {@link TreeIterator#getCursor()} of an earlier listing to continue after, or null
+     * @return every file and symlink under the directory, 1000 entries requested at a time
+     * @throws NetStorageException if the storage type could not be detected
+     */
+    public TreeIterator list(String path, String cursor) throws NetStorageException {
+        return new TreeIterator(this, path, 1000, cursor, this.getNetStorageType() == NetStorageType.ObjectStore);
+    }
+
     public InputStream download(String path) throws NetStorageException {
         return execute("GET", path, new APIEventDownload());
     }
 
+    /**
+     * Download a byte range of the file. The returned stream starts at the first requested byte if the server honoured
+     * the range, which it confirms with a Content-Range response header; otherwise it contains the whole file.
+     *
+     * @param path  the file to download
+     * @param start the offset of the first byte
+     * @param end   the offset of the last byte (inclusive), or -1 for the end of the file
+     * @return the content of the range
+     * @throws NetStorageException if the request failed
+     */
+    public InputStream download(String path, long start, long end) throws NetStorageException {
+        if (start < 0 || (end >= 0 && end < start))
+            throw new IllegalArgumentException(String.format("Invalid range %d-%d", start, end));
+        String range = "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : "");
+        return execute("GET", path, new APIEventDownload(), null, null, Collections.singletonMap("Range", range));
+    }
+
+    /**
+     * Download the file to a local file. Progress is recorded in a checkpoint next to the target so that an
+     * interrupted download resumes where it stopped, see {@link ResumableDownload}.
+     *
+     * @param path   the file to download
+     * @param target the local file to write
+     * @return true once the file has been downloaded
+     * @throws NetStorageException if a request failed
+     * @throws IOException         if the transfer or the local file failed
+     */
+    public boolean download(String path, File target) throws NetStorageException, IOException {
+        new ResumableDownload(this).download(path, target);
+        return true;
+    }
+
+    /**
+     * Download the file straight into a local file channel, with positional writes rather than a FileOutputStream.
+     * The response of an {@link HttpClientTransport} is copied once from the client's buffers into a direct buffer
+     * and written from it; other transports are read into a heap buffer, which the JDK copies again to write it. The
+     * target is overwritten; unlike {@link #download(String, File)} the transfer is not resumable.
+     *
+     * @param path   the file to download
+     * @param target the local file to write
+     * @return true once the file has been downloaded
+     * @throws NetStorageException if the request failed
+     * @throws IOException         if the transfer or the local file failed
+     */
+    public boolean download(String path, Path target) throws NetStorageException, IOException {
+        try (InputStream stream = download(path);
+             FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = SignerInputStream.getChannel(stream) != null ? ByteBuffer.allocateDirect(256 * 1024)
+                    : ByteBuffer.allocate(256 * 1024);
+            Utils.transfer(stream, channel, 0, Long.MAX_VALUE, buffer);
+        }
+        return true;
+    }
+
     public InputStream du(String path) throws NetStorageException {
         return du(path, "xml");
     }
@@ -157,9 +446,23 @@ public class NetStorage {
         return execute("GET", path, new APIEventDu().withFormat(format));
     }
 
+    /**
+     * @param path a remote directory
+     * @return the parsed du response of the directory
+     * @throws NetStorageException if the request failed
+     * @throws IOException         if the response could not be parsed
+     */
+    public DuInfo duInfo(String path) throws NetStorageException, IOException {
+        try (InputStream stream = du(path)) {
+            return ResponseParser.parseDu(stream, path);
+        }
+    }
+
     public boolean mkdir(String path) throws NetStorageException, IOException {
         try (InputStream inputStream = execute("PUT", path, new APIEventMkDir())) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -175,6 +478,8 @@ public class NetStorage {
 
         try (InputStream inputStream = execute("PUT", path, new APIEventMtime().withMtime(mtime))) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -184,6 +489,9 @@ public class NetStorage {
 
         try (InputStream inputStream = execute("PUT", originalPath, new APIEventRename().to(newPath))) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(originalPath, true);
+            invalidate(newPath, true);
         }
         return true;
     }
@@ -191,6 +499,8 @@ public class NetStorage {
     public boolean rmdir(String path) throws NetStorageException, IOException {
         try (InputStream inputStream = execute("POST", path, new APIEventRmdir())) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -204,9 +514,34 @@ public class NetStorage {
         return execute("GET", path, new APIEventStat().withFormat(format));
     }
 
+    /**
+     * The response is served from the {@link MetadataCache} when one is set.
+     *
+     * @param path a remote file, directory or symlink
+     * @return the parsed stat response of the path
+     * @throws NetStorageException if the request failed, eg: 404 if the path does not exist
+     * @throws IOException         if the response could not be parsed
+     */
+    public DirEntry statEntry(String path) throws NetStorageException, IOException {
+        MetadataCache cache = this.getMetadataCache();
+        return cache != null ? cache.get("stat", path, this::readStatEntry) : readStatEntry(path);
+    }
+
+    private DirEntry readStatEntry(String path) throws NetStorageException, IOException {
+        List<DirEntry> entries;
+        try (InputStream stream = stat(path)) {
+            entries = ResponseParser.parseEntries(stream, path, "stat");
+        }
+        if (entries.isEmpty())
+            throw new IOException(String.format("%s was not found in its stat response", path));
+        return entries.get(0);
+    }
+
     public boolean symlink(String path, String target) throws NetStorageException, IOException {
         try (InputStream inputStream = execute("PUT", path, new APIEventSymlink().to(target))) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -214,6 +549,8 @@ public class NetStorage {
     public boolean quickDelete(String path) throws NetStorageException, IOException {
         try (InputStream inputStream = execute("PUT", path, new APIEventQuickDelete())) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, true);
         }
         return true;
     }
@@ -227,6 +564,10 @@ public class NetStorage {
     }
 
     public boolean upload(String path, InputStream uploadFileStream, Map<String, String> additionalParams, Date mtime, Long size, byte[] md5Checksum, byte[] sha1Checksum, byte[] sha256Checksum, boolean indexZip) throws NetStorageException, IOException {
+        return upload(path, UploadSource.of(uploadFileStream), additionalParams, mtime, size, md5Checksum, sha1Checksum, sha256Checksum, indexZip);
+    }
+
+    protected boolean upload(String path, UploadSource uploadSource, Map<String, String> additionalParams, Date mtime, Long size, byte[] md5Checksum, byte[] sha1Checksum, byte[] sha256Checksum, boolean indexZip) throws NetStorageException, IOException {
 
         // sanity check to ensure that indexZip is only true if the file destination is also a zip.
         // probably should throw an exception or warning instead.
@@ -240,8 +581,10 @@ public class NetStorage {
                         .isIndexZip(indexZip && path.endsWith(".zip"))
                         .withAdditionalParams(additionalParams);
 
-        try (InputStream inputStream = execute("PUT", path, action, uploadFileStream, size)) {
+        try (InputStream inputStream = execute("PUT", path, action, uploadSource, size)) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -263,21 +606,61 @@ public class NetStorage {
             throw new FileNotFoundException(String.format("Src file is not accessible %s", srcFile.toString()));
 
         Date mTime = new Date(srcFile.lastModified());
-        byte[] checksum;
-        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(srcFile))) {
-            checksum = Utils.computeHash(inputStream, Utils.HashAlgorithm.SHA256);
+        long size = srcFile.length();
+        Path file = srcFile.toPath();
+        ChecksumCache cache = this.getChecksumCache();
+        Map<Utils.HashAlgorithm, byte[]> cached = cache != null && this.isSinglePassUpload() ? cache.lookup(file, Utils.HashAlgorithm.SHA256) : null;
+        if (this.isSinglePassUpload() && cached == null) {
+            // hash the sha256 as well when there is a cache so that the next upload of the unchanged file can send it
+            DigestUploadSource source = cache != null
+                    ? new DigestUploadSource(file, Utils.HashAlgorithm.MD5, Utils.HashAlgorithm.SHA256)
+                    : new DigestUploadSource(file, Utils.HashAlgorithm.MD5);
+            this.upload(path, source, additionalParams, mTime, size, null, null, null, indexZip);
+            verifyUpload(path, size, source.getDigest(Utils.HashAlgorithm.MD5));
+            if (cache != null && srcFile.length() == size && srcFile.lastModified() == mTime.getTime()) {
+                Map<Utils.HashAlgorithm, byte[]> hashes = new EnumMap<>(Utils.HashAlgorithm.class);
+                hashes.put(Utils.HashAlgorithm.MD5, source.getDigest(Utils.HashAlgorithm.MD5));
+                hashes.put(Utils.HashAlgorithm.SHA256, source.getDigest(Utils.HashAlgorithm.SHA256));
+                cache.put(file, size, mTime.getTime(), hashes);
+            }
+            return true;
         }
 
-        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(srcFile))) {
-            long size = srcFile.length();
-            return this.upload(path, inputStream, additionalParams, mTime, size, null, null, checksum, indexZip);
-        }
+        byte[] checksum;
+        if (cached != null)
+            checksum = cached.get(Utils.HashAlgorithm.SHA256);
+        else if (cache != null)
+            checksum = cache.getHashes(file, Utils.HashAlgorithm.SHA256).get(Utils.HashAlgorithm.SHA256);
+        else
+            checksum = new FileHasher(Utils.HashAlgorithm.SHA256).hash(file).get(Utils.HashAlgorithm.SHA256);
+
+        // the file is re-opened for every attempt so that a failed upload can be retried
+        return this.upload(path, UploadSource.of(srcFile), additionalParams, mTime, size, null, null, checksum, indexZip);
+    }
+
+    /**
+     * Compare the size and md5 that stat reports for an uploaded file with the content that was sent.
+     *
+     * @throws NetStorageException if the remote file does not match
+     */
+    protected void verifyUpload(String path, long size, byte[] md5) throws NetStorageException, IOException {
+        DirEntry remote = this.statEntry(path);
+        if (remote.getSize() >= 0 && remote.getSize() != size)
+            throw new NetStorageException(String.format("Uploaded %d bytes to %s but stat reports %d", size, path, remote.getSize()));
+
+        String remoteMd5 = remote.getMd5();
+        if (remoteMd5 == null)
+            log.fine(String.format("The stat response of %s has no md5, only the size was verified", path));
+        else if (!remoteMd5.equalsIgnoreCase(Utils.encodeHex(md5)))
+            throw new NetStorageException(String.format("Checksum mismatch for %s: sent md5 %s but stat reports %s", path, Utils.encodeHex(md5), remoteMd5));
     }
 
     public boolean setmd(String path, Map<String, String> additionalParams) throws NetStorageException, IOException {
 
         try (InputStream inputStream = execute("PUT", path, new APIEventSetmd().withAdditionalParams(additionalParams))) {
             readToEnd(inputStream);
+        } finally {
+            invalidate(path, false);
         }
         return true;
     }
@@ -298,4 +681,129 @@ public class NetStorage {
         return readTimeout;
     }
 
+    /**
+     * Replace the transport used to send requests. Transports are thread safe and can be shared between
+     * NetStorage instances, eg: a single {@link HttpClientTransport} for every credential in a bulk job.
+     *
+     * @param transport the transport; defaults to {@link HttpURLConnectionTransport}
+     */
+    public void setTransport(NetStorageTransport transport) {
+        this.transport = transport;
+    }
+
+    public NetStorageTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Replace the policy that decides which failed requests are retried. Use {@link RetryPolicy#none()} to disable
+     * retries.
+     *
+     * @param retryPolicy the retry policy; defaults to a {@link RetryPolicy} with 3 retries
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Limit the number of requests in flight to the Netstorage host, adapting the limit to the latency and errors of
+     * the host. Limiters are thread safe and can be shared between NetStorage instances.
+     *
+     * @param concurrencyLimiter the limiter; defaults to null (no limit)
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Keep the request rate within per CP code and per action quotas. Requests over the quota wait for their turn.
+     *
+     * @param rateLimiter the limiter, usually shared by every client of the account; defaults to null (no limit)
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Fail requests fast with a {@link CircuitOpenException} while the Netstorage host is degraded. Circuit breakers
+     * are thread safe and can be shared between NetStorage instances so that every client sees the same host state.
+     *
+     * @param circuitBreaker the circuit breaker; defaults to null (no circuit breaking)
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Upload local files in a single read: the md5 is computed while the file is sent and then compared with the md5
+     * that stat reports for the uploaded file, instead of reading the whole file up front to send its sha256 with the
+     * upload. This halves the reads of every file at the cost of one stat request, and a corrupt upload is detected
+     * after it has replaced the remote file rather than being rejected by Netstorage.
+     *
+     * @param singlePassUpload true to verify uploads with a stat; defaults to false
+     */
+    public void setSinglePassUpload(boolean singlePassUpload) {
+        this.singlePassUpload = singlePassUpload;
+    }
+
+    public boolean isSinglePassUpload() {
+        return singlePassUpload;
+    }
+
+    /**
+     * Reuse the checksums of local files that have not changed since they were last uploaded instead of hashing them
+     * again. With {@link #setSinglePassUpload(boolean)}, a file with a cached sha256 is uploaded with it (and verified by
+     * Netstorage) rather than verified with a stat afterwards.
+     *
+     * @param checksumCache the persistent checksum index; defaults to null (always hash)
+     */
+    public void setChecksumCache(ChecksumCache checksumCache) {
+        this.checksumCache = checksumCache;
+    }
+
+    public ChecksumCache getChecksumCache() {
+        return checksumCache;
+    }
+
+    /**
+     * Serve {@link #statEntry(String)} and {@link #dirEntries(String)} from memory for a while instead of sending the
+     * same request again. The changes made through this client invalidate the affected responses; changes made by
+     * other clients are only seen once the responses expire.
+     *
+     * @param metadataCache the cache, which can be shared by the clients of a storage group; defaults to null (no
+     *                      caching)
+     */
+    public void setMetadataCache(MetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * @return the limiter of a {@link LimitedHttpClientTransport}, or null if the transport is not limited
+     */
+    public InFlightLimiter getInFlightLimiter() {
+        if (transport instanceof LimitedHttpClientTransport)
+            return ((LimitedHttpClientTransport) transport).getInFlightLimiter();
+        return null;
+    }
+
 }
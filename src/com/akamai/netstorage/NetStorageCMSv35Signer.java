@@ -21,11 +21,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import com.akamai.auth.ClientCredential;
 import com.akamai.auth.RequestSigner;
@@ -37,11 +36,13 @@ import com.akamai.netstorage.Utils.KeyedHashAlgorithm;
  * includes the signing and formatting the request appropriately so that the implementation detail is abstracted from
  * calling libraries. The intended calling library is the NetStorage class, but this layer can be called directly and is
  * offered as a convenience interface for enhanced implementations.
+ * <p>
+ * The {@link #execute(ClientCredential)} methods send the request over an {@link HttpURLConnection}. Other
+ * {@link NetStorageTransport} implementations use {@link #computeHeaders(ClientCredential)} and
+ * {@link #validate(int, String, long, Map)} to send the same request over a different client.
  *
  * TODO: support rebinding on IO communication errors (eg: connection reset)
  * TODO: support async IO
- * TODO: support multiplexing of uploads
- * TODO: optimize and adapt throughput based on connection latency
  * TODO: support HTTP trailers for late SHA256 validation
  *
  * @author colinb@akamai.com (Colin Bendell)
@@ -56,6 +57,8 @@ public class NetStorageCMSv35Signer implements RequestSigner {
     private static final String AUTH_DATA_HEADER = "X-Akamai-ACS-Auth-Data";
     private static final String AUTH_SIGN_HEADER = "X-Akamai-ACS-Auth-Sign";
 
+    private static final int UPLOAD_BUFFER_SIZE = 1024 * 1024;
+
     // defaults
     private int connectTimeout = 10000;
     private int readTimeout = 10000;
@@ -142,6 +145,8 @@ public class NetStorageCMSv35Signer implements RequestSigner {
     private InputStream uploadStream = null;
     private long uploadSize;
     private SignType signVersion = null;
+    private Map<String, String> requestHeaders = null;
+    private volatile long uploadedTime;
 
     public String getMethod() {
         return method;
@@ -183,6 +188,32 @@ public class NetStorageCMSv35Signer implements RequestSigner {
         this.uploadSize = uploadSize;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} at which the transport finished sending the upload stream, or 0 if it
+     * has not (yet)
+     */
+    public long getUploadedTime() {
+        return uploadedTime;
+    }
+
+    /**
+     * Called by the transport once the upload stream has been sent, before it waits for the response.
+     */
+    public void setUploaded() {
+        this.uploadedTime = System.nanoTime();
+    }
+
+    /**
+     * @return additional (unsigned) request headers, eg: Range; null if there are none
+     */
+    public Map<String, String> getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    public void setRequestHeaders(Map<String, String> requestHeaders) {
+        this.requestHeaders = requestHeaders;
+    }
+
     public SignType getSignVersion() {
         return signVersion;
     }
@@ -226,21 +257,13 @@ public class NetStorageCMSv35Signer implements RequestSigner {
      * @return the data field in a comma separated list
      */
     protected String getAuthDataHeaderValue(ClientCredential credential) {
-        Date currentTime = new Date();
-        int rand = new Random().nextInt(Integer.MAX_VALUE);
-
-        return String.format(
-                "%d, 0.0.0.0, 0.0.0.0, %d, %d, %s",
-                this.getSignVersion().getValue(),
-                currentTime.getTime() / 1000,
-                rand,
-                credential.getUsername());
+        return SigningEngine.authData(this.getSignVersion().getValue(), credential.getUsername());
     }
 
     /**
      * Computes the X-Akamai-ACS-Auth-Sign header for a given Action and Data header values. This results in a base64
      * encoded representation of the hash as required by the spec. The api server will compute this same hash to validate
-     * the request
+     * the request. The keyed hash of the credential is set up once and reused, see {@link SigningEngine}.
      *
      * @param action   action header values {@link #getActionHeaderValue()}
      * @param authData data header values {@link #getAuthDataHeaderValue(ClientCredential credential)}
@@ -248,25 +271,21 @@ public class NetStorageCMSv35Signer implements RequestSigner {
      * @return a base64 encoded return string
      */
     protected String getAuthSignHeaderValue(String action, String authData, ClientCredential credential) {
-        String signData = String.format(
-                "%s%s\n%s:%s\n",
-                authData,
-                this.getUrl().getPath(),
-                NetStorageCMSv35Signer.ACTION_HEADER.toLowerCase(),
-                action);
-        byte[] hash = Utils.computeKeyedHash(signData.getBytes(StandardCharsets.UTF_8), credential.getKey(), this.getSignVersion().getAlgorithm());
-
-        return Utils.encodeBase64(hash);
+        return SigningEngine.authSign(authData, this.getUrl().getPath(), action, credential.getKey(),
+                this.getSignVersion().getAlgorithm());
     }
 
     /**
-     * Assmembles the HTTP Headers necessary for API communication
+     * Assmembles the HTTP Headers necessary for API communication, along with any additional request headers
      *
      * @param credential user credentials
      * @return Map of name-value pairs representing HTTP Headers and values.
      */
     public Map<String, String> computeHeaders(ClientCredential credential) {
-        final Map<String, String> headers = new HashMap<>(3);
+        final Map<String, String> headers = new HashMap<>(8);
+        if (this.getRequestHeaders() != null)
+            headers.putAll(this.getRequestHeaders());
+
         final String action = getActionHeaderValue();
         final String authData = getAuthDataHeaderValue(credential);
         final String authSign = getAuthSignHeaderValue(action, authData, credential);
@@ -280,28 +299,49 @@ public class NetStorageCMSv35Signer implements RequestSigner {
 
     /**
      * Attempt to validate the response and detect common causes of errors. The most common being time drift.
-     * <p>
-     * TODO: catch rate limitting errors. Should delay and retry.
+     * Rate limiting and other transient errors are retried by the {@link RetryPolicy} of {@link NetStorage}.
      *
      * @param connection an open url connection
-     * @return true if 200 OK response, false otherwise.
+     * @return true if 200 OK (or 206 Partial Content to a Range request) response, false otherwise.
      * @throws NetStorageException wrapped exception if it is a recoverable exception
      * @throws IOException         shouldn't be called at this point, but could be triggered when interrogating the response
      */
     public boolean validate(HttpURLConnection connection) throws NetStorageException, IOException {
-        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK)
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK || isPartialContent(connection.getResponseCode()))
+            return true;
+
+        return validate(connection.getResponseCode(), connection.getResponseMessage(),
+                connection.getHeaderFieldDate("Date", 0), connection.getHeaderFields());
+    }
+
+    /**
+     * Transport neutral variant of {@link #validate(HttpURLConnection)}.
+     *
+     * @param responseCode    the HTTP status code
+     * @param responseMessage the HTTP reason phrase, if any
+     * @param responseDate    the value of the Date response header in milliseconds, or 0 if it was not sent
+     * @param headers         the response headers
+     * @return true if 200 OK (or 206 Partial Content to a Range request) response, false otherwise.
+     * @throws NetStorageException wrapped exception if it is a recoverable exception
+     */
+    public boolean validate(int responseCode, String responseMessage, long responseDate, Map<String, List<String>> headers) throws NetStorageException {
+        if (responseCode == HttpURLConnection.HTTP_OK || isPartialContent(responseCode))
             return true;
 
         // Validate Server-Time drift
         Date currentDate = new Date();
-        long responseDate = connection.getHeaderFieldDate("Date", 0);
         if ((responseDate != 0 && currentDate.getTime() - responseDate > 30 * 1000)
             || (responseDate != 0 && (currentDate.getTime() - responseDate) * -1 > 30 * 1000))
-            throw new NetStorageException("Local server Date is more than 30s out of sync with Remote server");
+            throw new NetStorageException("Local server Date is more than 30s out of sync with Remote server", responseCode, headers);
 
         // generic response
         throw new NetStorageException(String.format("Unexpected Response from Server: %d %s\n%s",
-                connection.getResponseCode(), connection.getResponseMessage(), connection.getHeaderFields()), connection.getResponseCode());
+                responseCode, responseMessage, headers), responseCode, headers);
+    }
+
+    private boolean isPartialContent(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_PARTIAL
+                && this.getRequestHeaders() != null && this.getRequestHeaders().containsKey("Range");
     }
 
     /**
@@ -346,23 +386,31 @@ public class NetStorageCMSv35Signer implements RequestSigner {
                     request.setFixedLengthStreamingMode(0);
                     request.connect();
                 } else {
-                    byte[] buffer = new byte[1024 * 1024];
-
                     if (this.getUploadSize() > 0)
                         request.setFixedLengthStreamingMode(this.getUploadSize());
                     else
-                        request.setChunkedStreamingMode(buffer.length);
+                        request.setChunkedStreamingMode(UPLOAD_BUFFER_SIZE);
 
                     request.connect();
 
-                    try (BufferedInputStream input = new BufferedInputStream(this.getUploadStream())) {
-                        try (OutputStream output = request.getOutputStream()) {
-                            for (int length; (length = input.read(buffer)) > 0; ) {
-                                output.write(buffer, 0, length);
-                            }
+                    if (this.getUploadStream() instanceof MappedFileInputStream) {
+                        // copy straight from the mapped file into the connection rather than through the 1MB buffer
+                        try (InputStream input = this.getUploadStream(); OutputStream output = request.getOutputStream()) {
+                            input.transferTo(output);
                             output.flush();
                         }
+                    } else {
+                        byte[] buffer = new byte[UPLOAD_BUFFER_SIZE];
+                        try (BufferedInputStream input = new BufferedInputStream(this.getUploadStream())) {
+                            try (OutputStream output = request.getOutputStream()) {
+                                for (int length; (length = input.read(buffer)) > 0; ) {
+                                    output.write(buffer, 0, length);
+                                }
+                                output.flush();
+                            }
+                        }
                     }
+                    this.setUploaded();
                 }
             } else {
                 request.connect();
@@ -387,17 +435,3 @@ public class NetStorageCMSv35Signer implements RequestSigner {
         return execute(null, credential);
     }
 }
-
-class SignerInputStream extends BufferedInputStream
-{
-    HttpURLConnection request;
-    public SignerInputStream(InputStream stream, HttpURLConnection request) {
-        super(stream);
-        this.request = request;
-    }
-
-    public HttpURLConnection getHttpRequest() {
-        return request;
-    }
-
-}
@@ -18,6 +18,10 @@ package com.akamai.netstorage;
 
 import com.akamai.auth.RequestSigningException;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Netstorage Exceptions are intended to differentiate between IO (Networking and File) exceptions
  *
@@ -27,6 +31,7 @@ public class NetStorageException extends RequestSigningException {
 
 	private static final long serialVersionUID = 5716437270940718895L;
 	private int responseCode = -1;
+	private Map<String, List<String>> responseHeaders = Collections.emptyMap();
 
     public NetStorageException(String message) {
         super(message);
@@ -41,14 +46,40 @@ public class NetStorageException extends RequestSigningException {
         this.responseCode = responseCode;
     }
 
+    public NetStorageException(String message, int responseCode, Map<String, List<String>> responseHeaders) {
+        this(message, responseCode);
+        if (responseHeaders != null)
+            this.responseHeaders = responseHeaders;
+    }
+
     public NetStorageException(String message, Throwable cause) {
         super(message, cause);
         if(cause instanceof NetStorageException) {
            responseCode = ((NetStorageException) cause).getResponseCode();
+           responseHeaders = ((NetStorageException) cause).getResponseHeaders();
         }
     }
 
     public int getResponseCode(){
     	return responseCode;
     }
+
+    /**
+     * @return the headers of the error response, or an empty map if no response was received
+     */
+    public Map<String, List<String>> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * @param name the response header name (case insensitive)
+     * @return the last value of the named header of the error response, or null if it was not sent
+     */
+    public String getResponseHeader(String name) {
+        String value = null;
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet())
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null && entry.getValue().size() > 0)
+                value = entry.getValue().get(entry.getValue().size() - 1);
+        return value;
+    }
 }
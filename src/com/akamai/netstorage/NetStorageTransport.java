@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.auth.RequestSigningException;
+
+import java.io.InputStream;
+
+/**
+ * The transport is responsible for moving a signed API request over the wire. The {@link NetStorageCMSv35Signer}
+ * describes the request (method, url, action parameters and upload content) and computes the signing headers; the
+ * transport opens the connection, sends the request and returns the response body.
+ * <p>
+ * Implementations are expected to be thread safe so that a single instance can be shared between many
+ * {@link NetStorage} instances and calling threads.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ * @see HttpURLConnectionTransport
+ * @see HttpClientTransport
+ */
+public interface NetStorageTransport {
+
+    /**
+     * Sign and send the request to Netstorage.
+     *
+     * @param request    the request to send
+     * @param credential user credentials
+     * @return the InputStream from the response if successful
+     * @throws RequestSigningException if an error occurred during the communication
+     */
+    InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws RequestSigningException;
+
+    /**
+     * @return true if the transport sends a {@link MappedFileInputStream} from the mapped regions of its file. Local
+     * files are only mapped for such transports; the others are given a FileInputStream, since copying a mapped file
+     * through a byte[] only adds page faults to the read() calls it saves.
+     */
+    default boolean isMappedUploadSupported() {
+        return false;
+    }
+}
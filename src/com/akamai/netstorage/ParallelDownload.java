@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a large file over several connections at once. The file is split into byte ranges of {@code partSize}
+ * bytes which are fetched by up to {@code parallelism} concurrent Range requests. Each range is written at its own
+ * offset of a file that is preallocated to the size reported by stat, so ranges are neither held in memory nor
+ * stitched together afterwards.
+ * <p>
+ * A range that fails is retried on its own (up to {@code maxPartRetries} times), continuing from the last byte it
+ * wrote; the other ranges are unaffected. If any range still fails, the remaining ranges are cancelled and the partial
+ * file is removed. Once complete, the file is moved to the target and given the remote mtime.
+ * <p>
+ * Every range goes through {@link NetStorage#download(String, long, long)}, so the retry policy, limiters and circuit
+ * breaker of the client apply to each connection. The first range is requested before any other: if the server
+ * answers it with the whole file (no Content-Range) rather than the range, that response is written as a single stream
+ * and no further ranges are requested.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ParallelDownload {
+
+    private static final Logger log = Logger.getLogger(ParallelDownload.class.getName());
+
+    // defaults
+    private long partSize = 8 * 1024 * 1024;
+    private int parallelism = 4;
+    private int maxPartRetries = 3;
+    private int bufferSize = 64 * 1024;
+
+    private final NetStorage netStorage;
+
+    public ParallelDownload(NetStorage netStorage) {
+        this.netStorage = netStorage;
+    }
+
+    public ParallelDownload(NetStorage netStorage, long partSize, int parallelism) {
+        this.netStorage = netStorage;
+        if (partSize > 0) this.setPartSize(partSize);
+        if (parallelism > 0) this.setParallelism(parallelism);
+    }
+
+    /**
+     * @param path   the file to download
+     * @param target the local file to write
+     * @return the number of bytes downloaded
+     * @throws NetStorageException if a range could not be downloaded
+     * @throws IOException         if a range transfer or the local file failed
+     */
+    public long download(String path, File target) throws NetStorageException, IOException {
+        DirEntry remote = ResumableDownload.statFile(netStorage, path);
+        long size = remote.getSize();
+        long mtime = remote.getMtime();
+
+        File part = new File(target.getPath() + ResumableDownload.PART_SUFFIX);
+        boolean complete = false;
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(this.getParallelism());
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(size);
+            final FileChannel channel = file.getChannel();
+
+            // the first range tells whether the server honours Range requests at all
+            InputStream opened = size > 0 ? netStorage.download(path, 0, Math.min(size, this.getPartSize()) - 1) : null;
+            if (opened != null && !ResumableDownload.isPartial(opened)) {
+                // every range would be sent the whole file; read it once instead
+                log.fine(String.format("Range request for %s was not honoured, downloading it in a single stream", path));
+                downloadRange(path, channel, 0, size - 1, opened);
+            } else {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (long start = 0; start < size; start += this.getPartSize()) {
+                    final long first = start;
+                    final long last = Math.min(size, start + this.getPartSize()) - 1;
+                    final InputStream stream = start == 0 ? opened : null;
+                    // submit a range only once a thread is free for it, and stop at the first range that failed
+                    if (start > 0) {
+                        awaitCapacity(executor);
+                        await(futures, false);
+                    }
+                    futures.add(executor.submit(() -> {
+                        downloadRange(path, channel, first, last, stream);
+                        return null;
+                    }));
+                }
+                await(futures, true);
+            }
+
+            channel.force(false);
+            complete = true;
+        } finally {
+            executor.shutdownNow();
+            if (!complete)
+                part.delete();
+        }
+
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (mtime > 0)
+            target.setLastModified(mtime * 1000);
+        return size;
+    }
+
+    private static void awaitCapacity(VirtualThreadExecutor executor) throws NetStorageException {
+        try {
+            executor.awaitCapacity();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetStorageException("Interrupted while downloading", e);
+        }
+    }
+
+    /**
+     * Remove the completed ranges from the list, rethrowing the failure of any of them.
+     *
+     * @param all wait for every range rather than only remove those already completed
+     */
+    private static void await(List<Future<Void>> futures, boolean all) throws NetStorageException, IOException {
+        boolean failed = true;
+        try {
+            for (Iterator<Future<Void>> it = futures.iterator(); it.hasNext(); ) {
+                Future<Void> future = it.next();
+                if (all || future.isDone()) {
+                    future.get();
+                    it.remove();
+                }
+            }
+            failed = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetStorageException("Interrupted while downloading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof NetStorageException)
+                throw (NetStorageException) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new NetStorageException("Range download failed", cause);
+        } finally {
+            if (failed) {
+                for (Future<Void> future : futures)
+                    future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Download the inclusive byte range into the channel at the same offset, retrying the remainder of the range when
+     * the transfer fails.
+     */
+    protected void downloadRange(String path, FileChannel channel, long start, long end) throws NetStorageException, IOException {
+        downloadRange(path, channel, start, end, null);
+    }
+
+    /**
+     * @param opened the response of the first attempt, if it has already been requested
+     */
+    private void downloadRange(String path, FileChannel channel, long start, long end, InputStream opened)
+            throws NetStorageException, IOException {
+        long position = start;
+        ByteBuffer buffer = ByteBuffer.allocate(this.getBufferSize());
+        for (int attempt = 0; ; attempt++) {
+            try (InputStream stream = attempt == 0 && opened != null ? opened : netStorage.download(path, position, end)) {
+                if (!ResumableDownload.isPartial(stream)) {
+                    // the range was ignored and the whole file is being sent; skip to the part of this range
+                    log.fine(String.format("Range request for %s was not honoured", path));
+                    skipFully(stream, position);
+                }
+
+                // one buffer at a time so that a retry continues after the last byte written
+                while (position <= end) {
+                    long length = Utils.transfer(stream, channel, position, Math.min(buffer.capacity(), end - position + 1), buffer);
+                    if (length == 0)
+                        throw new EOFException(String.format("%s ended at %d, expected %d", path, position, end + 1));
+                    position += length;
+                }
+                return;
+            } catch (IOException | NetStorageException e) {
+                if (attempt >= this.getMaxPartRetries() || Thread.currentThread().isInterrupted())
+                    throw e;
+                log.fine(String.format("Retrying %s range %d-%d after: %s", path, position, end, e));
+            }
+        }
+    }
+
+    private static void skipFully(InputStream stream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                if (stream.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @param partSize the size (in bytes) of each range request
+     */
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the maximum number of ranges downloaded at the same time
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxPartRetries() {
+        return maxPartRetries;
+    }
+
+    /**
+     * @param maxPartRetries the number of times a failed range is retried before the download fails
+     */
+    public void setMaxPartRetries(int maxPartRetries) {
+        this.maxPartRetries = maxPartRetries;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the permit of a request until its response has been closed, so that a download counts as in flight while its
+ * body is being read.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+class PermitInputStream extends SignerInputStream {
+    private final AtomicReference<ConcurrencyLimiter.Permit> permit;
+
+    PermitInputStream(InputStream response, ConcurrencyLimiter.Permit permit) {
+        super(response, response instanceof SignerInputStream ? ((SignerInputStream) response).headers : null);
+        if (response instanceof SignerInputStream)
+            this.request = ((SignerInputStream) response).request;
+        this.permit = new AtomicReference<>(permit);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            ConcurrencyLimiter.Permit held = permit.getAndSet(null);
+            if (held != null)
+                held.onSuccess();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Upload content supplied by a {@link Flow.Publisher}. The {@link HttpClientTransport} hands the publisher straight to
+ * the HttpClient so the request body is pulled from it with the client's own flow control. Other transports read this
+ * stream, which subscribes on the first read and requests a new buffer from the publisher only as each buffered one is
+ * consumed, so at most {@code prefetch} buffers are ever held in memory.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class PublisherInputStream extends InputStream implements Flow.Subscriber<ByteBuffer> {
+
+    private static final Object COMPLETE = new Object();
+
+    private final Flow.Publisher<? extends ByteBuffer> publisher;
+    private final int prefetch;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+    private ByteBuffer current;
+    private boolean finished;
+
+    public PublisherInputStream(Flow.Publisher<? extends ByteBuffer> publisher) {
+        this(publisher, 8);
+    }
+
+    /**
+     * @param publisher the upload content
+     * @param prefetch  the number of buffers requested ahead of the reader
+     */
+    public PublisherInputStream(Flow.Publisher<? extends ByteBuffer> publisher, int prefetch) {
+        if (prefetch <= 0)
+            throw new IllegalArgumentException("prefetch must be greater than 0");
+        this.publisher = publisher;
+        this.prefetch = prefetch;
+    }
+
+    public Flow.Publisher<? extends ByteBuffer> getPublisher() {
+        return publisher;
+    }
+
+    /**
+     * @return true once this stream has subscribed to the publisher (ie: it has been read)
+     */
+    public boolean isSubscribed() {
+        return subscribed.get();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        queue.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        queue.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        queue.add(COMPLETE);
+    }
+
+    private boolean fill() throws IOException {
+        if (subscribed.compareAndSet(false, true))
+            publisher.subscribe(this);
+
+        while (current == null || !current.hasRemaining()) {
+            if (finished)
+                return false;
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload content");
+            }
+            if (item == COMPLETE) {
+                finished = true;
+                return false;
+            }
+            if (item instanceof Throwable) {
+                finished = true;
+                throw new IOException("Upload content publisher failed", (Throwable) item);
+            }
+            current = (ByteBuffer) item;
+            subscription.request(1);
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return current.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int length = Math.min(len, current.remaining());
+        current.get(b, off, length);
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    @Override
+    public void close() {
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null && !finished) {
+            finished = true;
+            subscription.cancel();
+        }
+        queue.clear();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the request rate below the Netstorage API operation limits. Quotas are token buckets that apply to a CP code
+ * (the first segment of the request path), to an action (eg: "upload", "dir") or to both; a null CP code or action
+ * matches every request, so {@code setLimit(null, null, ...)} limits the whole account.
+ * <p>
+ * A request takes one token from every matching bucket. Tokens are reserved in arrival order and a caller that has to
+ * wait sleeps until its reserved time, so waiting callers are served first come, first served and never fail because
+ * of the limiter. Unused tokens accumulate up to the burst size of the bucket.
+ * <p>
+ * Share one instance between the NetStorage clients (and services) that use the same account to split its budget.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class RateLimiter {
+
+    // never held while waiting for a token
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Bucket> buckets = new ArrayList<>();
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+
+    private static class Bucket {
+        private final String cpCode;
+        private final String action;
+        private final double interval;
+        private final double burst;
+        private double stored;
+        private long nextFree;
+
+        Bucket(String cpCode, String action, double permitsPerSecond, int burst) {
+            this.cpCode = cpCode;
+            this.action = action;
+            this.interval = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+            this.burst = burst;
+            this.stored = burst;
+            this.nextFree = System.nanoTime();
+        }
+
+        boolean matches(String cpCode, String action) {
+            return (this.cpCode == null || this.cpCode.equals(cpCode))
+                    && (this.action == null || this.action.equals(action));
+        }
+
+        /**
+         * @return the time at which the reserved token may be used
+         */
+        long reserve(long now) {
+            if (now > nextFree) {
+                stored = Math.min(burst, stored + (now - nextFree) / interval);
+                nextFree = now;
+            }
+            if (stored >= 1) {
+                stored -= 1;
+                return now;
+            }
+            nextFree += (long) ((1 - stored) * interval);
+            stored = 0;
+            return nextFree;
+        }
+    }
+
+    /**
+     * Add a quota, replacing any existing quota for the same CP code and action.
+     *
+     * @param cpCode           the CP code, or null for every CP code
+     * @param action           the action (eg: "upload"), or null for every action
+     * @param permitsPerSecond the sustained rate of requests
+     * @param burst            the number of requests that may be sent at once after an idle period
+     */
+    public void setLimit(String cpCode, String action, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0)
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        lock.lock();
+        try {
+            removeLimit(cpCode, action);
+            buckets.add(new Bucket(cpCode, action, permitsPerSecond, Math.max(1, burst)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param cpCode the CP code, or null for every CP code
+     * @param action the action, or null for every action
+     */
+    public void removeLimit(String cpCode, String action) {
+        lock.lock();
+        try {
+            buckets.removeIf(b -> (cpCode == null ? b.cpCode == null : cpCode.equals(b.cpCode))
+                    && (action == null ? b.action == null : action.equals(b.action)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the request is allowed by every matching quota.
+     *
+     * @param cpCode the CP code of the request
+     * @param action the action of the request
+     * @throws NetStorageException if interrupted while waiting
+     */
+    public void acquire(String cpCode, String action) throws NetStorageException {
+        long now = System.nanoTime();
+        long until = now;
+        lock.lock();
+        try {
+            for (Bucket bucket : buckets)
+                if (bucket.matches(cpCode, action))
+                    until = Math.max(until, bucket.reserve(now));
+        } finally {
+            lock.unlock();
+        }
+
+        long wait = until - now;
+        if (wait <= 0)
+            return;
+        throttled.incrementAndGet();
+        waitTime.addAndGet(wait);
+        while ((wait = until - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new NetStorageException("Interrupted while waiting for the rate limit");
+            }
+        }
+    }
+
+    /**
+     * @param path a Netstorage path, eg: /1234/dir/file.txt
+     * @return the CP code (first path segment), or null if the path has none
+     */
+    public static String getCpCode(String path) {
+        if (path == null)
+            return null;
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.indexOf('/', start);
+        String cpCode = end < 0 ? path.substring(start) : path.substring(start, end);
+        return cpCode.isEmpty() ? null : cpCode;
+    }
+
+    /**
+     * @return the number of requests that had to wait for a token
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the total time (in milliseconds) requests waited for a token
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+}
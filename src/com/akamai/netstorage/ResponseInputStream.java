@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The body of an {@link java.net.http.HttpClient} response, read as a stream. Unlike the stream of
+ * {@link HttpResponse.BodySubscribers#ofInputStream()} a read that waits longer than the read timeout for the next
+ * buffer fails with a {@link SocketTimeoutException}, as a read from an {@link java.net.HttpURLConnection} does, so
+ * that a stalled download does not block its caller forever. One list of buffers is requested from the client at a
+ * time.
+ * <p>
+ * The stream is also a {@link ReadableByteChannel}, which copies the client's buffers straight into the caller's
+ * (direct) buffer rather than through a byte[].
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+class ResponseInputStream extends InputStream implements HttpResponse.BodySubscriber<InputStream>, ReadableByteChannel {
+
+    private static final Object COMPLETE = new Object();
+
+    private final long readTimeout;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private volatile Flow.Subscription subscription;
+    private volatile boolean finished;
+    private volatile boolean closed;
+    private Iterator<ByteBuffer> buffers = Collections.emptyIterator();
+    private ByteBuffer current;
+
+    /**
+     * @param readTimeout the time in milliseconds a read waits for the next buffer, or 0 to wait forever
+     */
+    ResponseInputStream(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public CompletionStage<InputStream> getBody() {
+        return CompletableFuture.completedFuture(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (finished)
+            subscription.cancel();
+        else
+            subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        queue.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        queue.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        queue.add(COMPLETE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean fill() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (buffers.hasNext()) {
+                current = buffers.next();
+                continue;
+            }
+            if (finished)
+                return false;
+            Object item;
+            try {
+                item = readTimeout > 0 ? queue.poll(readTimeout, TimeUnit.MILLISECONDS) : queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the response");
+            }
+            if (item == null)
+                throw new SocketTimeoutException("Read timed out");
+            if (item == COMPLETE) {
+                finished = true;
+                return false;
+            }
+            if (item instanceof Throwable) {
+                finished = true;
+                Throwable cause = (Throwable) item;
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            buffers = ((List<ByteBuffer>) item).iterator();
+            subscription.request(1);
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill())
+            return -1;
+        return current.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fill())
+            return -1;
+        int length = Math.min(len, current.remaining());
+        current.get(b, off, length);
+        return length;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining())
+            return 0;
+        if (!fill())
+            return -1;
+        // take what the client has already delivered, without waiting for more
+        int read = 0;
+        do {
+            int length = Math.min(dst.remaining(), current.remaining());
+            ByteBuffer slice = current.slice();
+            slice.limit(length);
+            dst.put(slice);
+            current.position(current.position() + length);
+            read += length;
+        } while (dst.hasRemaining() && (current.hasRemaining() || buffers.hasNext()) && fill());
+        return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    /**
+     * Stop the response; the client closes the stream (HTTP/2) or the connection (HTTP/1.1) if it is not complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        boolean complete = finished;
+        finished = true;
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null && !complete)
+            subscription.cancel();
+        queue.clear();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The streaming parser shared by every reader of the xml stat, dir, list and du responses. It pulls the elements with StAX
+ * and copies the attribute values of each element in a single pass; nothing is decoded until the typed result is
+ * asked for it, and no document tree is built.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+final class ResponseParser {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private ResponseParser() {
+    }
+
+    static XMLStreamReader createReader(InputStream stream) throws XMLStreamException {
+        return XML_INPUT_FACTORY.createXMLStreamReader(stream);
+    }
+
+    /**
+     * @param stream the xml stat or dir response; it is read but not closed
+     * @param path   the requested path, for error messages
+     * @param action the requested action, for error messages
+     * @return every file element of the response
+     * @throws IOException if the response cannot be parsed
+     */
+    static List<DirEntry> parseEntries(InputStream stream, String path, String action) throws IOException {
+        List<DirEntry> entries = new ArrayList<>();
+        String directory = path;
+        try {
+            XMLStreamReader reader = createReader(stream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                        continue;
+                    if ("file".equals(reader.getLocalName()))
+                        entries.add(readEntry(reader, directory));
+                    else if ("stat".equals(reader.getLocalName()))
+                        directory = readDirectory(reader, directory);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(String.format("Unable to parse the %s response of %s", action, path), e);
+        }
+        return entries;
+    }
+
+    /**
+     * @param stream the xml du response; it is read but not closed
+     * @param path   the requested path, for error messages
+     * @return the du-info element of the response
+     * @throws IOException if the response cannot be parsed or has no du-info
+     */
+    static DuInfo parseDu(InputStream stream, String path) throws IOException {
+        String directory = path;
+        try {
+            XMLStreamReader reader = createReader(stream);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                        continue;
+                    if ("du".equals(reader.getLocalName()))
+                        directory = readDirectory(reader, directory);
+                    else if ("du-info".equals(reader.getLocalName()))
+                        return new DuInfo(directory, reader.getAttributeValue(null, "files"), reader.getAttributeValue(null, "bytes"));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(String.format("Unable to parse the du response of %s", path), e);
+        }
+        throw new IOException(String.format("The du response of %s has no du-info", path));
+    }
+
+    /**
+     * @param reader    positioned on the start of a stat or du element
+     * @param directory the directory to keep if the element has none
+     * @return the directory attribute of the element
+     */
+    static String readDirectory(XMLStreamReader reader, String directory) {
+        String value = reader.getAttributeValue(null, "directory");
+        return value != null ? value : directory;
+    }
+
+    /**
+     * @param reader    positioned on the start of a file element
+     * @param directory the directory attribute of the enclosing stat element, or null for a list response where the
+     *                  name is the full path of the entry
+     * @return the entry, with its attribute values as they were read
+     */
+    static DirEntry readEntry(XMLStreamReader reader, String directory) {
+        String name = null, type = null, size = null, mtime = null, md5 = null, sha256 = null, target = null, implicit = null;
+        for (int i = 0, count = reader.getAttributeCount(); i < count; i++) {
+            switch (reader.getAttributeLocalName(i)) {
+                case "name":
+                    name = reader.getAttributeValue(i);
+                    break;
+                case "type":
+                    type = reader.getAttributeValue(i);
+                    break;
+                case "size":
+                    size = reader.getAttributeValue(i);
+                    break;
+                case "mtime":
+                    mtime = reader.getAttributeValue(i);
+                    break;
+                case "md5":
+                    md5 = reader.getAttributeValue(i);
+                    break;
+                case "sha256":
+                    sha256 = reader.getAttributeValue(i);
+                    break;
+                case "target":
+                    target = reader.getAttributeValue(i);
+                    break;
+                case "implicit":
+                    implicit = reader.getAttributeValue(i);
+                    break;
+                default:
+                    // eg: bytes and files of a directory with stat implicit, not exposed
+                    break;
+            }
+        }
+        if (directory == null && name != null) {
+            // eg: 1234/site/index.html
+            String path = name.startsWith("/") ? name : "/" + name;
+            int slash = path.lastIndexOf('/');
+            directory = slash > 0 ? path.substring(0, slash) : "/";
+            name = path.substring(slash + 1);
+        }
+        return new DirEntry(directory, name, type, size, mtime, md5, sha256, target, implicit);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
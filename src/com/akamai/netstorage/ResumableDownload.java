@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a file to local disk so that a failed transfer does not start over from the first byte.
+ * <p>
+ * The content is written to a {@code .nspart} file next to the target and the number of bytes safely on disk is
+ * recorded every {@code checkpointInterval} bytes in a small {@code .nscheckpoint} sidecar file, together with the size
+ * and mtime that stat reported for the remote file. A transfer that fails midway is resumed with a Range request, both
+ * within the same call (up to {@code maxResumes} times) and by a later call after a process restart. If the remote
+ * file has changed since the checkpoint was written the partial content is discarded and the download starts over.
+ * Once complete, the part file is moved to the target and given the remote mtime.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ResumableDownload {
+
+    private static final Logger log = Logger.getLogger(ResumableDownload.class.getName());
+
+    static final String PART_SUFFIX = ".nspart";
+    static final String CHECKPOINT_SUFFIX = ".nscheckpoint";
+
+    // defaults
+    private long checkpointInterval = 8 * 1024 * 1024;
+    private int bufferSize = 64 * 1024;
+    private int maxResumes = 5;
+
+    private final NetStorage netStorage;
+
+    public ResumableDownload(NetStorage netStorage) {
+        this.netStorage = netStorage;
+    }
+
+    public ResumableDownload(NetStorage netStorage, long checkpointInterval, int maxResumes) {
+        this.netStorage = netStorage;
+        if (checkpointInterval > 0) this.setCheckpointInterval(checkpointInterval);
+        if (maxResumes >= 0) this.setMaxResumes(maxResumes);
+    }
+
+    /**
+     * Download the file, resuming from a previous checkpoint if one matches the remote file.
+     *
+     * @param path   the file to download
+     * @param target the local file to write
+     * @return the number of bytes transferred by this call
+     * @throws NetStorageException if a request failed
+     * @throws IOException         if the transfer failed more than {@code maxResumes} times or the local file failed
+     */
+    public long download(String path, File target) throws NetStorageException, IOException {
+        DirEntry remote = statFile(netStorage, path);
+        return download(path, target, remote.getSize(), remote.getMtime());
+    }
+
+    /**
+     * Download a file whose size and mtime are already known (eg: from a dir listing) without a stat request.
+     *
+     * @param path   the file to download
+     * @param target the local file to write
+     * @param size   the size of the remote file
+     * @param mtime  the mtime (in seconds) of the remote file, or 0 if unknown
+     * @return the number of bytes transferred by this call
+     * @throws NetStorageException if a request failed
+     * @throws IOException         if the transfer failed more than {@code maxResumes} times or the local file failed
+     */
+    public long download(String path, File target, long size, long mtime) throws NetStorageException, IOException {
+        File part = new File(target.getPath() + PART_SUFFIX);
+        File checkpoint = new File(target.getPath() + CHECKPOINT_SUFFIX);
+        long offset = readCheckpoint(checkpoint, part, path, size, mtime);
+        long start = offset;
+
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(offset);
+            writeCheckpoint(checkpoint, path, size, mtime, offset);
+
+            for (int resumes = 0; offset < size; resumes++) {
+                try {
+                    offset = transfer(path, file, offset, checkpoint, size, mtime);
+                } catch (IOException e) {
+                    if (resumes >= this.getMaxResumes())
+                        throw e;
+                    offset = file.length();
+                    log.fine(String.format("Resuming %s at %d after: %s", path, offset, e));
+                }
+            }
+
+            if (file.length() != size)
+                throw new IOException(String.format("Downloaded %d bytes of %s, expected %d", file.length(), path, size));
+            file.getChannel().force(true);
+        }
+
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (mtime > 0)
+            target.setLastModified(mtime * 1000);
+        checkpoint.delete();
+        return size - start;
+    }
+
+    /**
+     * Copy the remote content from the offset into the file, recording a checkpoint every checkpointInterval bytes.
+     *
+     * @return the new offset
+     */
+    private long transfer(String path, RandomAccessFile file, long offset, File checkpoint, long size, long mtime)
+            throws NetStorageException, IOException {
+        try (InputStream stream = offset > 0 ? netStorage.download(path, offset, -1) : netStorage.download(path)) {
+            if (offset > 0 && !isPartial(stream)) {
+                // the range was ignored and the whole file is being sent
+                offset = 0;
+                file.setLength(0);
+            }
+
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(this.getBufferSize());
+            long checkpointed = offset;
+            long length;
+            while (offset < size && (length = Utils.transfer(stream, channel, offset, Math.min(buffer.capacity(), size - offset), buffer)) > 0) {
+                offset += length;
+                if (offset - checkpointed >= this.getCheckpointInterval()) {
+                    channel.force(false);
+                    writeCheckpoint(checkpoint, path, size, mtime, offset);
+                    checkpointed = offset;
+                }
+            }
+            if (offset == size && stream.read() >= 0)
+                throw new IOException(String.format("%s is larger than its stat size %d", path, size));
+        }
+        if (offset < size)
+            throw new EOFException(String.format("%s ended at %d of %d bytes", path, offset, size));
+        return offset;
+    }
+
+    static boolean isPartial(InputStream stream) {
+        return stream instanceof SignerInputStream && ((SignerInputStream) stream).getHeaderField("Content-Range") != null;
+    }
+
+    /**
+     * @return the offset to resume from: the checkpointed offset if the checkpoint matches the remote file and the
+     * part file holds that many bytes, otherwise 0
+     */
+    private long readCheckpoint(File checkpoint, File part, String path, long size, long mtime) {
+        if (!checkpoint.exists() || !part.exists())
+            return 0;
+
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(checkpoint)) {
+            properties.load(input);
+            if (!path.equals(properties.getProperty("path"))
+                    || size != Long.parseLong(properties.getProperty("size"))
+                    || mtime != Long.parseLong(properties.getProperty("mtime"))) {
+                log.fine(String.format("%s has changed since the checkpoint, restarting the download", path));
+                return 0;
+            }
+            return Math.min(Long.parseLong(properties.getProperty("offset")), part.length());
+        } catch (IOException | RuntimeException e) {
+            log.fine(String.format("Ignoring unreadable checkpoint %s: %s", checkpoint, e));
+            return 0;
+        }
+    }
+
+    private static void writeCheckpoint(File checkpoint, String path, long size, long mtime, long offset) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("path", path);
+        properties.setProperty("size", Long.toString(size));
+        properties.setProperty("mtime", Long.toString(mtime));
+        properties.setProperty("offset", Long.toString(offset));
+
+        // write and rename so that a crash never leaves a truncated checkpoint behind
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try (OutputStream output = new FileOutputStream(tmp)) {
+            properties.store(output, null);
+        }
+        Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the stat of the remote file, which is known to have a size
+     * @throws IOException if the path is not a file or its stat response has no size
+     */
+    static DirEntry statFile(NetStorage netStorage, String path) throws NetStorageException, IOException {
+        DirEntry entry = netStorage.statEntry(path);
+        if (!entry.isFile())
+            throw new IOException(String.format("%s is not a file", path));
+        if (entry.getSize() < 0)
+            throw new IOException(String.format("The stat response of %s has no size", path));
+        return entry;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param checkpointInterval the number of bytes written between checkpoints
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getMaxResumes() {
+        return maxResumes;
+    }
+
+    /**
+     * @param maxResumes the number of times a failed transfer is resumed within a single call
+     */
+    public void setMaxResumes(int maxResumes) {
+        this.maxResumes = maxResumes;
+    }
+}
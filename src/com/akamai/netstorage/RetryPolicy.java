@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a failed request is retried and how long to wait before the next attempt.
+ * <p>
+ * Rate limiting (429), 500, 502 and 503 responses and connection failures (eg: connection reset) are retried with
+ * exponential backoff and full jitter. A Retry-After header on the response takes precedence over the computed
+ * backoff. Retries are limited per attempt count and by a retry budget: every retry spends a token and every
+ * successful request earns back a fraction of one, so a sustained outage quickly stops generating retries instead
+ * of multiplying the load on the server.
+ * <p>
+ * An instance holds the budget of one client and should not be shared between {@link NetStorage} instances unless
+ * they are meant to share the budget.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class RetryPolicy {
+
+    // budget tokens are held in thousandths
+    private static final long TOKEN = 1000;
+
+    // defaults
+    private int maxRetries = 3;
+    private long baseDelay = 100;
+    private long maxDelay = 5000;
+    private long maxRetryAfter = 30000;
+    private int retryBudget = 10;
+    private double retryBudgetRatio = 0.1;
+    private Set<Integer> retryableResponseCodes = new HashSet<>(Arrays.asList(429, 500, 502, 503));
+
+    private final AtomicLong budget = new AtomicLong(retryBudget * TOKEN);
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    /**
+     * @return a policy that never retries
+     */
+    public static RetryPolicy none() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetries(0);
+        return policy;
+    }
+
+    /**
+     * Compute the delay before retrying a failed attempt, spending a token of the retry budget if the request is to
+     * be retried.
+     *
+     * @param exception  the failure of the attempt
+     * @param attempt    the number of the attempt that failed, starting at 1
+     * @param repeatable false if the request content cannot be sent again
+     * @return the delay in milliseconds, or -1 if the request should not be retried
+     */
+    public long getRetryDelay(NetStorageException exception, int attempt, boolean repeatable) {
+        if (attempt > maxRetries || !repeatable || !isRetryable(exception))
+            return -1;
+
+        long delay = getBackoff(attempt);
+        long retryAfter = getRetryAfter(exception);
+        if (retryAfter > maxRetryAfter)
+            return -1;
+        if (retryAfter >= 0)
+            delay = retryAfter;
+
+        if (!spendToken()) {
+            budgetExhausted.incrementAndGet();
+            return -1;
+        }
+        retries.incrementAndGet();
+        return delay;
+    }
+
+    /**
+     * Record a successful request, earning back part of a retry token.
+     */
+    public void recordSuccess() {
+        long deposit = (long) (retryBudgetRatio * TOKEN);
+        long capacity = retryBudget * TOKEN;
+        long current, next;
+        do {
+            current = budget.get();
+            next = Math.min(capacity, current + deposit);
+        } while (current != next && !budget.compareAndSet(current, next));
+    }
+
+    private boolean spendToken() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < TOKEN)
+                return false;
+        } while (!budget.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    /**
+     * @param exception the failure of the attempt
+     * @return true if the failure is transient: a retryable response code or a connection failure
+     */
+    protected boolean isRetryable(NetStorageException exception) {
+        if (exception.getResponseCode() > 0)
+            return retryableResponseCodes.contains(exception.getResponseCode());
+
+        for (Throwable cause = exception; cause != null; cause = cause.getCause())
+            if (cause instanceof SocketException || cause instanceof EOFException || cause instanceof HttpConnectTimeoutException)
+                return true;
+        return false;
+    }
+
+    /**
+     * Exponential backoff with full jitter: a random delay between 0 and baseDelay * 2^(attempt - 1), capped at
+     * maxDelay.
+     *
+     * @param attempt the number of the attempt that failed, starting at 1
+     * @return the delay in milliseconds
+     */
+    protected long getBackoff(int attempt) {
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelay)
+            ceiling = maxDelay;
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @param exception the failure of the attempt
+     * @return the Retry-After delay in milliseconds, or -1 if the response did not send a valid header
+     */
+    protected long getRetryAfter(NetStorageException exception) {
+        String value = exception.getResponseHeader("Retry-After");
+        if (value == null)
+            return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                long date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return Math.max(0, date - System.currentTimeMillis());
+            } catch (DateTimeParseException ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return the number of retries granted by this policy
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return the number of retries refused because the retry budget was spent
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.get();
+    }
+
+    /**
+     * @return the retry tokens currently available
+     */
+    public double getAvailableBudget() {
+        return budget.get() / (double) TOKEN;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * @param maxRetryAfter the longest Retry-After (in milliseconds) that is waited for; longer requests fail instead
+     */
+    public void setMaxRetryAfter(long maxRetryAfter) {
+        this.maxRetryAfter = maxRetryAfter;
+    }
+
+    public int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * @param retryBudget the maximum number of retry tokens that can be saved up. The budget is refilled.
+     */
+    public void setRetryBudget(int retryBudget) {
+        this.retryBudget = retryBudget;
+        this.budget.set(retryBudget * TOKEN);
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * @param retryBudgetRatio the fraction of a retry token earned by each successful request
+     */
+    public void setRetryBudgetRatio(double retryBudgetRatio) {
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    public Set<Integer> getRetryableResponseCodes() {
+        return retryableResponseCodes;
+    }
+
+    public void setRetryableResponseCodes(Set<Integer> retryableResponseCodes) {
+        this.retryableResponseCodes = retryableResponseCodes;
+    }
+}
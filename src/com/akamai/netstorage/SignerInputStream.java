@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The response stream along with its response headers. This is deliberately not a BufferedInputStream: subclasses of
+ * BufferedInputStream lock on the object monitor while reading from the socket, which pins virtual threads to their
+ * carrier. Both transports already buffer the response.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+class SignerInputStream extends FilterInputStream {
+    HttpURLConnection request;
+    Map<String, List<String>> headers;
+    public SignerInputStream(InputStream stream, HttpURLConnection request) {
+        super(stream);
+        this.request = request;
+    }
+
+    public SignerInputStream(InputStream stream, Map<String, List<String>> headers) {
+        super(stream);
+        this.headers = headers;
+    }
+
+    /**
+     * @return the underlying connection, or null if the response was not received over an {@link HttpURLConnection}
+     */
+    public HttpURLConnection getHttpRequest() {
+        return request;
+    }
+
+    /**
+     * @param stream a response stream
+     * @return the response body as a channel if the transport delivers it in buffers of its own (the
+     * {@link HttpClientTransport}), otherwise null
+     */
+    static ReadableByteChannel getChannel(InputStream stream) {
+        // the wrappers of a response only act on close, so its body may be read around them
+        while (stream instanceof SignerInputStream)
+            stream = ((SignerInputStream) stream).in;
+        return stream instanceof ReadableByteChannel ? (ReadableByteChannel) stream : null;
+    }
+
+    /**
+     * @param name the response header name (case insensitive)
+     * @return the last value of the named response header, or null if it was not sent
+     */
+    public String getHeaderField(String name) {
+        if (request != null)
+            return request.getHeaderField(name);
+
+        String value = null;
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet())
+                if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null && entry.getValue().size() > 0)
+                    value = entry.getValue().get(entry.getValue().size() - 1);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.KeyedHashAlgorithm;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes the auth-data and auth-sign values of {@link NetStorageCMSv35Signer} without setting up the signature
+ * again for every request.
+ * <p>
+ * The keyed {@link Mac} of a credential is initialized once and kept, with the buffers the signed data and the
+ * signature are written into, in a small pool per credential and algorithm: a request borrows one for the duration of
+ * the signature and returns it. A pool rather than a thread local, so that the Macs are reused by the short-lived
+ * virtual threads of {@link VirtualThreadExecutor} as well. The nonces come from one shared {@link SecureRandom}.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+final class SigningEngine {
+
+    private static final SecureRandom NONCES = new SecureRandom();
+    private static final byte[] ACTION_PREFIX = "\nx-akamai-acs-action:".getBytes(StandardCharsets.US_ASCII);
+
+    // idle Macs kept per credential, and credentials kept before the pools are dropped
+    private static final int MAX_IDLE = 16;
+    private static final int MAX_KEYS = 256;
+    private static final Map<Key, BlockingQueue<Session>> SESSIONS = new ConcurrentHashMap<>();
+
+    private SigningEngine() {
+    }
+
+    private static final class Key {
+        private final KeyedHashAlgorithm algorithm;
+        private final String secret;
+
+        Key(KeyedHashAlgorithm algorithm, String secret) {
+            this.algorithm = algorithm;
+            this.secret = secret;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return algorithm == other.algorithm && secret.equals(other.secret);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithm, secret);
+        }
+    }
+
+    /**
+     * A keyed Mac and the buffers of one signature at a time.
+     */
+    private static final class Session {
+        private final Mac mac;
+        private final byte[] hash;
+        private final byte[] encoded;
+        private byte[] data = new byte[512];
+
+        Session(Key key) {
+            try {
+                mac = Mac.getInstance(key.algorithm.getAlgorithm());
+                mac.init(new SecretKeySpec(key.secret.getBytes(StandardCharsets.UTF_8), key.algorithm.getAlgorithm()));
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IllegalArgumentException("This should never happen!", e);
+            }
+            hash = new byte[mac.getMacLength()];
+            encoded = new byte[(hash.length + 2) / 3 * 4];
+        }
+
+        /**
+         * Write the characters of an ASCII string at the position, growing the buffer as needed.
+         *
+         * @return the position after the string, or -1 if the string is not ASCII
+         */
+        int append(String value, int position) {
+            int length = value.length();
+            if (position + length > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, position + length));
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80)
+                    return -1;
+                data[position + i] = (byte) c;
+            }
+            return position + length;
+        }
+
+        int append(byte[] value, int position) {
+            if (position + value.length > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, position + value.length));
+            System.arraycopy(value, 0, data, position, value.length);
+            return position + value.length;
+        }
+
+        /**
+         * @return the base64 signature of the first {@code length} bytes of the buffer
+         */
+        String sign(int length) {
+            mac.update(data, 0, length);
+            return encode();
+        }
+
+        String sign(byte[] value) {
+            mac.update(value);
+            return encode();
+        }
+
+        private String encode() {
+            try {
+                mac.doFinal(hash, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException("This should never happen!", e);
+            }
+            int length = Base64.getEncoder().encode(hash, encoded);
+            return new String(encoded, 0, length, StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static Session borrow(Key key) {
+        BlockingQueue<Session> idle = SESSIONS.get(key);
+        Session session = idle != null ? idle.poll() : null;
+        return session != null ? session : new Session(key);
+    }
+
+    private static void release(Key key, Session session) {
+        BlockingQueue<Session> idle = SESSIONS.get(key);
+        if (idle == null) {
+            // a service signing with many credentials should not keep a Mac for each of them forever
+            if (SESSIONS.size() >= MAX_KEYS)
+                SESSIONS.clear();
+            idle = SESSIONS.computeIfAbsent(key, k -> new ArrayBlockingQueue<>(MAX_IDLE));
+        }
+        idle.offer(session);
+    }
+
+    /**
+     * @return a random nonce for the auth-data header
+     */
+    static int nonce() {
+        return NONCES.nextInt(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param version  the sign version, see {@link NetStorageCMSv35Signer.SignType#getValue()}
+     * @param username the upload account
+     * @return the auth-data value of a request sent now: {@code version, 0.0.0.0, 0.0.0.0, time, nonce, username}
+     */
+    static String authData(int version, String username) {
+        return new StringBuilder(48 + username.length())
+                .append(version).append(", 0.0.0.0, 0.0.0.0, ")
+                .append(System.currentTimeMillis() / 1000).append(", ")
+                .append(nonce()).append(", ")
+                .append(username).toString();
+    }
+
+    /**
+     * @param authData  the auth-data value of the request
+     * @param path      the path of the request url
+     * @param action    the action value of the request
+     * @param secret    the key of the credential
+     * @param algorithm the keyed hash of the sign version
+     * @return the base64 auth-sign value: the keyed hash of {@code authData path \nx-akamai-acs-action:action\n}
+     */
+    static String authSign(String authData, String path, String action, String secret, KeyedHashAlgorithm algorithm) {
+        Key key = new Key(algorithm, secret);
+        // a session is only returned to the pool after a complete signature, so its Mac never holds partial data
+        Session session = borrow(key);
+        int length = session.append(authData, 0);
+        if (length >= 0)
+            length = session.append(path, length);
+        if (length >= 0)
+            length = session.append(ACTION_PREFIX, length);
+        if (length >= 0)
+            length = session.append(action, length);
+        if (length >= 0)
+            length = session.append("\n", length);
+        // the path may hold characters that are not ASCII: encode the whole data as UTF-8 instead
+        String signature = length >= 0
+                ? session.sign(length)
+                : session.sign((authData + path + "\nx-akamai-acs-action:" + action + "\n").getBytes(StandardCharsets.UTF_8));
+        release(key, session);
+        return signature;
+    }
+
+    /**
+     * @return the keyed hash of the data, see {@link Utils#computeKeyedHash(byte[], String, KeyedHashAlgorithm)}
+     */
+    static byte[] keyedHash(byte[] data, String secret, KeyedHashAlgorithm algorithm) {
+        Key key = new Key(algorithm, secret);
+        Session session = borrow(key);
+        byte[] hash = session.mac.doFinal(data);
+        release(key, session);
+        return hash;
+    }
+}
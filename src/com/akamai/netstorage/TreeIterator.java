@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over every file and symlink under a remote directory, at any depth, in constant memory.
+ * <p>
+ * On ObjectStore the tree is read as one flat listing with the list action, {@code pageSize} objects at a time; each
+ * page is requested at the {@code resume} marker of the previous one and bounded by {@code end} so that it stays
+ * under the directory. Elsewhere the tree is walked depth first with one {@link DirIterator} per level. Either way the
+ * pages are parsed incrementally and directories themselves are not returned.
+ * <p>
+ * {@link #getCursor()} is the path of the last entry returned; an iterator created with that cursor continues right
+ * after it. Resuming a dir walk relies on Netstorage listing each directory in name order.
+ * <p>
+ * Failures are thrown as {@link UncheckedIOException}, as by {@link DirIterator}. Close the iterator when it is not
+ * consumed to the end.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class TreeIterator implements Iterator<DirEntry>, Closeable {
+
+    private final NetStorage netStorage;
+    private final String path;
+    private final int pageSize;
+    private final boolean flat;
+
+    private String cursor;
+    private DirEntry next;
+    private boolean finished;
+
+    // list pages
+    private String target;
+    private InputStream stream;
+    private XMLStreamReader reader;
+    private String resume;
+
+    // dir walk
+    private final Deque<Level> levels = new ArrayDeque<>();
+    private boolean started;
+    private boolean passedCursor;
+
+    private static class Level {
+        final String path;
+        final DirIterator iterator;
+
+        Level(String path, DirIterator iterator) {
+            this.path = path;
+            this.iterator = iterator;
+        }
+    }
+
+    /**
+     * @param netStorage the client
+     * @param path       the remote directory, eg: /1234/site
+     * @param pageSize   the number of entries requested at a time
+     * @param cursor     the path of the entry to continue after, as returned by {@link #getCursor()}; null to start
+     *                   at the beginning
+     * @param flat       true to use the list action (ObjectStore only), false to walk the tree with dir
+     */
+    public TreeIterator(NetStorage netStorage, String path, int pageSize, String cursor, boolean flat) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("The page size must be positive");
+        this.netStorage = netStorage;
+        this.path = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        if (cursor != null && !cursor.startsWith(this.path + "/"))
+            throw new IllegalArgumentException(String.format("The cursor %s is not under %s", cursor, this.path));
+        this.pageSize = pageSize;
+        this.cursor = cursor;
+        this.flat = flat;
+        this.target = cursor != null ? cursor : this.path;
+        this.passedCursor = cursor == null;
+    }
+
+    /**
+     * @return true if the tree is read with the list action
+     */
+    public boolean isFlat() {
+        return flat;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !finished) {
+                next = flat ? readListEntry() : readDirEntry();
+                if (next == null)
+                    finished = true;
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        } catch (NetStorageException e) {
+            close();
+            throw new UncheckedIOException(new IOException(String.format("Unable to list %s", path), e));
+        } catch (UncheckedIOException e) {
+            close();
+            throw e;
+        }
+        return next != null;
+    }
+
+    @Override
+    public DirEntry next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        DirEntry entry = next;
+        next = null;
+        cursor = entry.getPath();
+        return entry;
+    }
+
+    /**
+     * @return the path of the last entry returned by {@link #next()}, or the cursor the iterator was created with
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the remaining entries as a sequential stream that closes this iterator when it is closed
+     */
+    public Stream<DirEntry> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        next = null;
+        closePage();
+        while (!levels.isEmpty())
+            levels.pop().iterator.close();
+    }
+
+    /**
+     * @return the next file or symlink of the flat listing, or null at the end
+     */
+    private DirEntry readListEntry() throws NetStorageException, IOException {
+        while (true) {
+            if (reader == null) {
+                if (target == null)
+                    return null;
+                openPage();
+            }
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                        continue;
+                    if ("resume".equals(reader.getLocalName())) {
+                        resume = reader.getAttributeValue(null, "start");
+                    } else if ("file".equals(reader.getLocalName())) {
+                        DirEntry entry = ResponseParser.readEntry(reader, null);
+                        // the listing starts at the cursor itself and may reach siblings such as /1234/site.old
+                        if (entry.isDirectory() || entry.getPath().equals(cursor) || !entry.getPath().startsWith(path + "/"))
+                            continue;
+                        return entry;
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(String.format("Unable to parse the list response of %s", target), e);
+            }
+
+            closePage();
+            String previous = target;
+            target = resume == null ? null : resume.startsWith("/") ? resume : "/" + resume;
+            // a marker that does not move would repeat the same page forever
+            if (previous.equals(target))
+                target = null;
+        }
+    }
+
+    private void openPage() throws NetStorageException, IOException {
+        // '0' sorts right after '/', so the listing ends with the last path under the directory
+        stream = netStorage.list(target, pageSize, path + "0");
+        try {
+            reader = ResponseParser.createReader(stream);
+        } catch (XMLStreamException e) {
+            closePage();
+            throw new IOException(String.format("Unable to parse the list response of %s", target), e);
+        }
+        resume = null;
+    }
+
+    private void closePage() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // the stream is closed below
+            }
+            reader = null;
+        }
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+            stream = null;
+        }
+    }
+
+    /**
+     * @return the next file or symlink of the depth first walk, or null at the end
+     */
+    private DirEntry readDirEntry() {
+        if (!started) {
+            levels.push(new Level(path, new DirIterator(netStorage, path, pageSize, null, null)));
+            started = true;
+        }
+        while (!levels.isEmpty()) {
+            Level level = levels.peek();
+            if (!level.iterator.hasNext()) {
+                levels.pop().iterator.close();
+                continue;
+            }
+            DirEntry entry = level.iterator.next();
+
+            if (!passedCursor) {
+                // until the cursor is passed only its ancestors are open: compare with its name at this level
+                String relative = cursor.substring(level.path.length() + 1);
+                int slash = relative.indexOf('/');
+                int order = entry.getName().compareTo(slash < 0 ? relative : relative.substring(0, slash));
+                if (order < 0)
+                    continue;
+                if (order == 0 && !entry.isDirectory()) {
+                    passedCursor = true;
+                    continue;
+                }
+                if (order > 0)
+                    passedCursor = true;
+            }
+
+            if (entry.isDirectory())
+                levels.push(new Level(entry.getPath(), new DirIterator(netStorage, entry.getPath(), pageSize, null, null)));
+            else
+                return entry;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Walks a remote directory tree, listing the subdirectories in parallel on a fork/join pool.
+ * <p>
+ * Every directory is a task that streams its listing through a {@link DirIterator} and forks a task for each
+ * subdirectory as soon as it is read, so idle threads steal whole subtrees from busy ones. At most
+ * {@code maxConcurrentListings} dir requests are in flight at a time, whatever the size of the pool. Each entry is
+ * handed to the {@link Visitor} as it is read, from whichever thread listed its directory.
+ * <p>
+ * A directory matching the prune filter is neither listed nor visited, which skips its whole subtree. Symlinks are
+ * visited but never followed, so a link to a parent directory cannot make the walk loop. A subdirectory that cannot be
+ * listed is reported in the {@link Summary} and the rest of the tree is still walked.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class TreeWalker {
+
+    private static final Logger log = Logger.getLogger(TreeWalker.class.getName());
+
+    /**
+     * Receives the entries of the tree. It is called concurrently from the threads of the pool.
+     */
+    public interface Visitor {
+        void visit(DirEntry entry);
+    }
+
+    // defaults
+    private int maxConcurrentListings = 8;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int pageSize = 1000;
+    private Predicate<DirEntry> pruneFilter;
+    private Predicate<DirEntry> filter;
+    private ForkJoinPool pool;
+
+    private final NetStorage netStorage;
+
+    public TreeWalker(NetStorage netStorage) {
+        this.netStorage = netStorage;
+    }
+
+    public TreeWalker(NetStorage netStorage, int maxConcurrentListings) {
+        this.netStorage = netStorage;
+        if (maxConcurrentListings > 0) this.setMaxConcurrentListings(maxConcurrentListings);
+    }
+
+    /**
+     * The outcome of a walk.
+     */
+    public static class Summary {
+        private final AtomicLong directories = new AtomicLong();
+        private final AtomicLong visited = new AtomicLong();
+        private final AtomicLong pruned = new AtomicLong();
+        private final AtomicLong symlinks = new AtomicLong();
+        private final SortedMap<String, Exception> failures = new ConcurrentSkipListMap<>();
+
+        /**
+         * @return the number of directories listed
+         */
+        public long getDirectories() {
+            return directories.get();
+        }
+
+        /**
+         * @return the number of entries handed to the visitor
+         */
+        public long getVisited() {
+            return visited.get();
+        }
+
+        /**
+         * @return the number of directories skipped by the prune filter
+         */
+        public long getPruned() {
+            return pruned.get();
+        }
+
+        /**
+         * @return the number of symlinks that were not followed
+         */
+        public long getSymlinks() {
+            return symlinks.get();
+        }
+
+        /**
+         * @return the path and error of every directory that could not be listed, in path order
+         */
+        public SortedMap<String, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("directories: %d, visited: %d, pruned: %d, symlinks: %d, failed: %d",
+                    getDirectories(), getVisited(), getPruned(), getSymlinks(), failures.size());
+        }
+    }
+
+    /**
+     * @param glob a glob over the full remote path, eg: {@code /1234/**.jpg} or {@code /1234/{tmp,cache}}
+     * @return a filter matching the entries whose path matches the glob
+     */
+    public static Predicate<DirEntry> glob(String glob) {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        return entry -> matcher.matches(Paths.get(entry.getPath()));
+    }
+
+    /**
+     * @param root    the remote directory to walk, eg: /1234/site; it is not visited itself
+     * @param visitor receives every entry of the tree that passes the filter
+     * @return the summary of the walk; check {@link Summary#getFailures()}
+     * @throws NetStorageException if the root directory could not be listed
+     * @throws IOException         if the listing of the root directory could not be parsed
+     */
+    public Summary walk(String root, Visitor visitor) throws NetStorageException, IOException {
+        String path = root.length() > 1 && root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+        Summary summary = new Summary();
+        Semaphore listings = new Semaphore(this.getMaxConcurrentListings());
+
+        ForkJoinPool pool = this.getPool() != null ? this.getPool() : new ForkJoinPool(this.getMaxConcurrentListings());
+        try {
+            pool.invoke(new ListTask(path, 0, visitor, summary, listings));
+        } finally {
+            if (pool != this.getPool())
+                pool.shutdownNow();
+        }
+
+        Exception failure = summary.failures.get(path);
+        if (failure instanceof NetStorageException)
+            throw (NetStorageException) failure;
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        log.fine(String.format("Walked %s: %s", root, summary));
+        return summary;
+    }
+
+    private class ListTask extends RecursiveAction {
+        private static final long serialVersionUID = 6389504127830591482L;
+
+        private final String path;
+        private final int depth;
+        private final Visitor visitor;
+        private final Summary summary;
+        private final Semaphore listings;
+
+        ListTask(String path, int depth, Visitor visitor, Summary summary, Semaphore listings) {
+            this.path = path;
+            this.depth = depth;
+            this.visitor = visitor;
+            this.summary = summary;
+            this.listings = listings;
+        }
+
+        @Override
+        protected void compute() {
+            List<ListTask> subtasks = new ArrayList<>();
+            try {
+                acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                summary.failures.put(path, new NetStorageException("Interrupted while walking", e));
+                return;
+            }
+            // the permit is released before joining, so that the subtasks can list
+            try (DirIterator iterator = new DirIterator(netStorage, path, getPageSize(), null, null)) {
+                while (iterator.hasNext())
+                    accept(iterator.next(), subtasks);
+                summary.directories.incrementAndGet();
+            } catch (UncheckedIOException e) {
+                Throwable cause = e.getCause().getCause() instanceof NetStorageException ? e.getCause().getCause() : e.getCause();
+                log.fine(String.format("Unable to list %s: %s", path, cause));
+                summary.failures.put(path, (Exception) cause);
+            } finally {
+                listings.release();
+            }
+
+            for (ListTask subtask : subtasks)
+                subtask.join();
+        }
+
+        /**
+         * Visit the entry and, if it is a directory to descend into, fork the task listing it.
+         */
+        private void accept(DirEntry entry, List<ListTask> subtasks) {
+            Predicate<DirEntry> prune = getPruneFilter();
+            if (entry.isDirectory() && prune != null && prune.test(entry)) {
+                summary.pruned.incrementAndGet();
+                return;
+            }
+            if (entry.isSymlink())
+                summary.symlinks.incrementAndGet();
+
+            Predicate<DirEntry> filter = getFilter();
+            if (filter == null || filter.test(entry)) {
+                visitor.visit(entry);
+                summary.visited.incrementAndGet();
+            }
+
+            if (entry.isDirectory() && depth + 1 < getMaxDepth()) {
+                ListTask subtask = new ListTask(entry.getPath(), depth + 1, visitor, summary, listings);
+                subtask.fork();
+                subtasks.add(subtask);
+            }
+        }
+
+        /**
+         * Wait for a listing permit without starving the pool: the pool may add a thread while this one blocks.
+         */
+        private void acquire() throws InterruptedException {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean acquired;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    if (!acquired) {
+                        listings.acquire();
+                        acquired = true;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return acquired || (acquired = listings.tryAcquire());
+                }
+            });
+        }
+    }
+
+    public int getMaxConcurrentListings() {
+        return maxConcurrentListings;
+    }
+
+    /**
+     * @param maxConcurrentListings the maximum number of dir requests in flight; also the size of the pool created
+     *                              for each walk when no pool is set
+     */
+    public void setMaxConcurrentListings(int maxConcurrentListings) {
+        this.maxConcurrentListings = maxConcurrentListings;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth the number of directory levels to list; 1 only lists the root
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @param pageSize the number of entries requested at a time for each directory
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public Predicate<DirEntry> getPruneFilter() {
+        return pruneFilter;
+    }
+
+    /**
+     * @param pruneFilter the directories that are neither listed nor visited, eg: {@code glob("/1234/**&#47;.git")}
+     */
+    public void setPruneFilter(Predicate<DirEntry> pruneFilter) {
+        this.pruneFilter = pruneFilter;
+    }
+
+    public Predicate<DirEntry> getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter the entries handed to the visitor; the directories that do not match are still walked
+     */
+    public void setFilter(Predicate<DirEntry> filter) {
+        this.filter = filter;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @param pool the pool the walk runs on; by default a pool of {@code maxConcurrentListings} threads is created
+     *             for each walk
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
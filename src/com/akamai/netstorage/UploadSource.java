@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * The content of an upload. A source that can be re-opened (eg: a local file) is repeatable and may be sent again
+ * when a request is retried; a caller supplied InputStream can only be sent once.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public interface UploadSource {
+
+    /**
+     * Open the content for a (new) attempt.
+     *
+     * @return a stream positioned at the start of the content
+     * @throws IOException if the content cannot be opened, or a single use source is opened twice
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * Open the content for a (new) attempt, sent by a transport that may or may not send memory-mapped files.
+     *
+     * @param mapped true if a local file may be opened as a {@link MappedFileInputStream}, see
+     *               {@link NetStorageTransport#isMappedUploadSupported()}
+     * @return a stream positioned at the start of the content
+     * @throws IOException if the content cannot be opened, or a single use source is opened twice
+     */
+    default InputStream open(boolean mapped) throws IOException {
+        return open();
+    }
+
+    /**
+     * @return true if {@link #open()} can be called again after the content has been read
+     */
+    boolean isRepeatable();
+
+    /**
+     * @param stream an open stream; it can only be sent once
+     * @return a single use source
+     */
+    static UploadSource of(InputStream stream) {
+        return new UploadSource() {
+            private boolean opened;
+
+            @Override
+            public synchronized InputStream open() throws IOException {
+                if (opened)
+                    throw new IOException("Upload stream has already been consumed");
+                opened = true;
+                return stream;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param file a local file
+     * @return a repeatable source that opens the file for every attempt; see {@link #of(Path)}
+     */
+    static UploadSource of(File file) {
+        return of(file.toPath());
+    }
+
+    /**
+     * @param path a local file
+     * @return a repeatable source that opens the file for every attempt, as a {@link MappedFileInputStream} for the
+     * transports that send the mapped regions and as a FileInputStream for the others
+     */
+    static UploadSource of(Path path) {
+        return new UploadSource() {
+            @Override
+            public InputStream open() throws IOException {
+                return open(false);
+            }
+
+            @Override
+            public InputStream open(boolean mapped) throws IOException {
+                return mapped ? new MappedFileInputStream(path) : new FileInputStream(path.toFile());
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+        };
+    }
+}
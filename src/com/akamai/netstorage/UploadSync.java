@@ -0,0 +1,314 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Makes a Netstorage directory match a local directory tree, sending only what has changed since the last run.
+ * <p>
+ * Each local directory is compared with the dir listing of the matching remote directory:
+ * <ul>
+ * <li>a file that does not exist remotely, or whose size differs, is uploaded (with its local mtime);</li>
+ * <li>a file with the same size and mtime (in seconds) is skipped;</li>
+ * <li>a file with the same size but another mtime is compared by checksum (the sha256 or md5 reported by the
+ * listing); unchanged content only has its remote mtime updated, otherwise it is uploaded. Without a remote checksum
+ * the file is uploaded;</li>
+ * <li>with {@code delete} enabled, remote files and directories that no longer exist locally are removed.</li>
+ * </ul>
+ * Uploads and deletes run on up to {@code parallelism} threads, and the tree is walked only as fast as they complete.
+ * A failed file does not stop the sync; it is reported in the {@link Summary}. Local checksums come from the
+ * {@link ChecksumCache} of the client when it has one.
+ * <p>
+ * A symbolic link to a file is uploaded as the file it points to. A symbolic link to a directory is not followed, so
+ * that a link to a parent cannot recurse forever; it is reported in the failures instead.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class UploadSync {
+
+    private static final Logger log = Logger.getLogger(UploadSync.class.getName());
+
+    // defaults
+    private int parallelism = 4;
+    private boolean delete = false;
+
+    private final NetStorage netStorage;
+
+    public UploadSync(NetStorage netStorage) {
+        this.netStorage = netStorage;
+    }
+
+    public UploadSync(NetStorage netStorage, int parallelism, boolean delete) {
+        this.netStorage = netStorage;
+        if (parallelism > 0) this.setParallelism(parallelism);
+        this.setDelete(delete);
+    }
+
+    /**
+     * The outcome of a sync.
+     */
+    public static class Summary {
+        private final AtomicLong uploaded = new AtomicLong();
+        private final AtomicLong uploadedBytes = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong touched = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+        private final SortedMap<String, Exception> failures = new ConcurrentSkipListMap<>();
+
+        /**
+         * @return the number of files uploaded
+         */
+        public long getUploaded() {
+            return uploaded.get();
+        }
+
+        /**
+         * @return the number of bytes uploaded
+         */
+        public long getUploadedBytes() {
+            return uploadedBytes.get();
+        }
+
+        /**
+         * @return the number of files that were already up to date
+         */
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * @return the number of unchanged files that only had their remote mtime updated
+         */
+        public long getTouched() {
+            return touched.get();
+        }
+
+        /**
+         * @return the number of remote files, symlinks and directories deleted
+         */
+        public long getDeleted() {
+            return deleted.get();
+        }
+
+        /**
+         * @return the remote path and error of every operation that failed, in path order
+         */
+        public SortedMap<String, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("uploaded: %d (%d bytes), touched: %d, skipped: %d, deleted: %d, failed: %d",
+                    getUploaded(), getUploadedBytes(), getTouched(), getSkipped(), getDeleted(), failures.size());
+        }
+    }
+
+    /**
+     * @param source the local directory
+     * @param target the remote directory, eg: /1234/site
+     * @return the summary of the sync; check {@link Summary#getFailures()}
+     * @throws NetStorageException if a remote directory could not be listed
+     * @throws IOException         if a local directory could not be read or a listing could not be parsed
+     */
+    public Summary sync(File source, String target) throws NetStorageException, IOException {
+        if (!source.isDirectory())
+            throw new IOException(String.format("%s is not a directory", source));
+
+        Summary summary = new Summary();
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(this.getParallelism());
+        try {
+            syncDirectory(source, stripSlash(target), summary, executor);
+            // the tasks record their own failures
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetStorageException("Interrupted while syncing", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(String.format("Synced %s to %s: %s", source, target, summary));
+        return summary;
+    }
+
+    private void syncDirectory(File directory, String remoteDirectory, Summary summary, VirtualThreadExecutor executor)
+            throws NetStorageException, IOException, InterruptedException {
+        Map<String, DirEntry> remote = list(remoteDirectory);
+
+        File[] children = directory.listFiles();
+        if (children == null)
+            throw new IOException(String.format("Unable to list %s", directory));
+        for (File child : children) {
+            String remotePath = remoteDirectory + "/" + child.getName();
+            DirEntry entry = remote.remove(child.getName());
+            if (child.isDirectory()) {
+                if (Files.isSymbolicLink(child.toPath()))
+                    summary.failures.put(remotePath, new IOException(String.format("%s is a symbolic link to a directory; it is not followed", child)));
+                else if (entry != null && !entry.isDirectory())
+                    summary.failures.put(remotePath, new IOException(String.format("%s is a %s on Netstorage", remotePath, entry.getType())));
+                else
+                    syncDirectory(child, remotePath, summary, executor);
+            } else if (child.isFile()) {
+                submit(executor, () -> syncFile(child, remotePath, entry, summary));
+            }
+        }
+
+        if (this.isDelete()) {
+            for (DirEntry entry : remote.values()) {
+                String remotePath = entry.getPath();
+                if (entry.isDirectory())
+                    deleteDirectory(remotePath, summary);
+                else
+                    submit(executor, () -> delete(remotePath, summary));
+            }
+        }
+    }
+
+    /**
+     * Run the task once a thread is free for it, so that a large tree is not queued up front.
+     */
+    private static void submit(VirtualThreadExecutor executor, Runnable task) throws InterruptedException {
+        executor.awaitCapacity();
+        executor.execute(task);
+    }
+
+    private void syncFile(File file, String remotePath, DirEntry entry, Summary summary) {
+        try {
+            if (entry != null && isUnchanged(file, remotePath, entry, summary))
+                return;
+            long size = file.length();
+            netStorage.upload(remotePath, file);
+            summary.uploaded.incrementAndGet();
+            summary.uploadedBytes.addAndGet(size);
+        } catch (NetStorageException | IOException | RuntimeException e) {
+            log.fine(String.format("Failed to sync %s to %s: %s", file, remotePath, e));
+            summary.failures.put(remotePath, e);
+        }
+    }
+
+    /**
+     * @return true if the remote file has the content of the local file; its mtime is updated when only that differs
+     */
+    private boolean isUnchanged(File file, String remotePath, DirEntry entry, Summary summary)
+            throws NetStorageException, IOException {
+        if (!entry.isFile() || entry.getSize() != file.length())
+            return false;
+
+        long mtime = file.lastModified() / 1000;
+        if (entry.getMtime() == mtime) {
+            summary.skipped.incrementAndGet();
+            return true;
+        }
+
+        HashAlgorithm algorithm = entry.getSha256() != null ? HashAlgorithm.SHA256 : entry.getMd5() != null ? HashAlgorithm.MD5 : null;
+        if (algorithm == null)
+            return false;
+        String remoteHash = algorithm == HashAlgorithm.SHA256 ? entry.getSha256() : entry.getMd5();
+        ChecksumCache cache = netStorage.getChecksumCache();
+        byte[] localHash = cache != null
+                ? cache.getHashes(file.toPath(), algorithm).get(algorithm)
+                : new FileHasher(algorithm).hash(file.toPath()).get(algorithm);
+        if (!remoteHash.equalsIgnoreCase(Utils.encodeHex(localHash)))
+            return false;
+
+        netStorage.mtime(remotePath, new Date(mtime * 1000));
+        summary.touched.incrementAndGet();
+        return true;
+    }
+
+    private void delete(String remotePath, Summary summary) {
+        try {
+            netStorage.delete(remotePath);
+            summary.deleted.incrementAndGet();
+        } catch (NetStorageException | IOException | RuntimeException e) {
+            summary.failures.put(remotePath, e);
+        }
+    }
+
+    /**
+     * Remove a remote directory that no longer exists locally: its content first, then the (empty) directory.
+     */
+    private void deleteDirectory(String remotePath, Summary summary) {
+        try {
+            for (DirEntry entry : list(remotePath).values()) {
+                String child = entry.getPath();
+                if (entry.isDirectory())
+                    deleteDirectory(child, summary);
+                else
+                    delete(child, summary);
+            }
+            netStorage.rmdir(remotePath);
+            summary.deleted.incrementAndGet();
+        } catch (NetStorageException | IOException | RuntimeException e) {
+            summary.failures.put(remotePath, e);
+        }
+    }
+
+    /**
+     * @return the entries of the remote directory by name; empty if the directory does not exist
+     */
+    private Map<String, DirEntry> list(String remoteDirectory) throws NetStorageException, IOException {
+        Map<String, DirEntry> entries = new HashMap<>();
+        try {
+            for (DirEntry entry : netStorage.dirEntries(remoteDirectory))
+                entries.put(entry.getName(), entry);
+        } catch (NetStorageException e) {
+            if (e.getResponseCode() != 404)
+                throw e;
+        }
+        return entries;
+    }
+
+    private static String stripSlash(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the maximum number of uploads and deletes in flight
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isDelete() {
+        return delete;
+    }
+
+    /**
+     * @param delete true to remove remote files and directories that do not exist locally; defaults to false
+     */
+    public void setDelete(boolean delete) {
+        this.delete = delete;
+    }
+}
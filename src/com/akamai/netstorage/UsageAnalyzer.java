@@ -0,0 +1,365 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Reports the disk usage of a remote tree broken down by subdirectory, down to {@code maxDepth} levels.
+ * <p>
+ * The directories of the report are listed in parallel with a {@link TreeWalker}, then each of them is sized with a du
+ * request, up to {@code parallelism} at a time. A directory's own files are its du total minus that of its
+ * subdirectories.
+ * <p>
+ * The du results are cached with the time they were queried and the mtime of the directory at the time. A later
+ * report only sends du for the directories whose mtime has changed since, whose result is older than {@code maxAge},
+ * and for their ancestors, whose totals include them. A directory's mtime only changes with its own entries, so a
+ * change deeper than the report is picked up once the result has aged out.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class UsageAnalyzer {
+
+    private static final Logger log = Logger.getLogger(UsageAnalyzer.class.getName());
+
+    // defaults
+    private int parallelism = 8;
+    private int maxDepth = 1;
+    private long maxAge = 60 * 60 * 1000;
+
+    private final NetStorage netStorage;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    public UsageAnalyzer(NetStorage netStorage) {
+        this.netStorage = netStorage;
+    }
+
+    public UsageAnalyzer(NetStorage netStorage, int parallelism, int maxDepth) {
+        this.netStorage = netStorage;
+        if (parallelism > 0) this.setParallelism(parallelism);
+        if (maxDepth >= 0) this.setMaxDepth(maxDepth);
+    }
+
+    private static class Entry {
+        final long files;
+        final long bytes;
+        final long mtime;
+        final long timestamp;
+
+        Entry(long files, long bytes, long mtime, long timestamp) {
+            this.files = files;
+            this.bytes = bytes;
+            this.mtime = mtime;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The usage of one directory of the report.
+     */
+    public static class Usage {
+        private final String path;
+        private final long files;
+        private final long bytes;
+        private final long timestamp;
+        private final boolean cached;
+        private final List<Usage> children = new ArrayList<>();
+
+        Usage(String path, long files, long bytes, long timestamp, boolean cached) {
+            this.path = path;
+            this.files = files;
+            this.bytes = bytes;
+            this.timestamp = timestamp;
+            this.cached = cached;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the number of files in the whole subtree
+         */
+        public long getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the number of bytes in the whole subtree
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the number of files directly in the directory, or in subdirectories deeper than the report
+         */
+        public long getOwnFiles() {
+            long own = files;
+            for (Usage child : children)
+                own -= child.files;
+            return own;
+        }
+
+        /**
+         * @return the number of bytes directly in the directory, or in subdirectories deeper than the report
+         */
+        public long getOwnBytes() {
+            long own = bytes;
+            for (Usage child : children)
+                own -= child.bytes;
+            return own;
+        }
+
+        /**
+         * @return when the totals were queried, in milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return true if the totals came from the cache of an earlier report
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        /**
+         * @return the subdirectories in the report, in path order
+         */
+        public List<Usage> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d files, %d bytes", path, files, bytes);
+        }
+    }
+
+    /**
+     * The outcome of an analysis.
+     */
+    public static class Report {
+        private final Usage root;
+        private final Map<String, Usage> usages;
+        private final long queried;
+        private final long cached;
+        private final SortedMap<String, Exception> failures;
+
+        Report(Usage root, Map<String, Usage> usages, long queried, long cached, SortedMap<String, Exception> failures) {
+            this.root = root;
+            this.usages = usages;
+            this.queried = queried;
+            this.cached = cached;
+            this.failures = failures;
+        }
+
+        public Usage getRoot() {
+            return root;
+        }
+
+        /**
+         * @param path a directory of the report
+         * @return its usage, or null if it is not in the report
+         */
+        public Usage getUsage(String path) {
+            return usages.get(path);
+        }
+
+        /**
+         * @return the number of du requests sent
+         */
+        public long getQueried() {
+            return queried;
+        }
+
+        /**
+         * @return the number of directories answered from the cache
+         */
+        public long getCached() {
+            return cached;
+        }
+
+        /**
+         * @return the path and error of every directory that could not be listed or sized, in path order
+         */
+        public SortedMap<String, Exception> getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (directories: %d, queried: %d, cached: %d, failed: %d)", root, usages.size(),
+                    queried, cached, failures.size());
+        }
+    }
+
+    /**
+     * @param path the remote directory, eg: /1234/site
+     * @return the usage of the directory and of its subdirectories down to {@code maxDepth} levels
+     * @throws NetStorageException if the directory could not be listed or sized
+     * @throws IOException         if a response of the directory could not be parsed
+     */
+    public Report analyze(String path) throws NetStorageException, IOException {
+        String root = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        SortedMap<String, Exception> failures = new ConcurrentSkipListMap<>();
+
+        // the directories of the report and their current mtime
+        Map<String, Long> mtimes = new ConcurrentHashMap<>();
+        mtimes.put(root, netStorage.statEntry(root).getMtime());
+        if (this.getMaxDepth() > 0) {
+            TreeWalker walker = new TreeWalker(netStorage, this.getParallelism());
+            walker.setMaxDepth(this.getMaxDepth());
+            walker.setFilter(DirEntry::isDirectory);
+            failures.putAll(walker.walk(root, entry -> mtimes.put(entry.getPath(), entry.getMtime())).getFailures());
+        }
+
+        Set<String> stale = findStale(root, mtimes, System.currentTimeMillis());
+        AtomicLong queried = new AtomicLong();
+        ExecutorService executor = new VirtualThreadExecutor(this.getParallelism());
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (String directory : stale) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        DuInfo du = netStorage.duInfo(directory);
+                        queried.incrementAndGet();
+                        cache.put(directory, new Entry(du.getFiles(), du.getBytes(), mtimes.get(directory), System.currentTimeMillis()));
+                    } catch (NetStorageException | IOException | RuntimeException e) {
+                        cache.remove(directory);
+                        failures.put(directory, e);
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NetStorageException("Interrupted while analyzing", e);
+        } catch (ExecutionException e) {
+            // the tasks record their own failures
+            throw new NetStorageException("Usage task failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Exception failure = failures.get(root);
+        if (failure instanceof NetStorageException)
+            throw (NetStorageException) failure;
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+
+        // link every directory to its parent, in path order
+        Map<String, Usage> usages = new TreeMap<>();
+        for (String directory : new TreeMap<>(mtimes).keySet()) {
+            Entry entry = cache.get(directory);
+            if (entry == null)
+                continue;
+            Usage usage = new Usage(directory, entry.files, entry.bytes, entry.timestamp, !stale.contains(directory));
+            usages.put(directory, usage);
+            Usage parent = usages.get(directory.substring(0, Math.max(directory.lastIndexOf('/'), 0)));
+            if (parent != null && !directory.equals(root))
+                parent.children.add(usage);
+        }
+
+        Report report = new Report(usages.get(root), usages, queried.get(), usages.size() - queried.get(), failures);
+        log.fine(String.format("Analyzed %s: %s", root, report));
+        return report;
+    }
+
+    /**
+     * @return the directories that need a du request: those without a fresh cached result, and their ancestors
+     */
+    private Set<String> findStale(String root, Map<String, Long> mtimes, long now) {
+        Set<String> stale = new HashSet<>();
+        for (Map.Entry<String, Long> directory : mtimes.entrySet()) {
+            Entry entry = cache.get(directory.getKey());
+            if (entry != null && entry.mtime == directory.getValue() && now - entry.timestamp < this.getMaxAge())
+                continue;
+            for (String path = directory.getKey(); stale.add(path) && !path.equals(root); )
+                path = path.substring(0, path.lastIndexOf('/'));
+        }
+        return stale;
+    }
+
+    /**
+     * Forget the cached usage of a directory and of everything under it, eg: after deleting a large subtree.
+     *
+     * @param path the remote directory
+     */
+    public void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        cache.keySet().removeIf(cached -> cached.equals(path) || cached.startsWith(prefix));
+    }
+
+    /**
+     * Forget every cached usage.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the maximum number of dir and du requests in flight
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth the number of subdirectory levels in the report; 0 only reports the directory itself
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @param maxAge the time (in milliseconds) a cached du result is trusted while its directory mtime is unchanged;
+     *               defaults to one hour
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+}
@@ -18,8 +18,6 @@ package com.akamai.netstorage;
 import com.akamai.netstorage.parameter.Parameter;
 import com.akamai.netstorage.parameter.ParameterValueFormatter;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
@@ -27,11 +25,13 @@ import java.beans.PropertyDescriptor;
 import java.io.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -101,8 +101,8 @@ public class Utils {
     /**
      * Computes the hash of a given InputStream. This is a wrapper over the MessageDigest crypto functions.
      *
-     * @param srcStream     a source stream. This will be wrapped in a {@link java.io.BufferedInputStream}
-     *                      in case the source stream is not buffered
+     * @param srcStream     a source stream. It is read to the end and closed. To compute several hashes in one pass
+     *                      or to hash a local file use {@link FileHasher}
      * @param hashAlgorithm the Algorithm to use to compute the hash
      * @return a byte[] representation of the hash. If the InputStream is a null object
      * then null will be returned. If the InputStream is empty an empty byte[] {} will be returned.
@@ -111,19 +111,8 @@ public class Utils {
     public static byte[] computeHash(InputStream srcStream, HashAlgorithm hashAlgorithm) throws IOException {
         if (srcStream == null) return null;
 
-        try {
-            MessageDigest digest = MessageDigest.getInstance(hashAlgorithm.getAlgorithm());
-            try (InputStream inputStream = new BufferedInputStream(srcStream)) {
-                byte[] buff = new byte[1024 * 1024];
-
-                int size;
-                while ((size = inputStream.read(buff)) != -1)
-                    digest.update(buff, 0, size);
-            }
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            //no-op. This will never happen since we are using an enum to limit the hash algorithms
-            throw new IllegalArgumentException("This should never happen! We are using an enum!", e);
+        try (InputStream inputStream = srcStream) {
+            return new FileHasher(hashAlgorithm).hash(inputStream).get(hashAlgorithm);
         }
     }
 
@@ -138,13 +127,7 @@ public class Utils {
     public static byte[] computeKeyedHash(byte[] data, String key, KeyedHashAlgorithm hashType) {
         if (data == null || key == null) return null;
 
-        try {
-            Mac mac = Mac.getInstance(hashType.getAlgorithm());
-            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), hashType.getAlgorithm()));
-            return mac.doFinal(data);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new IllegalArgumentException("This should never happen!", e);
-        }
+        return SigningEngine.keyedHash(data, key, hashType);
     }
 
     /**
@@ -157,12 +140,19 @@ public class Utils {
      */
     public static String encodeHex(byte[] value) {
         if (value == null) return null;
-        StringBuilder str = new StringBuilder();
-        for (byte aValue : value) str.append(String.format("%02x", aValue));
-
-        return str.toString();
+        char[] str = new char[value.length * 2];
+        for (int i = 0; i < value.length; i++) {
+            str[i * 2] = HEX_CHARS[(value[i] >> 4) & 0xf];
+            str[i * 2 + 1] = HEX_CHARS[value[i] & 0xf];
+        }
+        return new String(str);
     }
 
+    /**
+     * Lookup table for hex encoding.
+     */
+    private final static char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
     /**
      * Lookup table for base64 encoding.
      */
@@ -209,45 +199,76 @@ public class Utils {
     public static Map<String, String> convertObjectAsMap(Object srcObj) {
         Map<String, String> resultMap = new HashMap<>();
         try {
-            BeanInfo beanInfo = Introspector.getBeanInfo(srcObj.getClass());
-            PropertyDescriptor[] properties = beanInfo.getPropertyDescriptors();
-            HashMap<String, Field> fields = getDeclaredFields(srcObj.getClass());
-            for (PropertyDescriptor property : properties) {
-                String name = property.getName();
-
-                if (name.equals("class") || name.equals("additionalParams")) continue;
-
-                ParameterValueFormatter formatter = null;
-                boolean includeNull = false;
-                Field field = fields.get(name);
-                Parameter p = field.getAnnotation(Parameter.class);
-                if (p != null && p.name() != null) {
-                    name = p.name();
-                    includeNull = p.includeNull();
-                    try {
-                        formatter = p.formatter().newInstance();
-                    } catch (InstantiationException e) {
-                        //This shouldn't happen unless they are using a custom formatter
-                        //do nothing, use default formatting
-                        throw new IllegalArgumentException("This should never happen if you are implementing ParameterValueFormatter!", e);
-                    }
-                }
-
+            for (BeanProperty property : BEAN_PROPERTIES.get(srcObj.getClass())) {
                 String value = null;
-                Object o = property.getReadMethod().invoke(srcObj);
+                Object o = property.readMethod.invoke(srcObj);
 
-                if (o != null && formatter != null) value = formatter.valueOf(o);
+                if (o != null && property.formatter != null) value = property.formatter.valueOf(o);
                 else if (o != null) value = o.toString();
 
-                if (includeNull || value != null) resultMap.put(name, value);
-
+                if (property.includeNull || value != null) resultMap.put(property.name, value);
             }
-        } catch (IntrospectionException | IllegalAccessException | InvocationTargetException e) {
+        } catch (IllegalAccessException | InvocationTargetException e) {
             log.log(Level.SEVERE, "Object serialization error", e);
         }
         return resultMap;
     }
 
+    /**
+     * A bean property of an {@link APIEventBean} with its {@link Parameter} name and formatter, resolved once per class
+     * since every request serializes its bean into the action header.
+     */
+    private static class BeanProperty {
+        private final String name;
+        private final Method readMethod;
+        private final ParameterValueFormatter formatter;
+        private final boolean includeNull;
+
+        BeanProperty(String name, Method readMethod, ParameterValueFormatter formatter, boolean includeNull) {
+            this.name = name;
+            this.readMethod = readMethod;
+            this.formatter = formatter;
+            this.includeNull = includeNull;
+        }
+    }
+
+    private static final ClassValue<List<BeanProperty>> BEAN_PROPERTIES = new ClassValue<List<BeanProperty>>() {
+        @Override
+        protected List<BeanProperty> computeValue(Class<?> type) {
+            List<BeanProperty> result = new ArrayList<>();
+            try {
+                BeanInfo beanInfo = Introspector.getBeanInfo(type);
+                PropertyDescriptor[] properties = beanInfo.getPropertyDescriptors();
+                HashMap<String, Field> fields = getDeclaredFields(type);
+                for (PropertyDescriptor property : properties) {
+                    String name = property.getName();
+
+                    if (name.equals("class") || name.equals("additionalParams")) continue;
+
+                    ParameterValueFormatter formatter = null;
+                    boolean includeNull = false;
+                    Field field = fields.get(name);
+                    Parameter p = field.getAnnotation(Parameter.class);
+                    if (p != null && p.name() != null) {
+                        name = p.name();
+                        includeNull = p.includeNull();
+                        try {
+                            formatter = p.formatter().getDeclaredConstructor().newInstance();
+                        } catch (InstantiationException | NoSuchMethodException | InvocationTargetException e) {
+                            //This shouldn't happen unless they are using a custom formatter
+                            //do nothing, use default formatting
+                            throw new IllegalArgumentException("This should never happen if you are implementing ParameterValueFormatter!", e);
+                        }
+                    }
+                    result.add(new BeanProperty(name, property.getReadMethod(), formatter, includeNull));
+                }
+            } catch (IntrospectionException | IllegalAccessException e) {
+                log.log(Level.SEVERE, "Object serialization error", e);
+            }
+            return Collections.unmodifiableList(result);
+        }
+    };
+
     private static HashMap<String, Field> getDeclaredFields(Class<?> aClass) {
         HashMap<String, Field> map = new HashMap<>();
         while (aClass != null) {
@@ -300,6 +321,50 @@ public class Utils {
         }
     }
 
+    /**
+     * Copy up to count bytes of the stream into the file channel at the given position, through a buffer that the
+     * caller reuses from one call to the next, with positional writes rather than a FileOutputStream.
+     * <p>
+     * The response of an {@link HttpClientTransport} is read as a channel: the client's buffers are copied once into
+     * the given buffer, and a direct buffer is then written to the file without a further copy. Any other stream is
+     * read into the array of a heap buffer, which the JDK copies into a temporary direct buffer of its own to write
+     * it; a direct buffer has no array and is filled through {@link Channels#newChannel(InputStream)}, which copies
+     * through a byte[] on every call.
+     *
+     * @param source   the stream to read; it is not closed
+     * @param target   the file to write
+     * @param position the file position of the first byte
+     * @param count    the maximum number of bytes to copy
+     * @param buffer   the buffer to copy through; direct for an {@link HttpClientTransport} response, otherwise heap
+     * @return the number of bytes copied; less than count only if the end of the stream was reached
+     * @throws IOException if the stream or file failed
+     */
+    public static long transfer(InputStream source, FileChannel target, long position, long count, ByteBuffer buffer) throws IOException {
+        ReadableByteChannel channel = SignerInputStream.getChannel(source);
+        if (channel == null && !buffer.hasArray())
+            channel = Channels.newChannel(source);
+
+        long transferred = 0;
+        while (transferred < count) {
+            int length = (int) Math.min(buffer.capacity(), count - transferred);
+            buffer.clear();
+            if (channel == null) {
+                length = source.read(buffer.array(), buffer.arrayOffset(), length);
+                if (length < 0)
+                    break;
+                buffer.limit(length);
+            } else {
+                buffer.limit(length);
+                if (channel.read(buffer) < 0)
+                    break;
+                buffer.flip();
+            }
+            while (buffer.hasRemaining())
+                transferred += target.write(buffer, position + transferred);
+        }
+        return transferred;
+    }
+
     /**
      * Convenience method to read Properties in Ini format
      *
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An executor that runs tasks on at most {@code maxConcurrency} virtual threads, so thousands of NetStorage calls can
+ * be submitted without sizing a thread pool. Tasks beyond the bound are queued and picked up by the running threads;
+ * a thread ends once the queue is empty. Used with {@link AsyncNetStorage#withVirtualThreads(NetStorage, int)}.
+ * <p>
+ * {@link #execute(Runnable)} never blocks, so the queue grows with the tasks submitted. Callers that walk an unbounded
+ * number of files call {@link #awaitCapacity()} before each submission to hold back until a thread is free.
+ * <p>
+ * Virtual threads are available from Java 21 and are looked up at runtime. On older JVMs the executor falls back to
+ * platform daemon threads with the same bound; {@link #isVirtualThreadSupported()} reports which mode is in use.
+ * <p>
+ * Before Java 24 a virtual thread that blocks inside a {@code synchronized} block pins the platform thread that
+ * carries it, so a few slow requests could stall every task of the executor. This executor, and the limiters and
+ * caches that its tasks wait on, therefore lock with {@link ReentrantLock} rather than on a monitor.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+    // logging support
+    private static final Logger log = Logger.getLogger(VirtualThreadExecutor.class.getName());
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrency;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition terminated = lock.newCondition();
+    private final Condition capacity = lock.newCondition();
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private final Set<Thread> workers = new HashSet<>();
+    private int active;
+    private volatile boolean shutdown;
+    private volatile boolean stopped;
+
+    /**
+     * @param maxConcurrency the maximum number of tasks running at the same time
+     */
+    public VirtualThreadExecutor(int maxConcurrency) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException("maxConcurrency must be greater than 0");
+        this.maxConcurrency = maxConcurrency;
+        this.threadFactory = VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY : new PlatformThreadFactory();
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads (Java 21+)
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            // Thread.ofVirtual().name("netstorage-virtual-", 0).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "netstorage-virtual-", 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.log(Level.FINE, "Virtual threads are not available, using platform threads", e);
+            return null;
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return the number of tasks currently running (not waiting in the queue)
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a submitted task would start right away, that is until fewer than {@code maxConcurrency} tasks are
+     * running or queued. Returns at once after the executor is shut down, so that the next submission is rejected.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCapacity() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!shutdown && active + queue.size() >= maxConcurrency)
+                capacity.await();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+
+        Thread worker = null;
+        lock.lock();
+        try {
+            if (shutdown)
+                throw new RejectedExecutionException("Executor has been shut down");
+            queue.addLast(command);
+            if (workers.size() < maxConcurrency) {
+                worker = threadFactory.newThread(this::work);
+                workers.add(worker);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (worker != null)
+            worker.start();
+    }
+
+    /**
+     * The loop of a thread: run queued tasks until there are none left.
+     */
+    private void work() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            Runnable task;
+            lock.lock();
+            try {
+                task = queue.pollFirst();
+                if (task == null) {
+                    workers.remove(self);
+                    if (shutdown && workers.isEmpty())
+                        terminated.signalAll();
+                    return;
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+
+            // an interrupt aimed at the previous task must not leak into this one
+            if (!stopped)
+                Thread.interrupted();
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                // a failed task must not take the thread and the queued tasks with it
+                self.getUncaughtExceptionHandler().uncaughtException(self, e);
+            } finally {
+                lock.lock();
+                try {
+                    active--;
+                    capacity.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            if (workers.isEmpty())
+                terminated.signalAll();
+            capacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Interrupts every running task and removes the tasks that have not started.
+     *
+     * @return the tasks that never ran
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        lock.lock();
+        try {
+            stopped = true;
+            shutdown();
+            List<Runnable> pending = new ArrayList<>(queue);
+            queue.clear();
+            for (Thread worker : workers)
+                worker.interrupt();
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        lock.lock();
+        try {
+            return shutdown && workers.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!isTerminated()) {
+                if (nanos <= 0)
+                    return false;
+                nanos = terminated.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class PlatformThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "netstorage-bulk-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -146,7 +146,10 @@ public class CMS {
                 result = ns.dir(path);
                 break;
             case "download":
-                result = ns.download(path);
+                if (outputfile != null)
+                    success = ns.download(path, new File(outputfile));
+                else
+                    result = ns.download(path);
                 break;
             case "du":
                 result = ns.du(path);
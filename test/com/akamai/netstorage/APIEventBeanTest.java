@@ -89,6 +89,26 @@ public class APIEventBeanTest {
         assertThat(Utils.convertMapAsQueryParams(result), is("action=stat&format=xml&version=1"));
     }
 
+    @Test
+    public void testDirPageAsQueryParams() throws Exception {
+        APIEventBean action = new APIEventDir().withMaxEntries(100).startingAt("/1234/a").withFormat("xml");
+
+        Map<String, String> result = action.asQueryParams();
+
+        assertThat(result.size(), is(5));
+        assertThat(Utils.convertMapAsQueryParams(result), is("action=dir&format=xml&max_entries=100&start=%2F1234%2Fa&version=1"));
+    }
+
+    @Test
+    public void testListAsQueryParams() throws Exception {
+        APIEventBean action = new APIEventList().withMaxEntries(100).endingAt("/1234/a0").withFormat("xml");
+
+        Map<String, String> result = action.asQueryParams();
+
+        assertThat(result.size(), is(5));
+        assertThat(Utils.convertMapAsQueryParams(result), is("action=list&end=%2F1234%2Fa0&format=xml&max_entries=100&version=1"));
+    }
+
     @Test
     public void testRenameAsQueryParams() throws Exception {
         APIEventBean action = new APIEventRename().to("/foo");
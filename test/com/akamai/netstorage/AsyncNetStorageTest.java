@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.auth.RequestSigningException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the AsyncNetStorage wrapper
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class AsyncNetStorageTest {
+
+    private static class RecordingTransport implements NetStorageTransport {
+        final List<NetStorageCMSv35Signer> requests = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        int responseCode = 200;
+
+        @Override
+        public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws RequestSigningException {
+            requests.add(request);
+            threads.add(Thread.currentThread().getName());
+            if (responseCode != 200)
+                throw new NetStorageException("Unexpected Response from Server", responseCode);
+            return new ByteArrayInputStream("<stat/>".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static NetStorage createNetstorage(RecordingTransport transport) {
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setTransport(transport);
+        return ns;
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        try (AsyncNetStorage async = new AsyncNetStorage(createNetstorage(transport))) {
+            // bounded by default
+            assertThat(((VirtualThreadExecutor) async.getExecutor()).getMaxConcurrency(), is(AsyncNetStorage.DEFAULT_MAX_CONCURRENCY));
+            assertTrue(async.mkdir("/foobar").get());
+            try (InputStream result = async.stat("/foobar").get()) {
+                assertThat(new Scanner(result, "UTF-8").useDelimiter("\\Z").next(), is("<stat/>"));
+            }
+        }
+        assertThat(transport.requests.size(), is(2));
+        assertThat(transport.requests.get(0).getActionHeaderValue(), is("action=mkdir&version=1"));
+        assertThat(transport.requests.get(1).getActionHeaderValue(), is("action=stat&format=xml&version=1"));
+        assertTrue(transport.threads.get(0).startsWith(VirtualThreadExecutor.isVirtualThreadSupported() ? "netstorage-virtual-" : "netstorage-bulk-"));
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        AsyncNetStorage async = new AsyncNetStorage(createNetstorage(transport), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        assertTrue(async.delete("/foobar").isDone());
+        assertThat(transport.threads.get(0), is(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.responseCode = 403;
+        try (AsyncNetStorage async = new AsyncNetStorage(createNetstorage(transport))) {
+            async.delete("/foobar").get();
+            fail("expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NetStorageException);
+        }
+    }
+}
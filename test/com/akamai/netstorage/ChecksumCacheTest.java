@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the persistent ChecksumCache
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ChecksumCacheTest {
+
+    private static final byte[] DATA = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+
+    private File directory;
+    private File index;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("checksums").toFile();
+        index = new File(directory, "index");
+        file = new File(directory, "file\twith tab.txt").toPath();
+        Files.write(file, DATA);
+    }
+
+    @After
+    public void tearDown() {
+        for (File child : directory.listFiles())
+            child.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testGetHashes() throws Exception {
+        byte[] sha256 = Utils.computeHash(new ByteArrayInputStream(DATA), HashAlgorithm.SHA256);
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            assertNull(cache.lookup(file, HashAlgorithm.SHA256));
+            assertArrayEquals(sha256, cache.getHashes(file, HashAlgorithm.SHA256).get(HashAlgorithm.SHA256));
+            assertArrayEquals(sha256, cache.lookup(file, HashAlgorithm.SHA256).get(HashAlgorithm.SHA256));
+            // not every algorithm is cached
+            assertNull(cache.lookup(file, HashAlgorithm.SHA256, HashAlgorithm.MD5));
+            assertEquals(cache.getHitCount(), 1);
+            assertEquals(cache.getMissCount(), 3);
+        }
+
+        // reloaded from disk
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            assertEquals(cache.size(), 1);
+            assertArrayEquals(sha256, cache.lookup(file, HashAlgorithm.SHA256).get(HashAlgorithm.SHA256));
+
+            // a changed file is hashed again
+            Files.write(file, "changed".getBytes(StandardCharsets.UTF_8));
+            file.toFile().setLastModified(file.toFile().lastModified() + 2000);
+            assertNull(cache.lookup(file, HashAlgorithm.SHA256));
+            assertArrayEquals(Utils.computeHash(new ByteArrayInputStream("changed".getBytes(StandardCharsets.UTF_8)), HashAlgorithm.SHA256),
+                    cache.getHashes(file, HashAlgorithm.SHA256).get(HashAlgorithm.SHA256));
+        }
+    }
+
+    @Test
+    public void testPutMerges() throws Exception {
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            Map<HashAlgorithm, byte[]> md5 = new FileHasher(HashAlgorithm.MD5).hash(file);
+            cache.put(file, Files.size(file), file.toFile().lastModified(), md5);
+            cache.getHashes(file, HashAlgorithm.SHA1);
+            Map<HashAlgorithm, byte[]> both = cache.lookup(file, HashAlgorithm.MD5, HashAlgorithm.SHA1);
+            assertNotNull(both);
+            assertArrayEquals(md5.get(HashAlgorithm.MD5), both.get(HashAlgorithm.MD5));
+        }
+    }
+
+    @Test
+    public void testTruncatedRecord() throws Exception {
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            cache.getHashes(file, HashAlgorithm.SHA256);
+        }
+        // a crash while appending the next record
+        try (OutputStream output = new FileOutputStream(index, true)) {
+            output.write((file.toRealPath() + "\t1\t2\tSHA256:abcd").getBytes(StandardCharsets.UTF_8));
+        }
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            assertNotNull(cache.lookup(file, HashAlgorithm.SHA256));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File other = new File(directory, "other.txt");
+        Files.write(other.toPath(), DATA);
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            cache.setCompactionThreshold(6);
+            for (int i = 0; i < 5; i++)
+                cache.put(file, Files.size(file), file.toFile().lastModified(), new FileHasher(HashAlgorithm.MD5).hash(file));
+            cache.put(other.toPath(), 1, 1, new FileHasher(HashAlgorithm.MD5).hash(file));
+            // the 6th record compacted the index; the stale record of the other file is dropped
+            assertEquals(cache.size(), 1);
+            assertEquals(Files.readAllLines(index.toPath()).size(), 1);
+
+            cache.put(file, Files.size(file), file.toFile().lastModified(), new FileHasher(HashAlgorithm.SHA1).hash(file));
+            assertEquals(Files.readAllLines(index.toPath()).size(), 2);
+        }
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            assertNotNull(cache.lookup(file, HashAlgorithm.MD5, HashAlgorithm.SHA1));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit test class for the per host circuit breaker
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class CircuitBreakerTest {
+
+    private static CircuitBreaker createCircuitBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 50);
+        breaker.setMinimumRequests(4);
+        breaker.setWindowSize(4);
+        breaker.setProbes(2);
+        return breaker;
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        CircuitBreaker breaker = createCircuitBreaker();
+        breaker.setOpenTimeout(60000);
+        breaker.acquire("www.example.com").onSuccess();
+        breaker.acquire("www.example.com").onFailure();
+        breaker.acquire("www.example.com").onSuccess();
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.CLOSED);
+        breaker.acquire("www.example.com").onFailure();
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.OPEN);
+
+        try {
+            breaker.acquire("www.example.com");
+            fail("expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertEquals(e.getHostname(), "www.example.com");
+            assertTrue(e.getRetryAfter() > 0);
+        }
+
+        // other hosts are unaffected
+        assertEquals(breaker.getState("upload.example.com"), CircuitBreaker.State.CLOSED);
+        breaker.acquire("upload.example.com").onSuccess();
+        assertEquals(breaker.getStates().size(), 2);
+    }
+
+    @Test
+    public void testHalfOpen() throws Exception {
+        final List<String> transitions = new ArrayList<>();
+        CircuitBreaker breaker = createCircuitBreaker();
+        breaker.addListener((hostname, from, to) -> transitions.add(from + ">" + to));
+        for (int i = 0; i < 4; i++)
+            breaker.acquire("www.example.com").onFailure();
+
+        Thread.sleep(60);
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.HALF_OPEN);
+        CircuitBreaker.Permit first = breaker.acquire("www.example.com");
+        CircuitBreaker.Permit second = breaker.acquire("www.example.com");
+        try {
+            breaker.acquire("www.example.com");
+            fail("expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            // only 2 probes at a time
+        }
+        first.onSuccess();
+        second.onFailure();
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.OPEN);
+
+        Thread.sleep(60);
+        breaker.acquire("www.example.com").onSuccess();
+        breaker.acquire("www.example.com").onSuccess();
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.CLOSED);
+
+        assertEquals(transitions.toString(), "[CLOSED>OPEN, OPEN>HALF_OPEN, HALF_OPEN>OPEN, OPEN>HALF_OPEN, HALF_OPEN>CLOSED]");
+    }
+
+    @Test
+    public void testIgnore() throws Exception {
+        CircuitBreaker breaker = createCircuitBreaker();
+        for (int i = 0; i < 4; i++)
+            breaker.acquire("www.example.com").onFailure();
+        Thread.sleep(60);
+
+        // an abandoned probe frees its slot
+        breaker.acquire("www.example.com").onIgnore();
+        breaker.acquire("www.example.com").onIgnore();
+        breaker.acquire("www.example.com").onSuccess();
+        breaker.acquire("www.example.com").onSuccess();
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.CLOSED);
+
+        breaker.reset("www.example.com");
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testIsFailure() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        assertTrue(breaker.isFailure(new NetStorageException("Bad Gateway", 502)));
+        assertTrue(breaker.isFailure(new NetStorageException("Communication Error", new SocketTimeoutException("Read timed out"))));
+        assertFalse(breaker.isFailure(new NetStorageException("Not Found", 404)));
+        assertFalse(breaker.isFailure(new NetStorageException("Interrupted")));
+    }
+
+    @Test
+    public void testNetStorage() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        CircuitBreaker breaker = createCircuitBreaker();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setRetryPolicy(RetryPolicy.none());
+        ns.setCircuitBreaker(breaker);
+        ns.setTransport((request, credential) -> {
+            requests.incrementAndGet();
+            if (request.getUrl().getPath().equals("/missing"))
+                throw new NetStorageException("Not Found", 404);
+            throw new NetStorageException("Communication Error", new SocketTimeoutException("connect timed out"));
+        });
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                ns.mkdir(i % 2 == 0 ? "/missing" : "/foobar");
+                fail("expected NetStorageException");
+            } catch (NetStorageException e) {
+                assertFalse(e instanceof CircuitOpenException);
+            }
+        }
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.OPEN);
+
+        try {
+            ns.mkdir("/foobar");
+            fail("expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+            assertEquals(requests.get(), 4);
+        }
+
+        ns.setTransport((request, credential) -> new ByteArrayInputStream(new byte[0]));
+        Thread.sleep(60);
+        ns.mkdir("/foobar");
+        ns.mkdir("/foobar");
+        assertEquals(breaker.getState("www.example.com"), CircuitBreaker.State.CLOSED);
+    }
+}
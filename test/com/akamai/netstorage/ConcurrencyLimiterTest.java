@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit test class for the adaptive concurrency limiter
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 10);
+        limiter.setAcquireTimeout(50);
+
+        ConcurrencyLimiter.Permit first = limiter.acquire("www.example.com");
+        limiter.acquire("www.example.com");
+        assertEquals(limiter.getInFlight("www.example.com"), 2);
+        try {
+            limiter.acquire("www.example.com");
+            fail("expected NetStorageException");
+        } catch (NetStorageException e) {
+            // expected
+        }
+
+        // other hosts have their own limit
+        limiter.acquire("upload.example.com").onIgnore();
+
+        first.onIgnore();
+        first.onIgnore();
+        assertEquals(limiter.getInFlight("www.example.com"), 1);
+        limiter.acquire("www.example.com");
+        assertEquals(limiter.getLimit("www.example.com"), 2);
+    }
+
+    @Test
+    public void testAdditiveIncrease() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 6);
+        limiter.setLatencyTolerance(Double.MAX_VALUE);
+
+        for (int i = 0; i < 100; i++) {
+            List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            for (int j = 0; j < limiter.getLimit("www.example.com"); j++)
+                permits.add(limiter.acquire("www.example.com"));
+            for (ConcurrencyLimiter.Permit permit : permits)
+                permit.onSuccess();
+        }
+        assertEquals(limiter.getLimit("www.example.com"), 6);
+
+        // an idle host does not grow its limit
+        ConcurrencyLimiter idle = new ConcurrencyLimiter(4, 6);
+        idle.setLatencyTolerance(Double.MAX_VALUE);
+        for (int i = 0; i < 100; i++)
+            idle.acquire("www.example.com").onSuccess();
+        assertEquals(idle.getLimit("www.example.com"), 4);
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 10);
+        limiter.setBackoffRatio(0.5);
+        limiter.acquire("www.example.com").onDropped();
+        assertEquals(limiter.getLimit("www.example.com"), 5);
+        for (int i = 0; i < 10; i++)
+            limiter.acquire("www.example.com").onDropped();
+        assertEquals(limiter.getLimit("www.example.com"), limiter.getMinLimit());
+    }
+
+    @Test
+    public void testLatencyGradient() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 10);
+        limiter.setBackoffRatio(0.5);
+        limiter.acquire("www.example.com").onSuccess();
+        assertEquals(limiter.getLimit("www.example.com"), 10);
+
+        ConcurrencyLimiter.Permit slow = limiter.acquire("www.example.com");
+        Thread.sleep(20);
+        slow.onSuccess();
+        assertEquals(limiter.getLimit("www.example.com"), 5);
+    }
+
+    @Test
+    public void testUploadLatency() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 10);
+        limiter.setBackoffRatio(0.5);
+        ConcurrencyLimiter.Permit stat = limiter.acquire("www.example.com");
+        Thread.sleep(10);
+        stat.onSuccess();
+
+        // the time spent sending the body is not compared with the baseline
+        ConcurrencyLimiter.Permit upload = limiter.acquire("www.example.com");
+        Thread.sleep(20);
+        upload.onSuccess(System.nanoTime());
+        assertEquals(limiter.getLimit("www.example.com"), 10);
+
+        ConcurrencyLimiter.Permit slow = limiter.acquire("www.example.com");
+        long uploaded = System.nanoTime();
+        Thread.sleep(40);
+        slow.onSuccess(uploaded);
+        assertEquals(limiter.getLimit("www.example.com"), 5);
+    }
+
+    @Test
+    public void testNetStorage() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4);
+        limiter.setBackoffRatio(0.5);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setRetryPolicy(RetryPolicy.none());
+        ns.setConcurrencyLimiter(limiter);
+        ns.setTransport((request, credential) -> {
+            assertEquals(limiter.getInFlight("www.example.com"), 1);
+            if (request.getUrl().getPath().equals("/throttled"))
+                throw new NetStorageException("Too Many Requests", 429);
+            return new ByteArrayInputStream(new byte[0]);
+        });
+
+        assertTrue(ns.mkdir("/foobar"));
+        try {
+            ns.mkdir("/throttled");
+            fail("expected NetStorageException");
+        } catch (NetStorageException e) {
+            assertEquals(e.getResponseCode(), 429);
+        }
+        assertEquals(limiter.getInFlight("www.example.com"), 0);
+        assertEquals(limiter.getLimit("www.example.com"), 2);
+    }
+
+    @Test
+    public void testDownloadInFlight() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setConcurrencyLimiter(limiter);
+        ns.setTransport((request, credential) -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        // the body is still to be read, so the request is in flight until the stream is closed
+        InputStream download = ns.download("/foobar");
+        assertEquals(limiter.getInFlight("www.example.com"), 1);
+        Utils.readToEnd(download);
+        download.close();
+        assertEquals(limiter.getInFlight("www.example.com"), 0);
+
+        // closing twice releases once
+        download.close();
+        assertEquals(limiter.getInFlight("www.example.com"), 0);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the paged DirIterator
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DirIteratorTest {
+
+    /**
+     * A directory of {@code count} files named f00000, f00001, ... that honours max_entries and an inclusive start.
+     */
+    static class PagingTransport implements NetStorageTransport {
+        final int count;
+        final boolean resumeElement;
+        final List<Map<String, String>> requests = new ArrayList<>();
+
+        PagingTransport(int count, boolean resumeElement) {
+            this.count = count;
+            this.resumeElement = resumeElement;
+        }
+
+        @Override
+        public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+            String path = request.getUrl().getPath();
+            Map<String, String> parameters = UploadSyncTest.MemoryTransport.parameters(request.getActionHeaderValue());
+            requests.add(parameters);
+            if (!"/1234/big".equals(path))
+                throw new NetStorageException("Not Found", 404);
+
+            int max = parameters.containsKey("max_entries") ? Integer.parseInt(parameters.get("max_entries")) : count;
+            int first = 0;
+            if (parameters.containsKey("start"))
+                first = Integer.parseInt(decode(parameters.get("start")).substring("/1234/big/f".length()));
+
+            StringBuilder xml = new StringBuilder("<stat directory=\"/1234/big\">");
+            int i = first;
+            for (; i < count && i < first + max; i++)
+                xml.append(String.format("<file type=\"file\" name=\"f%05d\" size=\"%d\" mtime=\"1400000000\" md5=\"00\"/>", i, i));
+            if (resumeElement && i < count)
+                xml.append(String.format("<resume start=\"/1234/big/f%05d\"/>", i));
+            xml.append("</stat>");
+            return new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private NetStorage netStorage;
+
+    @Before
+    public void setUp() {
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+    }
+
+    @Test
+    public void testPaging() throws Exception {
+        PagingTransport transport = new PagingTransport(25, false);
+        netStorage.setTransport(transport);
+
+        List<DirEntry> entries = new ArrayList<>();
+        try (DirIterator iterator = netStorage.dirIterator("/1234/big/", 10, null)) {
+            iterator.forEachRemaining(entries::add);
+        }
+        assertEquals(entries.size(), 25);
+        for (int i = 0; i < entries.size(); i++)
+            assertEquals(entries.get(i).getPath(), String.format("/1234/big/f%05d", i));
+        assertEquals(entries.get(7).getSize(), 7);
+        assertEquals(entries.get(7).getMtime(), 1400000000);
+        assertTrue(entries.get(7).isFile());
+
+        // 10 + 10 (one repeated) + 7 (one repeated)
+        assertEquals(transport.requests.size(), 3);
+        assertEquals(transport.requests.get(0).get("max_entries"), "10");
+        assertFalse(transport.requests.get(0).containsKey("start"));
+        assertEquals(decode(transport.requests.get(1).get("start")), "/1234/big/f00009");
+    }
+
+    @Test
+    public void testExactPage() throws Exception {
+        PagingTransport transport = new PagingTransport(10, false);
+        netStorage.setTransport(transport);
+        assertEquals(netStorage.dirIterator("/1234/big", 10, null).stream().count(), 10);
+        // the second page only repeats the cursor
+        assertEquals(transport.requests.size(), 2);
+    }
+
+    @Test
+    public void testResumeElement() throws Exception {
+        PagingTransport transport = new PagingTransport(25, true);
+        netStorage.setTransport(transport);
+        assertEquals(netStorage.dirIterator("/1234/big", 10, null).stream().count(), 25);
+        assertEquals(transport.requests.size(), 3);
+        assertEquals(decode(transport.requests.get(1).get("start")), "/1234/big/f00010");
+    }
+
+    @Test
+    public void testCursor() throws Exception {
+        netStorage.setTransport(new PagingTransport(25, false));
+        String cursor;
+        try (DirIterator iterator = netStorage.dirIterator("/1234/big", 10, null)) {
+            for (int i = 0; i < 12; i++)
+                iterator.next();
+            cursor = iterator.getCursor();
+        }
+        assertEquals(cursor, "/1234/big/f00011");
+
+        List<String> names = netStorage.dirIterator("/1234/big", 10, cursor).stream()
+                .map(DirEntry::getName).collect(Collectors.toList());
+        assertEquals(names.size(), 13);
+        assertEquals(names.get(0), "f00012");
+    }
+
+    @Test
+    public void testFailure() {
+        netStorage.setTransport(new PagingTransport(1, false));
+        netStorage.setRetryPolicy(RetryPolicy.none());
+        DirIterator iterator = netStorage.dirIterator("/1234/missing");
+        try {
+            iterator.hasNext();
+            fail("Expected the 404");
+        } catch (UncheckedIOException e) {
+            assertEquals(((NetStorageException) e.getCause().getCause()).getResponseCode(), 404);
+        }
+        assertFalse(iterator.hasNext());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the DownloadMirror directory mirror
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class DownloadMirrorTest {
+
+    private File local;
+    private UploadSyncTest.MemoryTransport transport;
+    private NetStorage netStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        local = Files.createTempDirectory("mirror").toFile();
+        transport = new UploadSyncTest.MemoryTransport();
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport(transport);
+    }
+
+    @After
+    public void tearDown() {
+        delete(local);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(local, path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMirror() throws Exception {
+        transport.put("/1234/site/index.html", "index", 1400000000);
+        transport.put("/1234/site/css/site.css", "body {}", 1400000001);
+        transport.put("/1234/site/img/icons/logo.png", "logo", 1400000002);
+
+        AtomicInteger progress = new AtomicInteger();
+        DownloadMirror mirror = new DownloadMirror(netStorage, 2);
+        mirror.setListener((path, summary) -> progress.incrementAndGet());
+        DownloadMirror.Summary summary = mirror.mirror("/1234/site/", local);
+
+        assertTrue(summary.getFailures().isEmpty());
+        assertEquals(summary.getTotalFiles(), 3);
+        assertEquals(summary.getTotalBytes(), 16);
+        assertEquals(summary.getDownloaded(), 3);
+        assertEquals(summary.getDownloadedBytes(), 16);
+        assertEquals(summary.getCompleted(), 3);
+        assertEquals(progress.get(), 3);
+        assertEquals(read("index.html"), "index");
+        assertEquals(read("css/site.css"), "body {}");
+        assertEquals(read("img/icons/logo.png"), "logo");
+        assertEquals(new File(local, "css/site.css").lastModified(), 1400000001000L);
+        // no stat requests: the listing provides size and mtime
+        for (String action : transport.actions)
+            assertTrue(action, action.startsWith("dir ") || action.startsWith("download "));
+    }
+
+    @Test
+    public void testMirrorSkipsUpToDate() throws Exception {
+        transport.put("/1234/site/a.txt", "a", 1400000000);
+        transport.put("/1234/site/b.txt", "b", 1400000000);
+        new DownloadMirror(netStorage).mirror("/1234/site", local);
+
+        // b.txt changes remotely
+        transport.put("/1234/site/b.txt", "bb", 1400000001);
+        transport.actions.clear();
+        DownloadMirror.Summary summary = new DownloadMirror(netStorage).mirror("/1234/site", local);
+        assertEquals(summary.getSkipped(), 1);
+        assertEquals(summary.getDownloaded(), 1);
+        assertEquals(summary.getCompletedBytes(), 3);
+        assertEquals(read("b.txt"), "bb");
+        assertFalse(transport.actions.contains("download /1234/site/a.txt"));
+    }
+
+    @Test
+    public void testMirrorFailure() throws Exception {
+        transport.put("/1234/site/a.txt", "a", 1400000000);
+        transport.put("/1234/site/b.txt", "b", 1400000000);
+        netStorage.setRetryPolicy(RetryPolicy.none());
+        netStorage.setTransport((request, credential) -> {
+            if (request.getUrl().getPath().endsWith("/a.txt"))
+                throw new NetStorageException("Forbidden", 403);
+            return transport.execute(request, credential);
+        });
+
+        DownloadMirror.Summary summary = new DownloadMirror(netStorage).mirror("/1234/site", local);
+        assertEquals(summary.getDownloaded(), 1);
+        assertEquals(summary.getFailures().keySet(), Collections.singleton("/1234/site/a.txt"));
+        assertEquals(read("b.txt"), "b");
+        assertFalse(new File(local, "a.txt").exists());
+    }
+
+    @Test(expected = NetStorageException.class)
+    public void testMirrorMissingSource() throws Exception {
+        new DownloadMirror(netStorage).mirror("/1234/missing", local);
+    }
+}
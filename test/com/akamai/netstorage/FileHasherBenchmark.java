@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares computing the MD5, SHA-1 and SHA-256 of a set of files with one {@link Utils#computeHash} pass per
+ * algorithm (as the upload checksums had to be filled before) against a single {@link FileHasher} pass, sequentially
+ * and in parallel. It is not run by the build; run it from the test classpath:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes com.akamai.netstorage.FileHasherBenchmark [files] [sizeMB] [iterations]
+ * </pre>
+ * The files are written to the temporary directory once and are usually in the page cache, so the results show the
+ * CPU and copying cost rather than the disk.
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class FileHasherBenchmark {
+
+    private static final HashAlgorithm[] ALL = {HashAlgorithm.MD5, HashAlgorithm.SHA1, HashAlgorithm.SHA256};
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int sizeMB = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<Path> paths = createFiles(count, sizeMB);
+        try {
+            final FileHasher hasher = new FileHasher(ALL);
+            System.out.printf("%d files of %d MB, %d iterations%n", count, sizeMB, iterations);
+
+            run("computeHash x3", paths, iterations, () -> {
+                for (Path path : paths)
+                    for (HashAlgorithm algorithm : ALL)
+                        sink = Utils.computeHash(new BufferedInputStream(new FileInputStream(path.toFile())), algorithm);
+            });
+            run("single pass, 1MB heap buffer (previous computeHash loop)", paths, iterations, () -> {
+                for (Path path : paths)
+                    sink = heapBufferHash(path);
+            });
+            run("FileHasher", paths, iterations, () -> {
+                for (Path path : paths)
+                    sink = hasher.hash(path);
+            });
+            run("FileHasher.hashAll", paths, iterations, () -> sink = hasher.hashAll(paths));
+        } finally {
+            for (Path path : paths)
+                Files.deleteIfExists(path);
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    private static void run(String name, List<Path> paths, int iterations, Task task) throws IOException {
+        long bytes = 0;
+        for (Path path : paths)
+            bytes += Files.size(path);
+
+        // warm up the JIT and the page cache before measuring
+        task.run();
+        task.run();
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            task.run();
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        System.out.printf("%-60s best %8.1f ms  avg %8.1f ms  %8.1f MB/s%n", name,
+                best / 1e6, total / 1e6 / iterations, bytes / 1048576.0 / (best / 1e9));
+    }
+
+    /**
+     * The one-algorithm-at-a-time loop of the previous computeHash, extended to all three digests.
+     */
+    private static byte[][] heapBufferHash(Path path) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(path.toFile()))) {
+            MessageDigest[] digests = new MessageDigest[ALL.length];
+            for (int i = 0; i < ALL.length; i++)
+                digests[i] = MessageDigest.getInstance(ALL[i].getAlgorithm());
+            byte[] buff = new byte[1024 * 1024];
+            for (int size; (size = inputStream.read(buff)) != -1; )
+                for (MessageDigest digest : digests)
+                    digest.update(buff, 0, size);
+            byte[][] hashes = new byte[ALL.length][];
+            for (int i = 0; i < ALL.length; i++)
+                hashes[i] = digests[i].digest();
+            return hashes;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Path> createFiles(int count, int sizeMB) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(1);
+        for (int i = 0; i < count; i++) {
+            File file = File.createTempFile("hash-benchmark", ".bin");
+            file.deleteOnExit();
+            try (OutputStream output = Files.newOutputStream(file.toPath())) {
+                for (int mb = 0; mb < sizeMB; mb++) {
+                    random.nextBytes(block);
+                    output.write(block);
+                }
+            }
+            paths.add(file.toPath());
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.netstorage.Utils.HashAlgorithm;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the FileHasher multi-digest hashing
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class FileHasherTest {
+
+    private final List<File> files = new ArrayList<>();
+
+    private Path createFile(byte[] content) throws IOException {
+        File file = File.createTempFile("hash", ".bin");
+        files.add(file);
+        Files.write(file.toPath(), content);
+        return file.toPath();
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : files)
+            file.delete();
+    }
+
+    private static void assertHashes(Map<HashAlgorithm, byte[]> hashes, byte[] data) throws IOException {
+        assertEquals(hashes.size(), 3);
+        for (HashAlgorithm algorithm : HashAlgorithm.values())
+            assertArrayEquals(Utils.computeHash(new ByteArrayInputStream(data), algorithm), hashes.get(algorithm));
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        byte[] data = random(200000, 1);
+        Path path = createFile(data);
+        FileHasher hasher = new FileHasher(HashAlgorithm.MD5, HashAlgorithm.SHA1, HashAlgorithm.SHA256);
+        hasher.setBufferSize(4096);
+
+        // read through the direct buffer
+        assertHashes(hasher.hash(path), data);
+
+        // read through mapped regions
+        hasher.setMapThreshold(0);
+        assertHashes(hasher.hash(path), data);
+
+        assertHashes(hasher.hash(new ByteArrayInputStream(data)), data);
+        assertHashes(hasher.hash(createFile(new byte[0])), new byte[0]);
+    }
+
+    @Test
+    public void testComputeHash() throws Exception {
+        assertEquals(Utils.encodeHex(Utils.computeHash(new ByteArrayInputStream("Lorem ipsum".getBytes("UTF-8")), HashAlgorithm.MD5)),
+                "0956d2fbd5d5c29844a4d21ed2f76e0c");
+    }
+
+    @Test
+    public void testHashAll() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            byte[] data = random(1000 * i, i);
+            contents.add(data);
+            paths.add(createFile(data));
+        }
+
+        FileHasher hasher = new FileHasher(HashAlgorithm.MD5, HashAlgorithm.SHA1, HashAlgorithm.SHA256);
+        hasher.setPool(new ForkJoinPool(3));
+        Map<Path, Map<HashAlgorithm, byte[]>> hashes = hasher.hashAll(paths);
+        assertEquals(new ArrayList<>(hashes.keySet()), paths);
+        for (int i = 0; i < paths.size(); i++)
+            assertHashes(hashes.get(paths.get(i)), contents.get(i));
+    }
+
+    @Test(expected = IOException.class)
+    public void testHashAllMissingFile() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        paths.add(createFile(new byte[10]));
+        paths.add(new File("/no/such/file").toPath());
+        new FileHasher(HashAlgorithm.MD5).hashAll(paths);
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        Path path = createFile(new byte[32 * 1024 * 1024]);
+        FileHasher hasher = new FileHasher(HashAlgorithm.SHA256);
+        hasher.setMapThreshold(0);
+        hasher.setBufferSize(4096);
+
+        Thread truncate = new Thread(() -> {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                Thread.sleep(5);
+                channel.truncate(0);
+            } catch (IOException | InterruptedException e) {
+                // the hash is not affected
+            }
+        });
+        truncate.start();
+        // depending on when the file was truncated the hash fails, or is that of the whole or the empty file; it never
+        // fails with the InternalError of a mapped page that no longer exists
+        try {
+            hasher.hash(path);
+        } catch (IOException e) {
+            assertEquals(e.getMessage(), "The file was truncated while it was being read");
+        } finally {
+            truncate.join();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.builders.APIEventStat;
+import com.akamai.builders.APIEventUpload;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Scanner;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the HttpClientTransport against a local http server
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class HttpClientTransportTest {
+
+    private HttpServer server;
+    private RecordingHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        handler = new RecordingHandler();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+    }
+
+    @Test
+    public void testExecuteGET() throws Exception {
+        handler.responseBody = "<stat/>".getBytes(StandardCharsets.UTF_8);
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("GET", url("/foobar"), new APIEventStat().withFormat("xml"));
+
+        try (InputStream result = new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"))) {
+            assertThat(new Scanner(result, "UTF-8").useDelimiter("\\Z").next(), is("<stat/>"));
+            assertThat(((SignerInputStream) result).getHeaderField("server"), is("AkamaiNetStorage"));
+        }
+        assertThat(handler.method, is("GET"));
+        assertThat(handler.action, is("action=stat&format=xml&version=1"));
+        assertNotNull(handler.authSign);
+    }
+
+    @Test
+    public void testExecutePUT() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("PUT", url("/foobar"), new APIEventUpload().ofSize(73L),
+                new ByteArrayInputStream(data), data.length, -1, -1);
+
+        try (InputStream result = new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"))) {
+            Utils.readToEnd(result);
+        }
+        assertThat(handler.method, is("PUT"));
+        assertThat(handler.contentLength, is("73"));
+        assertArrayEquals(data, handler.requestBody);
+        assertTrue(signer.getUploadedTime() != 0);
+    }
+
+    @Test
+    public void testExecutePUTFromPublisher() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+        PublisherInputStream content = new PublisherInputStream(HttpRequest.BodyPublishers.ofByteArray(data));
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("PUT", url("/foobar"), new APIEventUpload().ofSize(73L),
+                content, data.length, -1, -1);
+
+        try (InputStream result = new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"))) {
+            Utils.readToEnd(result);
+        }
+        // the client subscribed to the publisher itself
+        assertFalse(content.isSubscribed());
+        assertThat(handler.contentLength, is("73"));
+        assertArrayEquals(data, handler.requestBody);
+    }
+
+    @Test
+    public void testExecutePUTFromFile() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(13).nextBytes(data);
+        File file = File.createTempFile("upload", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+
+        // sent from the mapped regions of the file
+        try (MappedFileInputStream content = new MappedFileInputStream(file.toPath())) {
+            NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("PUT", url("/foobar"), new APIEventUpload().ofSize((long) data.length),
+                    content, data.length, -1, -1);
+            try (InputStream result = new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"))) {
+                Utils.readToEnd(result);
+            }
+        }
+        assertThat(handler.contentLength, is("100000"));
+        assertArrayEquals(data, handler.requestBody);
+    }
+
+    @Test
+    public void testExecuteError() throws Exception {
+        handler.responseCode = 403;
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("GET", url("/foobar"), new APIEventStat().withFormat("xml"));
+
+        NetStorageException nse = null;
+        try {
+            new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"));
+        } catch (NetStorageException e) {
+            nse = e;
+        }
+        assertNotNull(nse);
+        assertThat(nse.getMessage(), is("Communication Error"));
+        assertThat(nse.getResponseCode(), is(403));
+    }
+
+    @Test
+    public void testSlowUpload() throws Exception {
+        // 1.5s to send the body, three times the read timeout
+        InputStream slow = new InputStream() {
+            int remaining = 15;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining-- == 0)
+                    return -1;
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return 1;
+            }
+        };
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("PUT", url("/foobar"), new APIEventUpload().ofSize(15L),
+                slow, 15, -1, 500);
+
+        try (InputStream result = new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"))) {
+            Utils.readToEnd(result);
+        }
+        assertThat(handler.requestBody.length, is(15));
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        handler.responseBody = "<stat/>".getBytes(StandardCharsets.UTF_8);
+        handler.bodyDelay = 2000;
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("GET", url("/foobar"), new APIEventStat().withFormat("xml"),
+                null, -1, -1, 200);
+
+        // the headers arrive in time, the body does not
+        SocketTimeoutException timeout = null;
+        try (InputStream result = new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"))) {
+            Utils.readToEnd(result);
+        } catch (SocketTimeoutException e) {
+            timeout = e;
+        }
+        assertNotNull(timeout);
+    }
+
+    @Test
+    public void testResponseTimeout() throws Exception {
+        handler.headerDelay = 2000;
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("GET", url("/foobar"), new APIEventStat().withFormat("xml"),
+                null, -1, -1, 200);
+
+        NetStorageException nse = null;
+        try {
+            new HttpClientTransport().execute(signer, new DefaultCredential("www.example.com", "user1", "secret1"));
+        } catch (NetStorageException e) {
+            nse = e;
+        }
+        assertNotNull(nse);
+        assertTrue(nse.getCause() instanceof HttpTimeoutException);
+    }
+
+    @Test
+    public void testLimitedExecute() throws Exception {
+        LimitedHttpClientTransport transport = new LimitedHttpClientTransport(new InFlightLimiter(2, 60000));
+        DefaultCredential credential = new DefaultCredential("www.example.com", "user1", "secret1");
+
+        for (int i = 0; i < 3; i++) {
+            NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("GET", url("/foobar"), new APIEventStat().withFormat("xml"));
+            try (InputStream result = transport.execute(signer, credential)) {
+                Utils.readToEnd(result);
+                assertThat(((SignerInputStream) result).getHeaderField("Server"), is("AkamaiNetStorage"));
+            }
+        }
+        InFlightLimiter limiter = transport.getInFlightLimiter();
+        assertThat(limiter.getClientsCreated(), is(1L));
+        assertThat(limiter.getLeases(), is(3L));
+        assertThat(limiter.getLeasedCount(server.getAddress().getHostString()), is(0));
+        assertThat(limiter.getFailures(), is(0L));
+    }
+
+    private static class RecordingHandler implements HttpHandler {
+        int responseCode = 200;
+        byte[] responseBody = new byte[0];
+        String method;
+        String action;
+        String authSign;
+        String contentLength;
+        byte[] requestBody;
+        long headerDelay;
+        long bodyDelay;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            method = exchange.getRequestMethod();
+            action = exchange.getRequestHeaders().getFirst("X-Akamai-ACS-Action");
+            authSign = exchange.getRequestHeaders().getFirst("X-Akamai-ACS-Auth-Sign");
+            contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            try (InputStream input = exchange.getRequestBody()) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                for (int length; (length = input.read(buffer)) > 0; )
+                    body.write(buffer, 0, length);
+                requestBody = body.toByteArray();
+            }
+            sleep(headerDelay);
+            exchange.getResponseHeaders().add("Server", "AkamaiNetStorage");
+            exchange.sendResponseHeaders(responseCode, responseBody.length == 0 ? -1 : responseBody.length);
+            exchange.getResponseBody().flush();
+            sleep(bodyDelay);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(responseBody);
+            } catch (IOException e) {
+                // the client gave up
+            }
+        }
+
+        private static void sleep(long millis) throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
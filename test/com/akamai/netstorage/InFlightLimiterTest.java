@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the InFlightLimiter
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class InFlightLimiterTest {
+
+    @Test
+    public void testSharedClient() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(2, 60000);
+
+        InFlightLimiter.Lease first = limiter.acquire("www.example.com");
+        assertThat(limiter.getClientsCreated(), is(1L));
+        assertThat(limiter.getLeasedCount("www.example.com"), is(1));
+        limiter.release(first);
+        assertThat(limiter.getLeasedCount("www.example.com"), is(0));
+
+        InFlightLimiter.Lease second = limiter.acquire("www.example.com");
+        assertSame(first.getTransport(), second.getTransport());
+
+        // every host shares the client, within its own limit
+        InFlightLimiter.Lease other = limiter.acquire("other.example.com");
+        assertSame(first.getTransport(), other.getTransport());
+        assertThat(limiter.getClientsCreated(), is(1L));
+        assertThat(limiter.getLeases(), is(3L));
+        assertThat(limiter.getLeasedCount("www.example.com"), is(1));
+        assertThat(limiter.getLeasedCount("other.example.com"), is(1));
+    }
+
+    @Test
+    public void testMaxInFlightPerHost() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 60000);
+        limiter.setAcquireTimeout(50);
+
+        limiter.acquire("www.example.com");
+        NetStorageException nse = null;
+        try {
+            limiter.acquire("www.example.com");
+        } catch (NetStorageException e) {
+            nse = e;
+        }
+        assertNotNull(nse);
+        assertThat(limiter.getLeasedCount("www.example.com"), is(1));
+    }
+
+    @Test
+    public void testWait() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 60000);
+        InFlightLimiter.Lease first = limiter.acquire("www.example.com");
+
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                // release now
+            }
+            limiter.release(first);
+        });
+        release.start();
+        limiter.acquire("www.example.com");
+        release.join();
+        assertThat(limiter.getWaits(), is(1L));
+        assertThat(limiter.getLeases(), is(2L));
+    }
+
+    @Test
+    public void testRetireIdle() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(2, 10);
+
+        InFlightLimiter.Lease first = limiter.acquire("www.example.com");
+        Thread.sleep(20);
+        // a client with a lease is never retired
+        assertThat(limiter.retireIdle(), is(0));
+        limiter.release(first);
+        Thread.sleep(20);
+
+        assertThat(limiter.retireIdle(), is(1));
+        assertThat(limiter.getClientsRetired(), is(1L));
+        assertNotSame(first.getTransport(), limiter.acquire("www.example.com").getTransport());
+        assertThat(limiter.getClientsCreated(), is(2L));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 60000);
+
+        InFlightLimiter.Lease first = limiter.acquire("www.example.com");
+        limiter.invalidate(first);
+        assertThat(limiter.getFailures(), is(1L));
+        assertThat(limiter.getClientsRetired(), is(0L));
+        assertThat(limiter.getLeasedCount("www.example.com"), is(0));
+        assertSame(first.getTransport(), limiter.acquire("www.example.com").getTransport());
+    }
+}
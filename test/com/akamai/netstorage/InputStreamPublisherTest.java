@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the InputStreamPublisher and PublisherInputStream Flow adapters
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class InputStreamPublisherTest {
+
+    private static final byte[] DATA = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class RecordingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch done = new CountDownLatch(1);
+        Flow.Subscription subscription;
+        int items;
+        boolean complete;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            items++;
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            received.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        InputStreamPublisher publisher = new InputStreamPublisher(() -> new ByteArrayInputStream(DATA), DIRECT, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertThat(subscriber.items, is(0));
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.items, is(1));
+        assertThat(subscriber.received.size(), is(10));
+
+        subscriber.subscription.request(2);
+        assertThat(subscriber.items, is(3));
+        assertFalse(subscriber.complete);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.complete);
+        assertArrayEquals(DATA, subscriber.received.toByteArray());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        InputStreamPublisher publisher = new InputStreamPublisher(() -> new ByteArrayInputStream(DATA), DIRECT, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(5);
+        assertThat(subscriber.items, is(1));
+        assertFalse(subscriber.complete);
+    }
+
+    @Test
+    public void testSingleSubscriber() throws Exception {
+        InputStreamPublisher publisher = new InputStreamPublisher(() -> new ByteArrayInputStream(DATA), DIRECT, 10);
+        publisher.subscribe(new RecordingSubscriber());
+        RecordingSubscriber second = new RecordingSubscriber();
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testOpenFailure() throws Exception {
+        InputStreamPublisher publisher = new InputStreamPublisher(() -> {
+            throw new NetStorageException("Communication Error", 404);
+        }, DIRECT, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.error instanceof NetStorageException);
+    }
+
+    @Test
+    public void testPublisherInputStream() throws Exception {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        // closed once the content has been submitted, to complete the stream
+        SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>();
+        try (PublisherInputStream stream = new PublisherInputStream(publisher, 2)) {
+            // the stream subscribes on the first read
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[7];
+                try {
+                    for (int length; (length = stream.read(buffer)) > 0; )
+                        received.write(buffer, 0, length);
+                } catch (Exception e) {
+                    fail(e.getMessage());
+                }
+            });
+            reader.start();
+            while (publisher.getNumberOfSubscribers() == 0)
+                Thread.sleep(1);
+
+            for (int i = 0; i < DATA.length; i += 10)
+                publisher.submit(ByteBuffer.wrap(DATA, i, Math.min(10, DATA.length - i)));
+            publisher.close();
+            reader.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        assertArrayEquals(DATA, received.toByteArray());
+    }
+}
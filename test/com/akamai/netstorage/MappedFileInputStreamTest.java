@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the MappedFileInputStream and MappedFilePublisher
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class MappedFileInputStreamTest {
+
+    private static final byte[] DATA = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("mapped", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), DATA);
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Flow.Subscription subscription;
+        int items;
+        boolean complete;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            items++;
+            assertTrue(item.isReadOnly());
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            received.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        try (MappedFileInputStream stream = new MappedFileInputStream(file.toPath())) {
+            assertThat(stream.available(), is(DATA.length));
+            assertThat(stream.read(), is((int) 'L'));
+            assertThat(stream.skip(5), is(5L));
+
+            byte[] buffer = new byte[5];
+            assertThat(stream.read(buffer, 0, 5), is(5));
+            assertArrayEquals(Arrays.copyOfRange(DATA, 6, 11), buffer);
+            assertThat(stream.getPosition(), is(11L));
+
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            assertThat(stream.transferTo(rest), is((long) DATA.length - 11));
+            assertArrayEquals(Arrays.copyOfRange(DATA, 11, DATA.length), rest.toByteArray());
+            assertThat(stream.read(), is(-1));
+            assertThat(stream.read(buffer, 0, 5), is(-1));
+        }
+    }
+
+    @Test
+    public void testRegion() throws Exception {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (InputStream stream = new MappedFileInputStream(channel, 6, 5)) {
+            assertThat(new String(stream.readAllBytes(), StandardCharsets.UTF_8), is("ipsum"));
+        }
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        File empty = File.createTempFile("mapped", ".txt");
+        empty.deleteOnExit();
+        try (MappedFileInputStream stream = new MappedFileInputStream(empty.toPath())) {
+            assertThat(stream.read(), is(-1));
+            assertThat(stream.transferTo(new ByteArrayOutputStream()), is(0L));
+        }
+    }
+
+    @Test
+    public void testPublisher() throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedFilePublisher publisher = new MappedFilePublisher(channel, 0, DATA.length, 10);
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+            assertThat(subscriber.items, is(0));
+
+            subscriber.subscription.request(2);
+            assertThat(subscriber.items, is(2));
+            assertThat(subscriber.received.size(), is(20));
+            assertFalse(subscriber.complete);
+
+            subscriber.subscription.request(Long.MAX_VALUE);
+            assertTrue(subscriber.complete);
+            assertNull(subscriber.error);
+            assertArrayEquals(DATA, subscriber.received.toByteArray());
+
+            // every subscriber gets its own pass over the file
+            RecordingSubscriber second = new RecordingSubscriber();
+            publisher.subscribe(second);
+            second.subscription.request(Long.MAX_VALUE);
+            assertArrayEquals(DATA, second.received.toByteArray());
+        }
+    }
+
+    @Test
+    public void testPublisherCancel() throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            new MappedFilePublisher(channel, 0, DATA.length, 10).subscribe(subscriber);
+            subscriber.subscription.request(1);
+            subscriber.subscription.cancel();
+            subscriber.subscription.request(5);
+            assertThat(subscriber.items, is(1));
+            assertFalse(subscriber.complete);
+        }
+    }
+
+    @Test
+    public void testDigests() throws Exception {
+        byte[] expected = Utils.computeHash(new ByteArrayInputStream(DATA), Utils.HashAlgorithm.MD5);
+
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        try (MappedFileInputStream stream = new MappedFileInputStream(file.toPath())) {
+            stream.setDigests(digest);
+            stream.read();
+            stream.transferTo(new ByteArrayOutputStream());
+        }
+        assertArrayEquals(expected, digest.digest());
+
+        // a resubscription starts the digest over
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedFilePublisher publisher = new MappedFilePublisher(channel, 0, DATA.length, 10, digest);
+            for (int i = 0; i < 2; i++) {
+                RecordingSubscriber subscriber = new RecordingSubscriber();
+                publisher.subscribe(subscriber);
+                subscriber.subscription.request(Long.MAX_VALUE);
+            }
+        }
+        assertArrayEquals(expected, digest.digest());
+
+        DigestUploadSource source = new DigestUploadSource(file.toPath(), Utils.HashAlgorithm.MD5, Utils.HashAlgorithm.SHA256);
+        for (boolean mapped : new boolean[]{true, false}) {
+            try (InputStream stream = source.open(mapped)) {
+                assertEquals(stream instanceof MappedFileInputStream, mapped);
+                stream.readAllBytes();
+            }
+            assertArrayEquals(expected, source.getDigest(Utils.HashAlgorithm.MD5));
+        }
+        assertArrayEquals(expected, source.getDigest(Utils.HashAlgorithm.MD5));
+        assertArrayEquals(Utils.computeHash(new ByteArrayInputStream(DATA), Utils.HashAlgorithm.SHA256),
+                source.getDigest(Utils.HashAlgorithm.SHA256));
+        assertNull(source.getDigest(Utils.HashAlgorithm.SHA1));
+    }
+
+    @Test
+    public void testUploadSource() throws Exception {
+        UploadSource source = UploadSource.of(file);
+        assertTrue(source.isRepeatable());
+        for (boolean mapped : new boolean[]{true, false}) {
+            try (InputStream stream = source.open(mapped)) {
+                assertEquals(stream instanceof MappedFileInputStream, mapped);
+                assertArrayEquals(DATA, stream.readAllBytes());
+            }
+        }
+        // only the transports that send the mapped regions are given a mapped file
+        assertFalse(new HttpURLConnectionTransport().isMappedUploadSupported());
+        assertTrue(new HttpClientTransport().isMappedUploadSupported());
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        File truncated = File.createTempFile("truncated", ".bin");
+        try {
+            Files.write(truncated.toPath(), new byte[64 * 1024]);
+            try (MappedFileInputStream stream = new MappedFileInputStream(truncated.toPath())) {
+                stream.read();
+                try (FileChannel channel = FileChannel.open(truncated.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                }
+                stream.readAllBytes();
+                fail("expected IOException");
+            } catch (IOException e) {
+                assertThat(e.getMessage(), is("The file was truncated while it was being read"));
+            }
+        } finally {
+            truncated.delete();
+        }
+    }
+}
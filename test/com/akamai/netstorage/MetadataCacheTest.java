@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the MetadataCache of stat and dir responses
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class MetadataCacheTest {
+
+    private UploadSyncTest.MemoryTransport transport;
+    private NetStorage netStorage;
+    private MetadataCache cache;
+
+    @Before
+    public void setUp() {
+        transport = new UploadSyncTest.MemoryTransport();
+        transport.put("/1234/site/index.html", "index", 1400000000);
+        transport.put("/1234/site/img/logo.jpg", "logo", 1400000000);
+
+        cache = new MetadataCache();
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport(transport);
+        netStorage.setRetryPolicy(RetryPolicy.none());
+        netStorage.setMetadataCache(cache);
+    }
+
+    private long requests(String action) {
+        return transport.actions.stream().filter(request -> request.startsWith(action + " ")).count();
+    }
+
+    @Test
+    public void testHitAndMiss() throws Exception {
+        assertEquals(netStorage.statEntry("/1234/site/index.html").getSize(), 5);
+        assertEquals(netStorage.statEntry("/1234/site/index.html").getSize(), 5);
+        List<DirEntry> entries = netStorage.dirEntries("/1234/site");
+        assertSame(netStorage.dirEntries("/1234/site"), entries);
+
+        assertEquals(requests("stat"), 1);
+        assertEquals(requests("dir"), 1);
+        assertEquals(cache.getHitCount(), 2);
+        assertEquals(cache.getMissCount(), 2);
+        assertEquals(cache.size(), 2);
+        try {
+            entries.clear();
+            fail("Expected a cached listing to be read only");
+        } catch (UnsupportedOperationException e) {
+            // shared by every caller
+        }
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try {
+                netStorage.statEntry("/1234/site/new.html");
+                fail("Expected a 404");
+            } catch (NetStorageException e) {
+                assertEquals(e.getResponseCode(), 404);
+            }
+        }
+        assertEquals(requests("stat"), 1);
+
+        // creating the file forgets the 404
+        netStorage.upload("/1234/site/new.html", new ByteArrayInputStream("new".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(netStorage.statEntry("/1234/site/new.html").getSize(), 3);
+        assertEquals(requests("stat"), 2);
+
+        cache.setNegativeTtl(0);
+        for (int i = 0; i < 2; i++) {
+            try {
+                netStorage.statEntry("/1234/site/other.html");
+                fail("Expected a 404");
+            } catch (NetStorageException e) {
+                assertEquals(e.getResponseCode(), 404);
+            }
+        }
+        assertEquals(requests("stat"), 4);
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        netStorage.statEntry("/1234/site/index.html");
+        netStorage.dirEntries("/1234/site");
+        netStorage.dirEntries("/1234/site/img");
+
+        // the file and the listing of its directory are read again, the other directory is not
+        netStorage.mtime("/1234/site/index.html", new Date(1500000000000L));
+        assertEquals(netStorage.statEntry("/1234/site/index.html").getMtime(), 1500000000);
+        netStorage.dirEntries("/1234/site");
+        netStorage.dirEntries("/1234/site/img");
+        assertEquals(requests("stat"), 2);
+        assertEquals(requests("dir"), 3);
+
+        netStorage.delete("/1234/site/index.html");
+        assertFalse(netStorage.dirEntries("/1234/site").stream().anyMatch(entry -> entry.getName().equals("index.html")));
+        assertEquals(requests("dir"), 4);
+
+        // as after a rename, everything under the directory is forgotten
+        netStorage.statEntry("/1234/site/img/logo.jpg");
+        cache.invalidateTree("/1234/site/img");
+        netStorage.statEntry("/1234/site/img/logo.jpg");
+        netStorage.dirEntries("/1234/site/img");
+        assertEquals(requests("stat"), 4);
+        assertEquals(requests("dir"), 5);
+    }
+
+    @Test
+    public void testTtlAndEviction() throws Exception {
+        cache.setTtl(0);
+        netStorage.statEntry("/1234/site/index.html");
+        netStorage.statEntry("/1234/site/index.html");
+        assertEquals(requests("stat"), 2);
+
+        cache.setTtl(60000);
+        cache.setMaxEntries(2);
+        netStorage.statEntry("/1234/site/index.html");
+        netStorage.statEntry("/1234/site/img");
+        // the least recently used entry is evicted
+        netStorage.statEntry("/1234/site/index.html");
+        netStorage.statEntry("/1234/site/img/logo.jpg");
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.getEvictionCount(), 1);
+        netStorage.statEntry("/1234/site/index.html");
+        assertEquals(requests("stat"), 5);
+        netStorage.statEntry("/1234/site/img");
+        assertEquals(requests("stat"), 6);
+
+        cache.clear();
+        assertEquals(cache.size(), 0);
+    }
+}
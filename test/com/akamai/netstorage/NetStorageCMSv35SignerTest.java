@@ -20,18 +20,30 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.*;
@@ -114,6 +126,55 @@ public class NetStorageCMSv35SignerTest {
                 is("jKA6Rh9lCotwbE6BRPZve1fOl67yqKnZ+Z0b048jwYo="));
     }
 
+    /**
+     * The keyed hash of the sign data, computed from scratch as the signer did before the Macs were reused.
+     */
+    private static String referenceSign(String authData, String path, String action, String key) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String signData = authData + path + "\nx-akamai-acs-action:" + action + "\n";
+        return Base64.getEncoder().encodeToString(mac.doFinal(signData.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testGetAuthSignHeaderValueNonAscii() throws Exception {
+        NetStorageCMSv35Signer apiEvent = new NetStorageCMSv35Signer("GET", new URL("http", "www.example.com", "/1234/caf\u00e9.html"), new APIEventDownload());
+        String authData = "5, 0.0.0.0, 0.0.0.0, 1384128000, 1234, user1";
+        assertThat(apiEvent.getAuthSignHeaderValue("version=1&action=download", authData, new DefaultCredential("www.example.com", "user1", "secret1")),
+                is(referenceSign(authData, "/1234/caf\u00e9.html", "version=1&action=download", "secret1")));
+    }
+
+    @Test
+    public void testGetAuthSignHeaderValueConcurrent() throws Exception {
+        NetStorageCMSv35Signer apiEvent = createAPIConnection();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String key = "secret" + (i % 3);
+                String authData = "5, 0.0.0.0, 0.0.0.0, 1384128000, " + i + ", user1";
+                // long actions grow the reused buffers
+                String action = "version=1&action=download" + (i % 2 == 0 ? "" : "&x=" + String.join("", Collections.nCopies(i * 10, "y")));
+                results.add(executor.submit(() -> apiEvent.getAuthSignHeaderValue(action, authData, new DefaultCredential("www.example.com", "user1", key))
+                        .equals(referenceSign(authData, "/foobar", action, key))));
+            }
+            for (Future<Boolean> result : results)
+                assertTrue(result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGetAuthDataHeaderValueNonce() throws Exception {
+        NetStorageCMSv35Signer apiEvent = createAPIConnection();
+        DefaultCredential credential = new DefaultCredential("www.example.com", "user1", "secret1");
+        Set<String> nonces = new HashSet<>();
+        for (int i = 0; i < 100; i++)
+            nonces.add(apiEvent.getAuthDataHeaderValue(credential).split(", ")[4]);
+        assertTrue(nonces.size() > 95);
+    }
+
     @Test
     public void testComputeHeaders() throws Exception {
         NetStorageCMSv35Signer apiEvent = createAPIConnection();
@@ -224,6 +285,27 @@ public class NetStorageCMSv35SignerTest {
         assertArrayEquals(data, ((ByteArrayOutputStream) httpURLConnection.getOutputStream()).toByteArray());
     }
 
+    @Test
+    public void testExecutePUTFromFile() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+        File file = File.createTempFile("upload", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+
+        NetStorageCMSv35Signer netStorageCMSv35Signer = createAPIConnection();
+        HttpURLConnectionTest httpURLConnection = URLStreamHandlerFactoryTest.addURLConnection(netStorageCMSv35Signer.getUrl());
+        httpURLConnection.setResponseCode(HttpURLConnection.HTTP_OK);
+        netStorageCMSv35Signer.setMethod("PUT");
+        netStorageCMSv35Signer.setUploadSize(data.length);
+        MappedFileInputStream upload = new MappedFileInputStream(file.toPath());
+        netStorageCMSv35Signer.setUploadStream(upload);
+
+        netStorageCMSv35Signer.execute(new DefaultCredential("www.example.com", "user1", "secret1"));
+        assertThat(httpURLConnection.getContentLengthLong(), is(73L));
+        assertArrayEquals(data, ((ByteArrayOutputStream) httpURLConnection.getOutputStream()).toByteArray());
+        assertFalse(upload.getChannel().isOpen());
+    }
+
     @Test
     public void testExecutePUTWithNoContentLength() throws Exception {
         byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
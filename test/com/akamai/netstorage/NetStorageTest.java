@@ -16,23 +16,34 @@
 package com.akamai.netstorage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 
+import com.akamai.auth.ClientCredential;
 import org.junit.Test;
 
 /**
@@ -116,6 +127,39 @@ public class NetStorageTest {
         assertEquals(connection.getContentLength(), -1);
     }
 
+    @Test
+    public void testDownloadRange() throws Exception {
+        String path = "/foobar";
+        NetStorage ns = createNetstorage(path);
+        HttpURLConnectionTest connection = URLStreamHandlerFactoryTest.getURLConnection(ns.getNetstorageUri(path));
+        connection.setResponseCode(HttpURLConnection.HTTP_PARTIAL);
+        Map<String, String> headers = connection.getRequestHeaders();
+
+        ns.download(path, 100, 199);
+        assertEquals(headers.size(), 5);
+        assertEquals(headers.get("X-Akamai-ACS-Action"), "action=download&version=1");
+        assertEquals(headers.get("Range"), "bytes=100-199");
+    }
+
+    @Test
+    public void testDownloadPath() throws Exception {
+        final byte[] data = new byte[1000000];
+        new Random(1).nextBytes(data);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setTransport((request, credential) -> new ByteArrayInputStream(data));
+
+        File tmpFile = File.createTempFile(UUID.randomUUID().toString(), ".bin");
+        try {
+            try (FileOutputStream tmpOutputStream = new FileOutputStream(tmpFile)) {
+                tmpOutputStream.write(new byte[2000000]);
+            }
+            assertTrue(ns.download("/foobar", tmpFile.toPath()));
+            assertTrue(Arrays.equals(Files.readAllBytes(tmpFile.toPath()), data));
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
     @Test
     public void testDu() throws Exception {
         String path = "/foobar";
@@ -305,6 +349,215 @@ public class NetStorageTest {
         assertEquals(connection.getChunkedLength(), 1024 * 1024);
     }
 
+    @Test
+    public void testTransport() throws Exception {
+        final List<NetStorageCMSv35Signer> requests = new ArrayList<>();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        assertTrue(ns.getTransport() instanceof HttpURLConnectionTransport);
+
+        ns.setTransport(new NetStorageTransport() {
+            @Override
+            public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) {
+                requests.add(request);
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        });
+
+        ns.mkdir("/foobar");
+        assertEquals(requests.size(), 1);
+        assertEquals(requests.get(0).getMethod(), "PUT");
+        assertEquals(requests.get(0).getUrl().toString(), "https://www.example.com/foobar");
+        assertEquals(requests.get(0).getActionHeaderValue(), "action=mkdir&version=1");
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        final List<NetStorageCMSv35Signer> requests = new ArrayList<>();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.getRetryPolicy().setBaseDelay(1);
+        ns.setTransport(new NetStorageTransport() {
+            @Override
+            public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+                requests.add(request);
+                if (requests.size() < 3)
+                    throw new NetStorageException("Service Unavailable", 503);
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        });
+
+        ns.mkdir("/foobar");
+        assertEquals(requests.size(), 3);
+        assertNotSame(requests.get(0), requests.get(1));
+        assertEquals(ns.getRetryPolicy().getRetryCount(), 2);
+    }
+
+    @Test
+    public void testRetryNotFound() throws Exception {
+        final List<NetStorageCMSv35Signer> requests = new ArrayList<>();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setTransport(new NetStorageTransport() {
+            @Override
+            public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+                requests.add(request);
+                throw new NetStorageException("Not Found", 404);
+            }
+        });
+
+        try {
+            ns.mkdir("/foobar");
+            fail("expected NetStorageException");
+        } catch (NetStorageException e) {
+            assertEquals(e.getResponseCode(), 404);
+        }
+        assertEquals(requests.size(), 1);
+    }
+
+    @Test
+    public void testRetryUploadStream() throws Exception {
+        final List<NetStorageCMSv35Signer> requests = new ArrayList<>();
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.getRetryPolicy().setBaseDelay(1);
+        ns.setTransport(new NetStorageTransport() {
+            @Override
+            public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+                requests.add(request);
+                throw new NetStorageException("Service Unavailable", 503);
+            }
+        });
+
+        try {
+            ns.upload("/foobar", new ByteArrayInputStream(new byte[] {1, 2, 3}));
+            fail("expected NetStorageException");
+        } catch (NetStorageException e) {
+            assertEquals(e.getResponseCode(), 503);
+        }
+        // a caller supplied stream cannot be replayed
+        assertEquals(requests.size(), 1);
+    }
+
+    @Test
+    public void testRetryUploadFile() throws Exception {
+        final byte[] data = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+        final List<byte[]> bodies = new ArrayList<>();
+        File tmpFile = File.createTempFile(UUID.randomUUID().toString(), ".txt");
+        try {
+            try (FileOutputStream tmpOutputStream = new FileOutputStream(tmpFile)) {
+                tmpOutputStream.write(data);
+            }
+
+            NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+            ns.getRetryPolicy().setBaseDelay(1);
+            ns.setTransport(new NetStorageTransport() {
+                @Override
+                public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+                    try {
+                        bodies.add(request.getUploadStream().readAllBytes());
+                    } catch (IOException e) {
+                        throw new NetStorageException(e);
+                    }
+                    if (bodies.size() == 1)
+                        throw new NetStorageException("Communication Error", new SocketException("Connection reset"));
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            });
+
+            assertTrue(ns.upload("/foobar", tmpFile));
+            assertEquals(bodies.size(), 2);
+            assertTrue(Arrays.equals(bodies.get(0), data));
+            assertTrue(Arrays.equals(bodies.get(1), data));
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    @Test
+    public void testSinglePassUpload() throws Exception {
+        final byte[] data = "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8);
+        final List<String> actions = new ArrayList<>();
+        final String[] md5 = new String[1];
+        File tmpFile = File.createTempFile(UUID.randomUUID().toString(), ".txt");
+        try {
+            try (FileOutputStream tmpOutputStream = new FileOutputStream(tmpFile)) {
+                tmpOutputStream.write(data);
+            }
+
+            NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+            ns.setSinglePassUpload(true);
+            ns.setTransport(new NetStorageTransport() {
+                @Override
+                public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+                    String action = request.getActionHeaderValue();
+                    actions.add(action);
+                    if (action.startsWith("action=stat")) {
+                        String xml = String.format("<stat directory=\"/\"><file type=\"file\" name=\"foobar\" size=\"%d\" md5=\"%s\"/></stat>",
+                                data.length, md5[0]);
+                        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+                    }
+                    try {
+                        md5[0] = Utils.encodeHex(Utils.computeHash(request.getUploadStream(), Utils.HashAlgorithm.MD5));
+                    } catch (IOException e) {
+                        throw new NetStorageException(e);
+                    }
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            });
+
+            assertTrue(ns.upload("/foobar", tmpFile));
+            assertEquals(actions.size(), 2);
+            assertTrue(actions.get(0).startsWith("action=upload"));
+            assertFalse(actions.get(0).contains("sha256"));
+            assertTrue(actions.get(1).startsWith("action=stat"));
+
+            // the remote file does not match what was sent
+            ns.setTransport(new NetStorageTransport() {
+                @Override
+                public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+                    if (request.getActionHeaderValue().startsWith("action=stat"))
+                        return new ByteArrayInputStream(String.format("<stat><file type=\"file\" name=\"foobar\" size=\"%d\" md5=\"%s\"/></stat>",
+                                data.length, "00000000000000000000000000000000").getBytes(StandardCharsets.UTF_8));
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+            });
+            NetStorageException nse = null;
+            try {
+                ns.upload("/foobar", tmpFile);
+            } catch (NetStorageException e) {
+                nse = e;
+            }
+            assertNotNull(nse);
+            assertTrue(nse.getMessage().startsWith("Checksum mismatch for /foobar"));
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    @Test
+    public void testUploadChecksumCache() throws Exception {
+        final List<String> actions = new ArrayList<>();
+        File tmpFile = File.createTempFile(UUID.randomUUID().toString(), ".txt");
+        File index = File.createTempFile(UUID.randomUUID().toString(), ".idx");
+        try (ChecksumCache cache = new ChecksumCache(index)) {
+            Files.write(tmpFile.toPath(), "Lorem ipsum dolor sit amet".getBytes(StandardCharsets.UTF_8));
+
+            NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+            ns.setChecksumCache(cache);
+            ns.setTransport((request, credential) -> {
+                actions.add(request.getActionHeaderValue());
+                return new ByteArrayInputStream(new byte[0]);
+            });
+
+            assertTrue(ns.upload("/foobar", tmpFile));
+            assertTrue(ns.upload("/foobar", tmpFile));
+            assertEquals(cache.getMissCount(), 1);
+            assertEquals(cache.getHitCount(), 1);
+            assertEquals(actions.get(0), actions.get(1));
+            assertTrue(actions.get(0).contains("sha256=16aba5393ad72c0041f5600ad3c2c52ec437a2f0c7fc08fadfc3c0fe9641d7a3"));
+        } finally {
+            tmpFile.delete();
+            index.delete();
+        }
+    }
+
     @Test(expected = FileNotFoundException.class)
     public void testUploadFile() throws Exception {
 
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test class for the parallel range download
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ParallelDownloadTest {
+
+    private File target;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        target = File.createTempFile("download", ".bin");
+        target.delete();
+        content = new byte[100001];
+        new Random(7).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() {
+        target.delete();
+        new File(target.getPath() + ResumableDownload.PART_SUFFIX).delete();
+    }
+
+    private NetStorage createNetStorage(ResumableDownloadTest.FileTransport transport) {
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setTransport(transport);
+        return ns;
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        ResumableDownloadTest.FileTransport transport = new ResumableDownloadTest.FileTransport(content);
+        ParallelDownload download = new ParallelDownload(createNetStorage(transport), 25000, 3);
+
+        assertEquals(download.download("/1234/file.bin", target), content.length);
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+        assertEquals(target.lastModified(), transport.mtime * 1000);
+        assertEquals(new HashSet<>(transport.ranges), new HashSet<>(Arrays.asList(
+                "bytes=0-24999", "bytes=25000-49999", "bytes=50000-74999", "bytes=75000-99999", "bytes=100000-100000")));
+    }
+
+    @Test
+    public void testRangeIgnored() throws Exception {
+        ResumableDownloadTest.FileTransport transport = new ResumableDownloadTest.FileTransport(content);
+        transport.ignoreRange = true;
+        ParallelDownload download = new ParallelDownload(createNetStorage(transport), 25000, 3);
+
+        assertEquals(download.download("/1234/file.bin", target), content.length);
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+        // the whole file was sent for the first range, so no other range was requested
+        assertEquals(transport.ranges, Arrays.asList("bytes=0-24999"));
+    }
+
+    @Test
+    public void testRetryRange() throws Exception {
+        ResumableDownloadTest.FileTransport transport = new ResumableDownloadTest.FileTransport(content);
+        transport.failAfter = 10000;
+        ParallelDownload download = new ParallelDownload(createNetStorage(transport), 50001, 1);
+        download.setBufferSize(1000);
+
+        assertEquals(download.download("/1234/file.bin", target), content.length);
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+
+        // whichever range is requested first fails; only its remainder is requested again
+        assertEquals(transport.ranges.size(), 3);
+        String[] bounds = transport.ranges.get(0).substring("bytes=".length()).split("-");
+        assertEquals(transport.ranges.get(1), String.format("bytes=%d-%s", Long.parseLong(bounds[0]) + 10000, bounds[1]));
+        assertTrue(transport.ranges.containsAll(Arrays.asList("bytes=0-50000", "bytes=50001-100000")));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        ResumableDownloadTest.FileTransport transport = new ResumableDownloadTest.FileTransport(content);
+        transport.failAfter = 0;
+        ParallelDownload download = new ParallelDownload(createNetStorage(transport), 50000, 1);
+        download.setMaxPartRetries(0);
+
+        try {
+            download.download("/1234/file.bin", target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // the ranges after the failed one are never requested
+            assertEquals(transport.ranges.size(), 1);
+            assertFalse(target.exists());
+            assertFalse(new File(target.getPath() + ResumableDownload.PART_SUFFIX).exists());
+        }
+    }
+}
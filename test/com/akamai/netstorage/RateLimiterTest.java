@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+/**
+ * Unit test class for the request rate limiter
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testCpCode() {
+        assertEquals(RateLimiter.getCpCode("/1234/dir/file.txt"), "1234");
+        assertEquals(RateLimiter.getCpCode("1234/file.txt"), "1234");
+        assertEquals(RateLimiter.getCpCode("/1234"), "1234");
+        assertNull(RateLimiter.getCpCode("/"));
+        assertNull(RateLimiter.getCpCode(null));
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit("1234", null, 1, 3);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++)
+            limiter.acquire("1234", "upload");
+        // other CP codes are not limited
+        for (int i = 0; i < 10; i++)
+            limiter.acquire("5678", "upload");
+        assertTrue(System.nanoTime() - start < 500000000L);
+        assertEquals(limiter.getThrottledCount(), 0);
+    }
+
+    @Test
+    public void testRate() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(null, "dir", 20, 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+            limiter.acquire("1234", "dir");
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        // the first request uses the burst, the next 4 are spaced 50ms apart
+        assertTrue("elapsed " + elapsed, elapsed >= 190);
+        assertEquals(limiter.getThrottledCount(), 4);
+
+        limiter.removeLimit(null, "dir");
+        start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+            limiter.acquire("1234", "dir");
+        assertTrue(System.nanoTime() - start < 100000000L);
+    }
+
+    @Test
+    public void testNetStorage() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit("1234", "mkdir", 10, 1);
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setRateLimiter(limiter);
+        ns.setTransport((request, credential) -> new ByteArrayInputStream(new byte[0]));
+
+        ns.mkdir("/1234/a");
+        ns.mkdir("/1234/b");
+        ns.mkdir("/5678/c");
+        ns.delete("/1234/d");
+        assertEquals(limiter.getThrottledCount(), 1);
+        assertTrue(limiter.getWaitTime() >= 50);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the stat, dir and du ResponseParser and its typed results
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ResponseParserTest {
+
+    private static InputStream xml(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParseDir() throws Exception {
+        List<DirEntry> entries = ResponseParser.parseEntries(xml("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n" +
+                "<stat directory=\"/1234/site\">\n" +
+                "<file type=\"file\" name=\"index.html\" size=\"1024\" md5=\"0123456789abcdef0123456789abcdef\" mtime=\"1400000000\"/>\n" +
+                "<file type=\"dir\" name=\"css\" mtime=\"1400000001\" implicit=\"true\"/>\n" +
+                "<file type=\"symlink\" name=\"latest\" target=\"index.html\" mtime=\"1400000002\"/>\n" +
+                "</stat>"), "/1234/site", "dir");
+
+        assertEquals(entries.size(), 3);
+        DirEntry file = entries.get(0);
+        assertEquals(file.getType(), DirEntry.Type.FILE);
+        assertTrue(file.isFile());
+        assertEquals(file.getPath(), "/1234/site/index.html");
+        assertEquals(file.getSize(), 1024);
+        assertEquals(file.getMtime(), 1400000000);
+        assertEquals(file.getMd5(), "0123456789abcdef0123456789abcdef");
+        assertNull(file.getSha256());
+        assertFalse(file.isImplicit());
+
+        DirEntry dir = entries.get(1);
+        assertTrue(dir.isDirectory());
+        assertTrue(dir.isImplicit());
+        assertEquals(dir.getSize(), -1);
+
+        DirEntry symlink = entries.get(2);
+        assertTrue(symlink.isSymlink());
+        assertEquals(symlink.getTarget(), "index.html");
+        assertEquals(symlink.getDirectory(), "/1234/site");
+    }
+
+    @Test
+    public void testParseStat() throws Exception {
+        NetStorage netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport((request, credential) -> xml("<stat directory=\"/1234/site\">" +
+                "<file type=\"file\" name=\"a.txt\" size=\"12\" mtime=\"1400000000\" sha256=\"ff\"/></stat>"));
+
+        DirEntry entry = netStorage.statEntry("/1234/site/a.txt");
+        assertEquals(entry.getPath(), "/1234/site/a.txt");
+        assertEquals(entry.getSize(), 12);
+        assertEquals(entry.getSha256(), "ff");
+    }
+
+    @Test
+    public void testParseDu() throws Exception {
+        NetStorage netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport((request, credential) -> xml("<du directory=\"/1234/site\">" +
+                "<du-info files=\"12345\" bytes=\"9876543210\"/></du>"));
+
+        DuInfo du = netStorage.duInfo("/1234/site");
+        assertEquals(du.getDirectory(), "/1234/site");
+        assertEquals(du.getFiles(), 12345);
+        assertEquals(du.getBytes(), 9876543210L);
+    }
+
+    @Test
+    public void testLazyDecoding() throws Exception {
+        // a bad value only fails when it is read, and then falls back to the default
+        DirEntry entry = ResponseParser.parseEntries(xml("<stat directory=\"/1234\"><file type=\"file\" name=\"a\" size=\"x\"/></stat>"),
+                "/1234", "dir").get(0);
+        assertEquals(entry.getSize(), -1);
+        assertEquals(entry.getMtime(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws Exception {
+        ResponseParser.parseEntries(xml("<stat directory=\"/1234\"><file name=\"a\""), "/1234", "dir");
+    }
+
+    @Test(expected = IOException.class)
+    public void testNoDuInfo() throws Exception {
+        ResponseParser.parseDu(xml("<du directory=\"/1234\"/>"), "/1234");
+    }
+
+    @Test(expected = IOException.class)
+    public void testExternalEntity() throws Exception {
+        ResponseParser.parseEntries(xml("<?xml version=\"1.0\"?><!DOCTYPE stat [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>" +
+                "<stat directory=\"/1234\"><file type=\"file\" name=\"&x;\"/></stat>"), "/1234", "dir");
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.akamai.auth.ClientCredential;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test class for the resumable download
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class ResumableDownloadTest {
+
+    /**
+     * Serves stat and (range) download requests for a single file, optionally breaking the connection after a number
+     * of bytes.
+     */
+    static class FileTransport implements NetStorageTransport {
+        byte[] content;
+        long mtime = 1400000000;
+        long failAfter = -1;
+        boolean ignoreRange;
+        final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+
+        FileTransport(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public synchronized InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+            String action = request.getActionHeaderValue();
+            if (action.startsWith("action=stat")) {
+                String xml = String.format("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<stat directory=\"/1234\">\n"
+                        + "<file type=\"file\" name=\"file.bin\" mtime=\"%d\" size=\"%d\"/>\n</stat>", mtime, content.length);
+                return new ByteArrayInputStream(xml.getBytes(StandardCharsets.ISO_8859_1));
+            }
+
+            Map<String, String> headers = request.getRequestHeaders();
+            String rangeHeader = headers != null ? headers.get("Range") : null;
+            ranges.add(rangeHeader);
+            int start = 0;
+            int end = content.length - 1;
+            if (rangeHeader != null && !ignoreRange) {
+                String[] bounds = rangeHeader.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty())
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+
+            final long limit = failAfter;
+            failAfter = -1;
+            final InputStream range = new ByteArrayInputStream(content, start, end - start + 1);
+            InputStream body = new InputStream() {
+                private long sent;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (limit >= 0 && sent >= limit)
+                        throw new IOException("Connection reset");
+                    int length = range.read(b, off, limit >= 0 ? (int) Math.min(len, limit - sent) : len);
+                    sent += Math.max(length, 0);
+                    return length;
+                }
+            };
+            Map<String, List<String>> responseHeaders = rangeHeader == null || ignoreRange ? Collections.<String, List<String>>emptyMap()
+                    : Collections.singletonMap("Content-Range", Collections.singletonList(String.format("bytes %d-%d/%d", start, end, content.length)));
+            return new SignerInputStream(body, responseHeaders);
+        }
+    }
+
+    private File target;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        target = File.createTempFile("download", ".bin");
+        target.delete();
+        content = new byte[100000];
+        new Random(42).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() {
+        target.delete();
+        new File(target.getPath() + ResumableDownload.PART_SUFFIX).delete();
+        new File(target.getPath() + ResumableDownload.CHECKPOINT_SUFFIX).delete();
+    }
+
+    private NetStorage createNetStorage(FileTransport transport) {
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        ns.setTransport(transport);
+        return ns;
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        FileTransport transport = new FileTransport(content);
+        assertTrue(createNetStorage(transport).download("/1234/file.bin", target));
+
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+        assertEquals(target.lastModified(), transport.mtime * 1000);
+        assertFalse(new File(target.getPath() + ResumableDownload.CHECKPOINT_SUFFIX).exists());
+        assertFalse(new File(target.getPath() + ResumableDownload.PART_SUFFIX).exists());
+        assertEquals(transport.ranges, Collections.singletonList(null));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        FileTransport transport = new FileTransport(content);
+        transport.failAfter = 30000;
+        ResumableDownload download = new ResumableDownload(createNetStorage(transport), 10000, 5);
+        download.setBufferSize(1000);
+
+        assertEquals(download.download("/1234/file.bin", target), content.length);
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+        assertEquals(transport.ranges, Arrays.asList(null, "bytes=30000-"));
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        FileTransport transport = new FileTransport(content);
+        transport.failAfter = 25000;
+        ResumableDownload download = new ResumableDownload(createNetStorage(transport), 10000, 0);
+        download.setBufferSize(1000);
+        try {
+            download.download("/1234/file.bin", target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertTrue(new File(target.getPath() + ResumableDownload.CHECKPOINT_SUFFIX).exists());
+        }
+
+        // a new process resumes from the last checkpoint, not from the last byte written
+        assertEquals(download.download("/1234/file.bin", target), content.length - 20000);
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+        assertEquals(transport.ranges, Arrays.asList(null, "bytes=20000-"));
+    }
+
+    @Test
+    public void testRemoteChanged() throws Exception {
+        FileTransport transport = new FileTransport(content);
+        transport.failAfter = 25000;
+        ResumableDownload download = new ResumableDownload(createNetStorage(transport), 10000, 0);
+        try {
+            download.download("/1234/file.bin", target);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        transport.mtime++;
+        assertEquals(download.download("/1234/file.bin", target), content.length);
+        assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+        assertEquals(transport.ranges.get(1), null);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Unit test class for the retry policy
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class RetryPolicyTest {
+
+    private static NetStorageException error(int responseCode, String retryAfter) {
+        Map<String, List<String>> headers = Collections.emptyMap();
+        if (retryAfter != null)
+            headers = Collections.singletonMap("retry-after", Collections.singletonList(retryAfter));
+        return new NetStorageException("Error", responseCode, headers);
+    }
+
+    @Test
+    public void testRetryableResponses() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.getRetryDelay(error(503, null), 1, true) >= 0);
+        assertTrue(policy.getRetryDelay(error(429, null), 1, true) >= 0);
+        assertEquals(policy.getRetryDelay(error(404, null), 1, true), -1);
+        assertEquals(policy.getRetryDelay(error(403, null), 1, true), -1);
+        assertEquals(policy.getRetryDelay(error(503, null), 1, false), -1);
+        assertEquals(policy.getRetryDelay(error(503, null), 4, true), -1);
+        assertEquals(policy.getRetryCount(), 2);
+        assertEquals(RetryPolicy.none().getRetryDelay(error(503, null), 1, true), -1);
+    }
+
+    @Test
+    public void testConnectionErrors() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.getRetryDelay(new NetStorageException("Communication Error", new SocketException("Connection reset")), 1, true) >= 0);
+        assertEquals(policy.getRetryDelay(new NetStorageException("Communication Error", new IOException("Bad content")), 1, true), -1);
+    }
+
+    @Test
+    public void testBackoff() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelay(100);
+        policy.setMaxDelay(1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getBackoff(1) <= 100);
+            assertTrue(policy.getBackoff(3) <= 400);
+            assertTrue(policy.getBackoff(10) <= 1000);
+            assertTrue(policy.getBackoff(64) >= 0);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetryAfter(10000);
+        assertEquals(policy.getRetryDelay(error(429, "2"), 1, true), 2000);
+        assertEquals(policy.getRetryDelay(error(429, "60"), 1, true), -1);
+        assertEquals(policy.getRetryAfter(error(503, "soon")), -1);
+
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5));
+        long delay = policy.getRetryDelay(error(503, date), 1, true);
+        assertTrue(delay > 3000 && delay <= 5000);
+    }
+
+    @Test
+    public void testRetryBudget() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setRetryBudget(2);
+        policy.setRetryBudgetRatio(0.5);
+        assertTrue(policy.getRetryDelay(error(503, null), 1, true) >= 0);
+        assertTrue(policy.getRetryDelay(error(503, null), 1, true) >= 0);
+        assertEquals(policy.getRetryDelay(error(503, null), 1, true), -1);
+        assertEquals(policy.getBudgetExhaustedCount(), 1);
+
+        policy.recordSuccess();
+        assertEquals(policy.getRetryDelay(error(503, null), 1, true), -1);
+        policy.recordSuccess();
+        assertTrue(policy.getRetryDelay(error(503, null), 1, true) >= 0);
+
+        for (int i = 0; i < 100; i++)
+            policy.recordSuccess();
+        assertEquals(policy.getAvailableBudget(), 2.0, 0.0001);
+    }
+}
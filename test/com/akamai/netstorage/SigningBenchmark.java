@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.builders.APIEventStat;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares signing a stat request the way {@link NetStorageCMSv35Signer} did before (a new Mac, key, Random and
+ * String.format for every request) against the {@link SigningEngine}, reporting the time and the bytes allocated per
+ * request. It is not run by the build; run it from the test classpath:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes com.akamai.netstorage.SigningBenchmark [requests] [iterations]
+ * </pre>
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class SigningBenchmark {
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        DefaultCredential credential = new DefaultCredential("www.example.com", "user1", "secret1secret1secret1");
+        NetStorageCMSv35Signer signer = new NetStorageCMSv35Signer("GET",
+                new URL("https", "www.example.com", "/1234/site/img/logo.jpg"), new APIEventStat().withFormat("xml"));
+        System.out.printf("%d requests, %d iterations%n", requests, iterations);
+
+        run("previous computeHeaders", requests, iterations, () -> sink = previousComputeHeaders(signer, credential));
+        run("computeHeaders", requests, iterations, () -> sink = signer.computeHeaders(credential));
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void run(String name, int requests, int iterations, Task task) throws Exception {
+        // warm up the JIT before measuring
+        for (int i = 0; i < requests; i++)
+            task.run();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (int r = 0; r < requests; r++)
+                task.run();
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - bytes);
+        }
+        System.out.printf("%-30s %8.0f ns/request  %10.0f requests/s  %6d bytes/request%n", name,
+                (double) best / requests, requests / (best / 1e9), allocated / requests);
+    }
+
+    /**
+     * The computeHeaders of the previous signer.
+     */
+    private static Map<String, String> previousComputeHeaders(NetStorageCMSv35Signer signer, DefaultCredential credential) throws Exception {
+        Map<String, String> headers = new HashMap<>(8);
+        String action = signer.getActionHeaderValue();
+        String authData = String.format("%d, 0.0.0.0, 0.0.0.0, %d, %d, %s", 5, new Date().getTime() / 1000,
+                new Random().nextInt(Integer.MAX_VALUE), credential.getUsername());
+        String signData = String.format("%s%s\n%s:%s\n", authData, signer.getUrl().getPath(),
+                "X-Akamai-ACS-Action".toLowerCase(), action);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(credential.getKey().getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        String authSign = Utils.encodeBase64(mac.doFinal(signData.getBytes(StandardCharsets.UTF_8)));
+
+        headers.put("X-Akamai-NSKit", "Java/3.6");
+        headers.put("X-Akamai-ACS-Action", action);
+        headers.put("X-Akamai-ACS-Auth-Data", authData);
+        headers.put("X-Akamai-ACS-Auth-Sign", authSign);
+        return headers;
+    }
+}
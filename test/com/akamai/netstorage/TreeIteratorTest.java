@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import com.akamai.netstorage.NetStorageCMSv35Signer.NetStorageType;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the TreeIterator and the list action
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class TreeIteratorTest {
+
+    /**
+     * An ObjectStore that answers the list action from a sorted set of object paths.
+     */
+    static class ListTransport implements NetStorageTransport {
+        final TreeSet<String> objects = new TreeSet<>();
+        final List<String> requests = new ArrayList<>();
+
+        @Override
+        public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+            String path = request.getUrl().getPath();
+            Map<String, String> parameters = UploadSyncTest.MemoryTransport.parameters(request.getActionHeaderValue());
+            if (!"list".equals(parameters.get("action")) || !"xml".equals(parameters.get("format")))
+                throw new NetStorageException("Bad Request", 400);
+            requests.add(path);
+            int max = Integer.parseInt(parameters.get("max_entries"));
+            String end = URLDecoder.decode(parameters.get("end"), StandardCharsets.UTF_8);
+
+            StringBuilder xml = new StringBuilder("<list>");
+            int count = 0;
+            for (String object : objects.tailSet(path, true)) {
+                if (object.compareTo(end) >= 0)
+                    break;
+                if (count++ == max) {
+                    xml.append(String.format("<resume start=\"%s\"/>", object.substring(1)));
+                    break;
+                }
+                xml.append(String.format("<file type=\"file\" name=\"%s\" size=\"1\" mtime=\"1400000000\"/>", object.substring(1)));
+            }
+            xml.append("</list>");
+            return new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static NetStorage netStorage(String hostname, NetStorageTransport transport) {
+        NetStorage netStorage = new NetStorage(new DefaultCredential(hostname, "user1", "secret1"));
+        netStorage.setTransport(transport);
+        return netStorage;
+    }
+
+    private static List<String> paths(TreeIterator iterator) {
+        return iterator.stream().map(DirEntry::getPath).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testList() throws Exception {
+        ListTransport transport = new ListTransport();
+        transport.objects.addAll(Arrays.asList("/1234/other/x", "/1234/site.old/x", "/1234/site/a", "/1234/site/b/c",
+                "/1234/site/b/d", "/1234/site/e", "/1234/site0", "/1234/zz"));
+        NetStorage netStorage = netStorage("objectstore.example.com", transport);
+        netStorage.setNetStorageType(NetStorageType.ObjectStore);
+
+        TreeIterator iterator = new TreeIterator(netStorage, "/1234/site", 2, null, true);
+        assertEquals(paths(iterator), Arrays.asList("/1234/site/a", "/1234/site/b/c", "/1234/site/b/d", "/1234/site/e"));
+        // the first page starts at the directory itself and includes the sibling site.old
+        assertEquals(transport.requests, Arrays.asList("/1234/site", "/1234/site/b/c", "/1234/site/e"));
+
+        transport.requests.clear();
+        try (TreeIterator list = netStorage.list("/1234/site/")) {
+            assertTrue(list.isFlat());
+            assertEquals(list.next().getName(), "a");
+            assertEquals(list.next().getDirectory(), "/1234/site/b");
+        }
+        assertEquals(transport.requests, Collections.singletonList("/1234/site"));
+    }
+
+    @Test
+    public void testListCursor() throws Exception {
+        ListTransport transport = new ListTransport();
+        transport.objects.addAll(Arrays.asList("/1234/site/a", "/1234/site/b", "/1234/site/c"));
+        NetStorage netStorage = netStorage("objectstore.example.com", transport);
+
+        TreeIterator iterator = new TreeIterator(netStorage, "/1234/site", 10, "/1234/site/a", true);
+        assertEquals(paths(iterator), Arrays.asList("/1234/site/b", "/1234/site/c"));
+        assertEquals(iterator.getCursor(), "/1234/site/c");
+    }
+
+    @Test
+    public void testDirWalk() throws Exception {
+        UploadSyncTest.MemoryTransport transport = new UploadSyncTest.MemoryTransport();
+        transport.put("/1234/site/a", "a", 1400000000);
+        transport.put("/1234/site/b/c", "c", 1400000000);
+        transport.put("/1234/site/b/d/e", "e", 1400000000);
+        transport.put("/1234/site/f", "f", 1400000000);
+        NetStorage netStorage = netStorage("filestore.example.com", transport);
+        netStorage.setNetStorageType(NetStorageType.FileStore);
+
+        TreeIterator iterator = netStorage.list("/1234/site");
+        assertFalse(iterator.isFlat());
+        assertEquals(paths(iterator), Arrays.asList("/1234/site/a", "/1234/site/b/c", "/1234/site/b/d/e", "/1234/site/f"));
+
+        // resume inside a subdirectory
+        assertEquals(paths(netStorage.list("/1234/site", "/1234/site/b/c")), Arrays.asList("/1234/site/b/d/e", "/1234/site/f"));
+        assertEquals(paths(netStorage.list("/1234/site", "/1234/site/b/d/e")), Collections.singletonList("/1234/site/f"));
+    }
+
+    @Test
+    public void testStorageTypeCache() throws Exception {
+        AtomicInteger stats = new AtomicInteger();
+        NetStorageTransport transport = (request, credential) -> {
+            stats.incrementAndGet();
+            return new SignerInputStream(new ByteArrayInputStream(new byte[0]),
+                    Collections.singletonMap("Server", Collections.singletonList("AkamaiNetStorage")));
+        };
+        String hostname = "detect-" + System.nanoTime() + ".example.com";
+        assertEquals(netStorage(hostname, transport).getNetStorageType(), NetStorageType.ObjectStore);
+        // cached for the hostname, across clients
+        assertEquals(netStorage(hostname, transport).getNetStorageType(), NetStorageType.ObjectStore);
+        assertEquals(stats.get(), 1);
+
+        netStorage(hostname, transport).setNetStorageType(null);
+        netStorage(hostname, transport).getNetStorageType();
+        assertEquals(stats.get(), 2);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the parallel TreeWalker
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class TreeWalkerTest {
+
+    /**
+     * Answers dir requests from a fixed listing per directory and records how many are in flight at once.
+     */
+    static class TreeTransport implements NetStorageTransport {
+        final Map<String, String> listings = new ConcurrentHashMap<>();
+        final Set<String> listed = ConcurrentHashMap.newKeySet();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        void directory(String path, String... entries) {
+            StringBuilder xml = new StringBuilder(String.format("<stat directory=\"%s\">", path));
+            for (String entry : entries) {
+                if (entry.endsWith("/"))
+                    xml.append(String.format("<file type=\"dir\" name=\"%s\"/>", entry.substring(0, entry.length() - 1)));
+                else if (entry.contains("->"))
+                    xml.append(String.format("<file type=\"symlink\" name=\"%s\" target=\"%s\"/>", entry.split("->")[0], entry.split("->")[1]));
+                else
+                    xml.append(String.format("<file type=\"file\" name=\"%s\" size=\"1\"/>", entry));
+            }
+            listings.put(path, xml.append("</stat>").toString());
+        }
+
+        @Override
+        public InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+            String path = request.getUrl().getPath();
+            listed.add(path);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            String xml = listings.get(path);
+            if (xml == null)
+                throw new NetStorageException("Forbidden", 403);
+            return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private TreeTransport transport;
+    private NetStorage netStorage;
+
+    @Before
+    public void setUp() {
+        transport = new TreeTransport();
+        transport.directory("/1234/site", "index.html", "img/", "cache/", "up->..");
+        transport.directory("/1234/site/img", "logo.jpg", "icons/");
+        transport.directory("/1234/site/img/icons", "a.jpg", "b.png");
+        transport.directory("/1234/site/cache", "tmp.bin");
+        for (int i = 0; i < 20; i++)
+            transport.directory("/1234/wide/d" + i, "f");
+        String[] wide = new String[20];
+        for (int i = 0; i < wide.length; i++)
+            wide[i] = "d" + i + "/";
+        transport.directory("/1234/wide", wide);
+
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport(transport);
+        netStorage.setRetryPolicy(RetryPolicy.none());
+    }
+
+    @Test
+    public void testWalk() throws Exception {
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        TreeWalker.Summary summary = new TreeWalker(netStorage).walk("/1234/site/", entry -> visited.add(entry.getPath()));
+
+        assertEquals(visited, new HashSet<>(Arrays.asList("/1234/site/index.html", "/1234/site/img", "/1234/site/cache",
+                "/1234/site/up", "/1234/site/img/logo.jpg", "/1234/site/img/icons", "/1234/site/img/icons/a.jpg",
+                "/1234/site/img/icons/b.png", "/1234/site/cache/tmp.bin")));
+        assertEquals(summary.getDirectories(), 4);
+        assertEquals(summary.getVisited(), 9);
+        assertEquals(summary.getSymlinks(), 1);
+        assertTrue(summary.getFailures().isEmpty());
+        // the symlink is not followed
+        assertFalse(transport.listed.contains("/1234/site/up"));
+    }
+
+    @Test
+    public void testPruneAndFilter() throws Exception {
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        TreeWalker walker = new TreeWalker(netStorage);
+        walker.setPruneFilter(TreeWalker.glob("/1234/site/{cache,tmp}"));
+        walker.setFilter(TreeWalker.glob("/1234/site/**.jpg"));
+        TreeWalker.Summary summary = walker.walk("/1234/site", entry -> visited.add(entry.getPath()));
+
+        assertEquals(visited, new HashSet<>(Arrays.asList("/1234/site/img/logo.jpg", "/1234/site/img/icons/a.jpg")));
+        assertEquals(summary.getPruned(), 1);
+        assertEquals(summary.getDirectories(), 3);
+        assertFalse(transport.listed.contains("/1234/site/cache"));
+    }
+
+    @Test
+    public void testMaxDepth() throws Exception {
+        TreeWalker walker = new TreeWalker(netStorage);
+        walker.setMaxDepth(2);
+        AtomicInteger count = new AtomicInteger();
+        walker.walk("/1234/site", entry -> count.incrementAndGet());
+        assertEquals(count.get(), 7);
+        assertFalse(transport.listed.contains("/1234/site/img/icons"));
+    }
+
+    @Test
+    public void testConcurrentListings() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        TreeWalker.Summary summary = new TreeWalker(netStorage, 3).walk("/1234/wide", entry -> count.incrementAndGet());
+        assertEquals(summary.getDirectories(), 21);
+        assertEquals(count.get(), 40);
+        assertTrue(transport.maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        transport.listings.remove("/1234/site/img");
+        TreeWalker.Summary summary = new TreeWalker(netStorage).walk("/1234/site", entry -> {
+        });
+        assertEquals(summary.getFailures().keySet(), Collections.singleton("/1234/site/img"));
+        assertEquals(((NetStorageException) summary.getFailures().get("/1234/site/img")).getResponseCode(), 403);
+        assertEquals(summary.getDirectories(), 2);
+
+        try {
+            new TreeWalker(netStorage).walk("/1234/missing", entry -> {
+            });
+            fail("Expected the root to fail");
+        } catch (NetStorageException e) {
+            assertEquals(e.getResponseCode(), 403);
+        }
+    }
+}
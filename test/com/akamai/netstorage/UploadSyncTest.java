@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import com.akamai.auth.ClientCredential;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the UploadSync directory sync
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class UploadSyncTest {
+
+    /**
+     * An in-memory Netstorage tree that answers upload, download, dir, stat, du, mtime, delete and rmdir. Adding a
+     * file updates the mtime of its directory, as on FileStore.
+     */
+    static class MemoryTransport implements NetStorageTransport {
+        final Map<String, byte[]> files = new TreeMap<>();
+        final Map<String, Long> mtimes = new HashMap<>();
+        final TreeSet<String> dirs = new TreeSet<>();
+        final List<String> actions = Collections.synchronizedList(new ArrayList<String>());
+
+        void put(String path, String content, long mtime) {
+            files.put(path, content.getBytes(StandardCharsets.UTF_8));
+            mtimes.put(path, mtime);
+            mtimes.put(path.substring(0, path.lastIndexOf('/')), mtime);
+            for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1))
+                dirs.add(path.substring(0, i));
+        }
+
+        String get(String path) {
+            return files.containsKey(path) ? new String(files.get(path), StandardCharsets.UTF_8) : null;
+        }
+
+        static Map<String, String> parameters(String action) {
+            Map<String, String> parameters = new HashMap<>();
+            for (String pair : action.split("&")) {
+                String[] keyValue = pair.split("=", 2);
+                parameters.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+            }
+            return parameters;
+        }
+
+        private List<String> children(String dir) {
+            List<String> children = new ArrayList<>();
+            for (String path : dirs.tailSet(dir + "/"))
+                if (path.startsWith(dir + "/") && path.indexOf('/', dir.length() + 1) < 0)
+                    children.add(path);
+            for (String path : files.keySet())
+                if (path.startsWith(dir + "/") && path.indexOf('/', dir.length() + 1) < 0)
+                    children.add(path);
+            // in name order, as Netstorage lists them
+            Collections.sort(children);
+            return children;
+        }
+
+        private String element(String path) {
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            if (dirs.contains(path))
+                return String.format("<file type=\"dir\" name=\"%s\" mtime=\"%d\"/>", name, mtimes.getOrDefault(path, 1400000000L));
+            return String.format("<file type=\"file\" name=\"%s\" size=\"%d\" mtime=\"%d\" md5=\"%s\"/>", name, files.get(path).length,
+                    mtimes.get(path), Utils.encodeHex(md5(files.get(path))));
+        }
+
+        private static byte[] md5(byte[] content) {
+            try {
+                return Utils.computeHash(new ByteArrayInputStream(content), Utils.HashAlgorithm.MD5);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public synchronized InputStream execute(NetStorageCMSv35Signer request, ClientCredential credential) throws NetStorageException {
+            String path = request.getUrl().getPath();
+            Map<String, String> parameters = parameters(request.getActionHeaderValue());
+            String action = parameters.get("action");
+            actions.add(action + " " + path);
+
+            StringBuilder xml = new StringBuilder();
+            switch (action) {
+                case "upload":
+                    try {
+                        put(path, new String(request.getUploadStream().readAllBytes(), StandardCharsets.UTF_8),
+                                Long.parseLong(parameters.get("mtime")));
+                    } catch (IOException e) {
+                        throw new NetStorageException(e);
+                    }
+                    break;
+                case "download":
+                    if (!files.containsKey(path))
+                        throw new NetStorageException("Not Found", 404);
+                    return new ByteArrayInputStream(files.get(path));
+                case "dir":
+                    if (!dirs.contains(path))
+                        throw new NetStorageException("Not Found", 404);
+                    xml.append(String.format("<stat directory=\"%s\">", path));
+                    for (String child : children(path))
+                        xml.append(element(child));
+                    xml.append("</stat>");
+                    break;
+                case "stat":
+                    if (!dirs.contains(path) && !files.containsKey(path))
+                        throw new NetStorageException("Not Found", 404);
+                    xml.append(String.format("<stat directory=\"%s\">%s</stat>", path.substring(0, path.lastIndexOf('/')), element(path)));
+                    break;
+                case "du":
+                    if (!dirs.contains(path))
+                        throw new NetStorageException("Not Found", 404);
+                    long count = 0, bytes = 0;
+                    for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                        if (file.getKey().startsWith(path + "/")) {
+                            count++;
+                            bytes += file.getValue().length;
+                        }
+                    }
+                    xml.append(String.format("<du directory=\"%s\"><du-info files=\"%d\" bytes=\"%d\"/></du>", path, count, bytes));
+                    break;
+                case "mtime":
+                    mtimes.put(path, Long.parseLong(parameters.get("mtime")));
+                    break;
+                case "delete":
+                    if (files.remove(path) == null)
+                        throw new NetStorageException("Not Found", 404);
+                    break;
+                case "rmdir":
+                    if (!children(path).isEmpty())
+                        throw new NetStorageException("Conflict", 409);
+                    dirs.remove(path);
+                    break;
+                default:
+                    throw new NetStorageException("Bad Request", 400);
+            }
+            return new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private File local;
+    private MemoryTransport transport;
+    private NetStorage netStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        local = Files.createTempDirectory("sync").toFile();
+        transport = new MemoryTransport();
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport(transport);
+    }
+
+    @After
+    public void tearDown() {
+        delete(local);
+    }
+
+    private static void delete(File file) {
+        File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (children != null)
+            for (File child : children)
+                delete(child);
+        file.delete();
+    }
+
+    private File write(String path, String content, long mtime) throws IOException {
+        File file = new File(local, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(mtime * 1000);
+        return file;
+    }
+
+    @Test
+    public void testSync() throws Exception {
+        write("index.html", "index", 1400000000);
+        write("css/site.css", "body {}", 1400000001);
+        write("img/logo.png", "logo", 1400000002);
+        transport.put("/1234/site/index.html", "index", 1400000000);
+        transport.put("/1234/site/img/logo.png", "logo", 1300000000);
+        transport.put("/1234/site/css/site.css", "body {color: red}", 1400000001);
+
+        UploadSync.Summary summary = new UploadSync(netStorage, 2, false).sync(local, "/1234/site/");
+        assertTrue(summary.getFailures().isEmpty());
+        assertEquals(summary.getSkipped(), 1);
+        // same content, other mtime
+        assertEquals(summary.getTouched(), 1);
+        assertEquals(summary.getUploaded(), 1);
+        assertEquals(summary.getUploadedBytes(), 7);
+        assertEquals(transport.get("/1234/site/css/site.css"), "body {}");
+        assertEquals((long) transport.mtimes.get("/1234/site/css/site.css"), 1400000001L);
+        assertEquals((long) transport.mtimes.get("/1234/site/img/logo.png"), 1400000002L);
+
+        // nothing has changed
+        transport.actions.clear();
+        summary = new UploadSync(netStorage).sync(local, "/1234/site");
+        assertEquals(summary.getSkipped(), 3);
+        assertEquals(summary.getUploaded() + summary.getTouched(), 0);
+        for (String action : transport.actions)
+            assertTrue(action.startsWith("dir "));
+    }
+
+    @Test
+    public void testSyncNewDirectory() throws Exception {
+        write("a/b/c.txt", "c", 1400000000);
+        UploadSync.Summary summary = new UploadSync(netStorage).sync(local, "/1234/new");
+        assertEquals(summary.getUploaded(), 1);
+        assertEquals(transport.get("/1234/new/a/b/c.txt"), "c");
+        assertEquals((long) transport.mtimes.get("/1234/new/a/b/c.txt"), 1400000000L);
+    }
+
+    @Test
+    public void testSyncDelete() throws Exception {
+        write("keep.txt", "keep", 1400000000);
+        transport.put("/1234/site/keep.txt", "keep", 1400000000);
+        transport.put("/1234/site/old.txt", "old", 1400000000);
+        transport.put("/1234/site/old/deep/file.txt", "old", 1400000000);
+
+        // deletes are opt-in
+        UploadSync sync = new UploadSync(netStorage);
+        assertEquals(sync.sync(local, "/1234/site").getDeleted(), 0);
+        assertNotNull(transport.get("/1234/site/old.txt"));
+
+        sync.setDelete(true);
+        UploadSync.Summary summary = sync.sync(local, "/1234/site");
+        assertTrue(summary.getFailures().isEmpty());
+        assertEquals(summary.getDeleted(), 4);
+        assertEquals(transport.files.keySet(), Collections.singleton("/1234/site/keep.txt"));
+        assertFalse(transport.dirs.contains("/1234/site/old"));
+    }
+
+    @Test
+    public void testSyncSymbolicLinks() throws Exception {
+        write("a/file.txt", "file", 1400000000);
+        Files.createSymbolicLink(new File(local, "a/parent").toPath(), local.toPath());
+        Files.createSymbolicLink(new File(local, "link.txt").toPath(), new File(local, "a/file.txt").toPath());
+
+        UploadSync.Summary summary = new UploadSync(netStorage).sync(local, "/1234/site");
+        // a link to a file is uploaded as the file, a link to a directory is not followed
+        assertEquals(summary.getUploaded(), 2);
+        assertEquals(transport.get("/1234/site/link.txt"), "file");
+        assertEquals(summary.getFailures().keySet(), Collections.singleton("/1234/site/a/parent"));
+    }
+
+    @Test
+    public void testSyncFailure() throws Exception {
+        write("a.txt", "a", 1400000000);
+        write("b.txt", "b", 1400000000);
+        netStorage.setRetryPolicy(RetryPolicy.none());
+        netStorage.setTransport((request, credential) -> {
+            if (request.getUrl().getPath().endsWith("/a.txt"))
+                throw new NetStorageException("Forbidden", 403);
+            return transport.execute(request, credential);
+        });
+
+        UploadSync.Summary summary = new UploadSync(netStorage).sync(local, "/1234/site");
+        assertEquals(summary.getUploaded(), 1);
+        assertEquals(summary.getFailures().keySet(), Collections.singleton("/1234/site/a.txt"));
+        assertEquals(transport.get("/1234/site/b.txt"), "b");
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the parallel, cached UsageAnalyzer
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class UsageAnalyzerTest {
+
+    private UploadSyncTest.MemoryTransport transport;
+    private NetStorage netStorage;
+
+    @Before
+    public void setUp() {
+        transport = new UploadSyncTest.MemoryTransport();
+        transport.put("/1234/site/index.html", "index", 1400000000);
+        transport.put("/1234/site/img/logo.jpg", "logo-logo", 1400000000);
+        transport.put("/1234/site/img/icons/a.png", "aa", 1400000000);
+        transport.put("/1234/site/css/site.css", "body", 1400000000);
+
+        netStorage = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        netStorage.setTransport(transport);
+        netStorage.setRetryPolicy(RetryPolicy.none());
+    }
+
+    private TreeSet<String> duRequests() {
+        TreeSet<String> requests = transport.actions.stream().filter(action -> action.startsWith("du "))
+                .map(action -> action.substring(3)).collect(Collectors.toCollection(TreeSet::new));
+        transport.actions.clear();
+        return requests;
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        UsageAnalyzer.Report report = new UsageAnalyzer(netStorage).analyze("/1234/site/");
+
+        UsageAnalyzer.Usage root = report.getRoot();
+        assertEquals(root.getPath(), "/1234/site");
+        assertEquals(root.getFiles(), 4);
+        assertEquals(root.getBytes(), 20);
+        assertEquals(root.getOwnFiles(), 1);
+        assertEquals(root.getOwnBytes(), 5);
+        List<String> children = root.getChildren().stream().map(UsageAnalyzer.Usage::getPath).collect(Collectors.toList());
+        assertEquals(children, Arrays.asList("/1234/site/css", "/1234/site/img"));
+
+        // the icons are deeper than the report and count as the own files of img
+        UsageAnalyzer.Usage img = report.getUsage("/1234/site/img");
+        assertEquals(img.getFiles(), 2);
+        assertEquals(img.getOwnBytes(), 11);
+        assertTrue(img.getChildren().isEmpty());
+        assertNull(report.getUsage("/1234/site/img/icons"));
+        assertEquals(report.getQueried(), 3);
+        assertEquals(report.getCached(), 0);
+        assertTrue(report.getFailures().isEmpty());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        UsageAnalyzer analyzer = new UsageAnalyzer(netStorage, 4, 2);
+        analyzer.analyze("/1234/site");
+        assertEquals(duRequests().size(), 4);
+
+        UsageAnalyzer.Report report = analyzer.analyze("/1234/site");
+        assertEquals(duRequests(), Collections.emptySet());
+        assertEquals(report.getCached(), 4);
+        assertTrue(report.getRoot().isCached());
+        assertEquals(report.getRoot().getFiles(), 4);
+
+        // only the changed directory and its ancestors are sized again
+        transport.put("/1234/site/img/icons/b.png", "bbb", 1500000000);
+        report = analyzer.analyze("/1234/site");
+        assertEquals(duRequests(), new TreeSet<>(Arrays.asList("/1234/site", "/1234/site/img", "/1234/site/img/icons")));
+        assertEquals(report.getQueried(), 3);
+        assertEquals(report.getCached(), 1);
+        assertTrue(report.getUsage("/1234/site/css").isCached());
+        assertFalse(report.getUsage("/1234/site/img").isCached());
+        assertEquals(report.getRoot().getFiles(), 5);
+        assertEquals(report.getUsage("/1234/site/img/icons").getBytes(), 5);
+
+        analyzer.invalidate("/1234/site/css");
+        analyzer.analyze("/1234/site");
+        assertEquals(duRequests(), new TreeSet<>(Arrays.asList("/1234/site", "/1234/site/css")));
+
+        analyzer.setMaxAge(0);
+        analyzer.analyze("/1234/site");
+        assertEquals(duRequests().size(), 4);
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        transport.dirs.add("/1234/site/gone");
+        netStorage.setTransport((request, credential) -> {
+            if (request.getUrl().getPath().equals("/1234/site/img") && request.getActionHeaderValue().contains("action=du"))
+                throw new NetStorageException("Forbidden", 403);
+            return transport.execute(request, credential);
+        });
+        UsageAnalyzer.Report report = new UsageAnalyzer(netStorage).analyze("/1234/site");
+        assertEquals(report.getFailures().keySet(), Collections.singleton("/1234/site/img"));
+        assertEquals(((NetStorageException) report.getFailures().get("/1234/site/img")).getResponseCode(), 403);
+        assertNull(report.getUsage("/1234/site/img"));
+        assertNotNull(report.getUsage("/1234/site/gone"));
+        assertEquals(report.getUsage("/1234/site/gone").getFiles(), 0);
+
+        try {
+            new UsageAnalyzer(netStorage).analyze("/1234/missing");
+            fail("Expected the root to fail");
+        } catch (NetStorageException e) {
+            assertEquals(e.getResponseCode(), 404);
+        }
+    }
+}
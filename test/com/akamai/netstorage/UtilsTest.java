@@ -20,13 +20,22 @@ import com.akamai.netstorage.parameter.Parameter;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Flow;
 
 import static org.junit.Assert.*;
 
@@ -166,4 +175,44 @@ public class UtilsTest extends Utils {
         assertEquals(stream.available(), 0);
 
     }
+
+    @Test
+    public void testTransfer() throws Exception {
+        byte[] data = "Lorem ipsum dolor sit amet, an sea putant quaeque, homero aperiam te eos.".getBytes(StandardCharsets.UTF_8);
+        File tmpFile = File.createTempFile("transfer", ".txt");
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            ByteArrayInputStream stream = new ByteArrayInputStream(data);
+
+            assertEquals(Utils.transfer(stream, channel, 0, 20, buffer), 20);
+            assertEquals(stream.available(), 53);
+            assertEquals(Utils.transfer(stream, channel, 20, Long.MAX_VALUE, buffer), 53);
+            assertEquals(Utils.transfer(stream, channel, 73, Long.MAX_VALUE, buffer), 0);
+            assertArrayEquals(Files.readAllBytes(tmpFile.toPath()), data);
+
+            // a direct buffer is read through a channel
+            assertEquals(Utils.transfer(new ByteArrayInputStream(data), channel, 0, 30, ByteBuffer.allocateDirect(8)), 30);
+            assertArrayEquals(Files.readAllBytes(tmpFile.toPath()), data);
+
+            // an HttpClient response is read as a channel, from the buffers the client received
+            ResponseInputStream response = new ResponseInputStream(0);
+            response.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            response.onNext(Arrays.asList(ByteBuffer.wrap(data, 0, 40), ByteBuffer.wrap(data, 40, 33)));
+            response.onComplete();
+            SignerInputStream body = new SignerInputStream(response, Collections.<String, List<String>>emptyMap());
+            assertSame(SignerInputStream.getChannel(body), response);
+            assertEquals(Utils.transfer(body, channel, 100, Long.MAX_VALUE, ByteBuffer.allocateDirect(64)), 73);
+            assertEquals(channel.size(), 173);
+        } finally {
+            tmpFile.delete();
+        }
+    }
 }
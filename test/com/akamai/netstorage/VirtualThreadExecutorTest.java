@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Akamai Technologies http://developer.akamai.com.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.akamai.netstorage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the VirtualThreadExecutor
+ *
+ * @author colinb@akamai.com (Colin Bendell)
+ */
+public class VirtualThreadExecutorTest {
+
+    @Test
+    public void testBoundedConcurrency() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(4);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            executor.execute(() -> {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 4);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+    }
+
+    @Test
+    public void testBoundedThreads() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(4);
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(5000);
+
+        for (int i = 0; i < 5000; i++) {
+            executor.execute(() -> {
+                threads.add(Thread.currentThread());
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+
+        // the tasks beyond the bound wait in the queue rather than in a thread of their own
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertThat(threads.size(), is(4));
+        assertThat(executor.getActiveCount(), is(4));
+        assertThat(executor.getQueuedCount(), is(4996));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAwaitCapacity() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(2);
+        final AtomicInteger maxOutstanding = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            executor.awaitCapacity();
+            maxOutstanding.accumulateAndGet(executor.getActiveCount() + executor.getQueuedCount(), Math::max);
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(maxOutstanding.get() < 2);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdownNow() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+            }
+        });
+        executor.execute(() -> { });
+        executor.execute(() -> { });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        List<Runnable> pending = executor.shutdownNow();
+        assertThat(pending.size(), is(2));
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertThat(interrupted.get(), is(1));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testShutdown() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor(1);
+        executor.shutdown();
+        executor.execute(() -> { });
+    }
+
+    @Test
+    public void testAsyncNetStorage() throws Exception {
+        NetStorage ns = new NetStorage(new DefaultCredential("www.example.com", "user1", "secret1"));
+        final AtomicInteger calls = new AtomicInteger();
+        ns.setTransport((request, credential) -> {
+            calls.incrementAndGet();
+            return new ByteArrayInputStream(new byte[0]);
+        });
+
+        try (AsyncNetStorage async = AsyncNetStorage.withVirtualThreads(ns, 2)) {
+            assertTrue(async.getExecutor() instanceof VirtualThreadExecutor);
+            assertTrue(async.mkdir("/foobar").get());
+        }
+        assertThat(calls.get(), is(1));
+    }
+}